@@ -0,0 +1,126 @@
+package com.navdata.bench;
+
+import java.util.Random;
+
+import com.navdata.kernel.PointBatch;
+
+/**
+ * Seeded synthetic inputs of the benchmarks, the same seed gives the same data
+ * on every machine and release.
+ *
+ * @author Lin DONG
+ *
+ */
+public final class BenchData {
+	/**
+	 * Seed of all generators
+	 */
+	public static final long SEED = 20180501L;
+
+	private BenchData() {
+	}
+
+	/**
+	 * Points like POIs of a city: clusters of different sizes around centers,
+	 * plus a uniform background
+	 *
+	 * @param n
+	 *            number of points
+	 * @param x0
+	 *            west of the city
+	 * @param y0
+	 *            south of the city
+	 * @param size
+	 *            width and height of the city in degree
+	 * @return the points, weights are 1 to 3
+	 */
+	public static PointBatch city(int n, double x0, double y0, double size) {
+		Random random = new Random(SEED);
+		int clusters = 20;
+		double[] cx = new double[clusters];
+		double[] cy = new double[clusters];
+		double[] sigma = new double[clusters];
+		for (int c = 0; c < clusters; c++) {
+			cx[c] = x0 + size * random.nextDouble();
+			cy[c] = y0 + size * random.nextDouble();
+			sigma[c] = size * (0.005 + 0.05 * random.nextDouble());
+		}
+		PointBatch points = PointBatch.allocate(n, true, false);
+		for (int i = 0; i < n; i++) {
+			double x, y;
+			if (random.nextInt(5) == 0) {
+				x = x0 + size * random.nextDouble();
+				y = y0 + size * random.nextDouble();
+			} else {
+				int c = random.nextInt(clusters);
+				x = cx[c] + sigma[c] * random.nextGaussian();
+				y = cy[c] + sigma[c] * random.nextGaussian();
+			}
+			points.add(x, y, 1 + random.nextInt(3));
+		}
+		return points;
+	}
+
+	/**
+	 * Densities with a long tail, like the non-empty grids of a result
+	 *
+	 * @param n
+	 *            number of values
+	 * @return log-normal values
+	 */
+	public static double[] densities(int n) {
+		Random random = new Random(SEED);
+		double[] values = new double[n];
+		for (int i = 0; i < n; i++) {
+			values[i] = Math.exp(random.nextGaussian() * 2 - 3);
+		}
+		return values;
+	}
+
+	/**
+	 * Grid bounds relative to a point for {@link com.navdata.kernel.base.Kernel2D#k}
+	 * which hit one branch of the kernel
+	 *
+	 * @param n
+	 *            number of grids
+	 * @param h
+	 *            band width
+	 * @param branch
+	 *            OUTSIDE (the grid is out of the bounding square of the
+	 *            circle), INSIDE (the grid is within the inscribed square) or
+	 *            BOUNDARY (the area is calculated)
+	 * @return x0, x1, y0, y1 of every grid
+	 */
+	public static double[] grids(int n, double h, String branch) {
+		Random random = new Random(SEED);
+		double length = h / 10;
+		double[] bounds = new double[4 * n];
+		for (int i = 0; i < n; i++) {
+			double x0, y0;
+			while (true) {
+				x0 = (random.nextDouble() * 3 - 1.5) * h;
+				y0 = (random.nextDouble() * 3 - 1.5) * h;
+				if (branch.equals(branchOf(x0, x0 + length, y0, y0 + length, h))) {
+					break;
+				}
+			}
+			bounds[4 * i] = x0;
+			bounds[4 * i + 1] = x0 + length;
+			bounds[4 * i + 2] = y0;
+			bounds[4 * i + 3] = y0 + length;
+		}
+		return bounds;
+	}
+
+	private static String branchOf(double x0, double x1, double y0, double y1, double h) {
+		if (x0 >= h || y0 >= h || x1 <= -h || y1 <= -h) {
+			return "OUTSIDE";
+		}
+		// the same tests as UniformKernel2D: within the inscribed square
+		double a = Math.sqrt(0.5) * h;
+		if (x0 >= -a && x1 <= a && y0 >= -a && y1 <= a) {
+			return "INSIDE";
+		}
+		return "BOUNDARY";
+	}
+}
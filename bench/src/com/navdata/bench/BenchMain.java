@@ -0,0 +1,40 @@
+package com.navdata.bench;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run the benchmarks and write the results as JSON, so that runs of different
+ * releases can be compared by tools.<br>
+ *
+ * The benchmarks are compiled with jmh-core and jmh-generator-annprocess (the
+ * annotation processor generates the harness) on the class path, together with
+ * the classes of src and GDAL. For example:
+ *
+ * <pre>
+ * javac -cp jmh-core.jar:jmh-generator-annprocess.jar:gdal.jar:classes -d bench/classes $(find bench/src -name '*.java')
+ * java -cp jmh-core.jar:commons-math3.jar:jopt-simple.jar:gdal.jar:classes:bench/classes com.navdata.bench.BenchMain result.json Estimator
+ * </pre>
+ *
+ * args: result file (default bench-result.json), then regular expressions of
+ * benchmarks to run (default all).
+ *
+ * @author Lin DONG
+ *
+ */
+public class BenchMain {
+	public static void main(String[] args) throws Exception {
+		String result = (args.length > 0 ? args[0] : "bench-result.json");
+		ChainedOptionsBuilder options = new OptionsBuilder().resultFormat(ResultFormatType.JSON).result(result);
+		if (args.length > 1) {
+			for (int i = 1; i < args.length; i++) {
+				options.include(args[i]);
+			}
+		} else {
+			options.include(BenchMain.class.getPackage().getName() + ".*Benchmark");
+		}
+		new Runner(options.build()).run();
+	}
+}
@@ -0,0 +1,64 @@
+package com.navdata.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.navdata.kernel.Breakpoints;
+import com.navdata.kernel.Classifier100;
+
+/**
+ * {@link Classifier100#map(double...)} (sort and classify) and the classify
+ * part alone with fitted {@link Breakpoints}, at 1e5 to 1e8 values. 1e8 values
+ * need about 2GB of heap.
+ *
+ * @author Lin DONG
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class ClassifierBenchmark {
+	@Param({ "100000", "1000000", "10000000", "100000000" })
+	public int values;
+
+	@Param({ "false", "true" })
+	public boolean parallel;
+
+	private double[] densities;
+	private Classifier100 classifier;
+	private Breakpoints breakpoints;
+	private byte[] classes;
+
+	@Setup
+	public void setup() {
+		densities = BenchData.densities(values);
+		classifier = new Classifier100(parallel);
+		breakpoints = classifier.fit(densities);
+		classes = new byte[values];
+	}
+
+	@Benchmark
+	public int[] map() {
+		return classifier.map(densities);
+	}
+
+	@Benchmark
+	public byte[] transform() {
+		if (parallel) {
+			breakpoints.transformParallel(densities, classes);
+		} else {
+			breakpoints.transform(densities, classes);
+		}
+		return classes;
+	}
+}
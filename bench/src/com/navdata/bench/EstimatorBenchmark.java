@@ -0,0 +1,69 @@
+package com.navdata.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.navdata.kernel.DensityGrid;
+import com.navdata.kernel.GridEstimator;
+import com.navdata.kernel.PointBatch;
+import com.navinfo.grid.GridLevel;
+
+/**
+ * {@link GridEstimator} across grid levels, band widths and point counts, on a
+ * synthetic city of 0.5*0.5 degree. The engines are measured separately, so a
+ * regression of one of them is not hidden by {@link GridEstimator.Engine#AUTO}.
+ *
+ * @author Lin DONG
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class EstimatorBenchmark {
+	@Param({ "GRID_0_001", "GRID_0_002", "GRID_0_005" })
+	public String level;
+
+	@Param({ "0.005", "0.01", "0.02" })
+	public double bandWidth;
+
+	@Param({ "1000", "10000", "100000" })
+	public int points;
+
+	private GridLevel gridLevel;
+	private PointBatch batch;
+	private GridEstimator pointEngine;
+	private GridEstimator fftEngine;
+
+	@Setup
+	public void setup() {
+		gridLevel = GridLevel.valueOf(level);
+		batch = BenchData.city(points, 116, 39.6, 0.5);
+		pointEngine = new GridEstimator();
+		pointEngine.setEngine(GridEstimator.Engine.POINT);
+		fftEngine = new GridEstimator();
+		fftEngine.setEngine(GridEstimator.Engine.FFT);
+	}
+
+	@Benchmark
+	public DensityGrid estimatePoint() {
+		return pointEngine.estimateGrid(batch, bandWidth, gridLevel);
+	}
+
+	@Benchmark
+	public DensityGrid estimateFFT() {
+		return fftEngine.estimateGrid(batch, bandWidth, gridLevel);
+	}
+
+	@Benchmark
+	public DensityGrid estimateParallel() {
+		return pointEngine.estimateParallel(batch, bandWidth, gridLevel);
+	}
+}
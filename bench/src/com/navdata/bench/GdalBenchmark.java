@@ -0,0 +1,115 @@
+package com.navdata.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.gdal.gdal.Dataset;
+import org.gdal.ogr.DataSource;
+import org.gdal.ogr.Layer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.navdata.gdalutils.Contour;
+import com.navdata.gdalutils.ContourLine;
+import com.navdata.gdalutils.ContourTracer;
+import com.navdata.gdalutils.GdalResources;
+import com.navdata.gdalutils.MemData;
+import com.navdata.gdalutils.RasterHandle;
+import com.navdata.gdalutils.RasterPool;
+import com.navdata.gdalutils.Rasterizer;
+import com.navdata.kernel.Breakpoints;
+import com.navdata.kernel.Classifier100;
+import com.navdata.kernel.DensityGrid;
+import com.navdata.kernel.GridEstimator;
+import com.navinfo.grid.GridLevel;
+
+/**
+ * {@link Rasterizer} and contours ({@link Contour#buildContour100_10_0} of GDAL
+ * and {@link ContourTracer}) on the result of a synthetic city. Needs GDAL
+ * with the Java bindings.
+ *
+ * @author Lin DONG
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class GdalBenchmark {
+	@Param({ "10000", "100000" })
+	public int points;
+
+	@Param({ "GRID_0_001", "GRID_0_002" })
+	public String level;
+
+	private DensityGrid density;
+	private Breakpoints breakpoints;
+	private RasterPool pool;
+	private Dataset classes;
+	private ContourTracer tracer;
+
+	@Setup
+	public void setup() {
+		density = new GridEstimator().estimateParallel(BenchData.city(points, 116, 39.6, 0.5), 0.01,
+				GridLevel.valueOf(level));
+		double[] values = new double[(int) density.size()];
+		DensityGrid.Cursor cursor = density.cursor();
+		for (int i = 0; cursor.next(); i++) {
+			values[i] = cursor.density();
+		}
+		breakpoints = new Classifier100(true).fit(values);
+		pool = new RasterPool(RasterPool.DEFAULT_MAX_BYTES);
+		classes = Rasterizer.rasterize(density, breakpoints);
+		tracer = new ContourTracer(10, 0, true, 0);
+	}
+
+	@TearDown
+	public void tearDown() {
+		MemData.deleteTempDataset(classes);
+		pool.clear();
+		GdalResources.releaseThread();
+	}
+
+	@Benchmark
+	public void rasterizeDensity() {
+		MemData.deleteTempDataset(Rasterizer.rasterize(density));
+	}
+
+	@Benchmark
+	public void rasterizeClasses() {
+		MemData.deleteTempDataset(Rasterizer.rasterize(density, breakpoints));
+	}
+
+	@Benchmark
+	public void rasterizePooled() {
+		try (RasterHandle handle = Rasterizer.rasterize(density, breakpoints, pool)) {
+			handle.getDataset();
+		}
+	}
+
+	@Benchmark
+	public int contourGdal() {
+		DataSource dataSource = MemData.getThreadDataSource();
+		Layer layer = Contour.buildContour100_10_0(dataSource, classes);
+		int count = (int) layer.GetFeatureCount();
+		String name = layer.GetName();
+		for (int i = dataSource.GetLayerCount() - 1; i >= 0; i--) {
+			if (name.equals(dataSource.GetLayer(i).GetName())) {
+				dataSource.DeleteLayer(i);
+				break;
+			}
+		}
+		return count;
+	}
+
+	@Benchmark
+	public List<ContourLine> contourTracer() {
+		return tracer.trace(classes, 1);
+	}
+}
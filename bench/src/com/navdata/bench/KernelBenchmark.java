@@ -0,0 +1,55 @@
+package com.navdata.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.navdata.kernel.base.UniformKernel2D;
+
+/**
+ * {@link UniformKernel2D#k(double, double, double, double, double)} per branch:
+ * no common area, grid within the circle, and grid crossing the circle, with
+ * both ways of the boundary grids. POLYGON needs native GDAL.
+ *
+ * @author Lin DONG
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class KernelBenchmark {
+	private static final int GRIDS = 1024;
+	private static final double H = 0.01;
+
+	@Param({ "INSIDE", "OUTSIDE", "BOUNDARY" })
+	public String branch;
+
+	@Param({ "ANALYTIC", "POLYGON" })
+	public String method;
+
+	private double[] bounds;
+	private UniformKernel2D kernel;
+
+	@Setup
+	public void setup() {
+		bounds = BenchData.grids(GRIDS, H, branch);
+		kernel = new UniformKernel2D(UniformKernel2D.Method.valueOf(method));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(GRIDS)
+	public void k(Blackhole blackhole) {
+		for (int i = 0; i < GRIDS; i++) {
+			blackhole.consume(kernel.k(bounds[4 * i], bounds[4 * i + 1], bounds[4 * i + 2], bounds[4 * i + 3], H));
+		}
+	}
+}
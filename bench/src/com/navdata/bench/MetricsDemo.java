@@ -0,0 +1,54 @@
+package com.navdata.bench;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.navdata.kernel.GridEstimator;
+import com.navdata.kernel.PointBatch;
+import com.navdata.metrics.JmxSink;
+import com.navdata.metrics.LogSink;
+import com.navdata.metrics.Metrics;
+import com.navdata.metrics.MetricsSink;
+import com.navinfo.grid.GridLevel;
+
+/**
+ * Demo: estimate random points point by point with the metrics published to
+ * JMX and to the log every second. Run with -Dnavdata.metrics=true.<br>
+ *
+ * args: [number of points], the default is 100000
+ *
+ * @author Lin DONG
+ *
+ */
+public class MetricsDemo {
+	public static void main(String[] args) throws Exception {
+		if (!Metrics.ENABLED) {
+			System.err.println("metrics are disabled, run with -Dnavdata.metrics=true");
+		}
+		int n = (args.length > 0 ? Integer.parseInt(args[0]) : 100000);
+		final JmxSink jmx = new JmxSink();
+		System.out.println("registered " + jmx.register(null));
+		final LogSink log = new LogSink(System.out);
+		Metrics.startReporter(new MetricsSink() {
+			@Override
+			public void publish(Map<String, Long> values) {
+				jmx.publish(values);
+				log.publish(values);
+			}
+		}, 1, TimeUnit.SECONDS);
+		Random random = new Random(0);
+		PointBatch points = PointBatch.allocate(n, false, false);
+		for (int i = 0; i < n; i++) {
+			points.add(116 + random.nextGaussian() * 0.1, 39.9 + random.nextGaussian() * 0.1);
+		}
+		GridEstimator estimator = new GridEstimator();
+		estimator.setEngine(GridEstimator.Engine.POINT);
+		for (int round = 0; round < 3; round++) {
+			estimator.estimateGrid(points, 0.01, GridLevel.GRID_0_002);
+			Thread.sleep(1000);
+		}
+		Metrics.stopReporter();
+		System.out.println(LogSink.format(Metrics.snapshot()));
+	}
+}
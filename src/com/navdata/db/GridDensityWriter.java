@@ -0,0 +1,253 @@
+package com.navdata.db;
+
+import java.awt.geom.Point2D;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.InvalidParameterException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+
+import com.navdata.kernel.DensityGrid;
+import com.navdata.kernel.DensityVisitor;
+import com.navdata.kernel.GridEstimator;
+import com.navinfo.grid.GridLevel;
+
+/**
+ * Bulk writer of grid densities, instead of upsert_grid_density in
+ * kernel.pgsql.<br>
+ *
+ * Results are added up in memory first ({@link #add(DensityGrid)}), one
+ * pending result per grid level, so every grid is written once. Grid IDs of
+ * different levels differ in z, so they can share a table. {@link #flush(String)} streams them by
+ * <code>COPY ... FROM STDIN (FORMAT binary)</code> into an unlogged staging
+ * table, and merges the staging table into the target table with one
+ * <code>INSERT ... ON CONFLICT DO UPDATE</code>, adding densities like
+ * upsert_grid_density does. All of it runs in one transaction.<br>
+ *
+ * The target table must have such fields: gridid BIGINT PRIMARY KEY, density
+ * DOUBLE PRECISION (names can be changed).
+ *
+ * @author Lin DONG
+ *
+ */
+public class GridDensityWriter {
+	/**
+	 * Signature of the binary COPY format
+	 */
+	private static final byte[] SIGNATURE = { 'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0 };
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final Connection connection;
+	private final String gridIDField;
+	private final String densityField;
+	/**
+	 * Pending results by z of their grid level
+	 */
+	private final Map<Integer, DensityGrid> pending = new TreeMap<>();
+
+	/**
+	 * Create a writer, fields are gridid and density
+	 *
+	 * @param connection
+	 *            connection to PostgreSQL
+	 */
+	public GridDensityWriter(Connection connection) {
+		this(connection, "gridid", "density");
+	}
+
+	/**
+	 * Create a writer
+	 *
+	 * @param connection
+	 *            connection to PostgreSQL
+	 * @param gridIDField
+	 *            name of the grid ID field
+	 * @param densityField
+	 *            name of the density field
+	 */
+	public GridDensityWriter(Connection connection, String gridIDField, String densityField) {
+		if (connection == null) {
+			throw new InvalidParameterException("Connection is null.");
+		}
+		this.connection = connection;
+		this.gridIDField = gridIDField;
+		this.densityField = densityField;
+	}
+
+	/**
+	 * Add a result to the pending densities of its grid level, the result is
+	 * consumed. Results of different levels are kept apart and written together.
+	 *
+	 * @param density
+	 *            result of any grid level
+	 * @throws InvalidParameterException
+	 *             if its tile size differs from a pending result of the same
+	 *             level, see {@link DensityGrid#merge(DensityGrid)}
+	 */
+	public void add(DensityGrid density) {
+		DensityGrid same = pending.get(density.getZ());
+		if (same == null) {
+			pending.put(density.getZ(), density);
+		} else {
+			same.merge(density);
+		}
+	}
+
+	/**
+	 * @return number of pending grids of all levels
+	 */
+	public long pendingSize() {
+		long size = 0;
+		for (DensityGrid density : pending.values()) {
+			size += density.size();
+		}
+		return size;
+	}
+
+	/**
+	 * Write the pending densities into the table and clear them
+	 *
+	 * @param tableName
+	 *            the target table
+	 * @return number of grids written
+	 * @throws SQLException
+	 *             on failure, the transaction is rolled back and pending densities
+	 *             are kept
+	 * @throws IOException
+	 *             on failure of the stream
+	 */
+	public long flush(String tableName) throws SQLException, IOException {
+		if (pendingSize() == 0) {
+			pending.clear();
+			return 0;
+		}
+		String staging = tableName + "_staging" + Thread.currentThread().getId() + "_" + System.nanoTime();
+		boolean autoCommit = connection.getAutoCommit();
+		connection.setAutoCommit(false);
+		try (Statement statement = connection.createStatement()) {
+			statement.execute("CREATE UNLOGGED TABLE " + staging + "(" + gridIDField + " BIGINT, " + densityField
+					+ " DOUBLE PRECISION);");
+			long rows = copy(staging, pending.values());
+			statement.execute("INSERT INTO " + tableName + "(" + gridIDField + "," + densityField + ") SELECT "
+					+ gridIDField + "," + densityField + " FROM " + staging + " ON CONFLICT(" + gridIDField
+					+ ") DO UPDATE SET " + densityField + "=" + tableName + "." + densityField + "+EXCLUDED."
+					+ densityField + ";");
+			statement.execute("DROP TABLE " + staging + ";");
+			connection.commit();
+			pending.clear();
+			return rows;
+		} catch (SQLException | IOException | RuntimeException e) {
+			connection.rollback();
+			throw e;
+		} finally {
+			connection.setAutoCommit(autoCommit);
+		}
+	}
+
+	/**
+	 * Stream densities into the staging table
+	 */
+	private long copy(String staging, Collection<DensityGrid> densities) throws SQLException, IOException {
+		PGConnection pg = connection.unwrap(PGConnection.class);
+		PGCopyOutputStream copy = new PGCopyOutputStream(pg,
+				"COPY " + staging + "(" + gridIDField + "," + densityField + ") FROM STDIN (FORMAT binary)",
+				BUFFER_SIZE);
+		try {
+			writeBinary(densities, copy);
+			return copy.endCopy();
+		} finally {
+			copy.close();
+		}
+	}
+
+	/**
+	 * Encode densities in the binary COPY format: header, rows of (bigint,
+	 * float8), trailer.
+	 *
+	 * @param density
+	 *            the densities
+	 * @param out
+	 *            the stream, not closed
+	 * @throws IOException
+	 *             on failure of the stream
+	 */
+	static void writeBinary(DensityGrid density, OutputStream out) throws IOException {
+		writeBinary(Collections.singletonList(density), out);
+	}
+
+	/**
+	 * Encode densities of several results in one binary COPY stream, see
+	 * {@link #writeBinary(DensityGrid, OutputStream)}.
+	 */
+	static void writeBinary(Collection<DensityGrid> densities, OutputStream out) throws IOException {
+		final DataOutputStream data = new DataOutputStream(out);
+		data.write(SIGNATURE);
+		// flags and length of header extension
+		data.writeInt(0);
+		data.writeInt(0);
+		for (DensityGrid density : densities) {
+			DensityGrid.Cursor cursor = density.cursor();
+			while (cursor.next()) {
+				// field count, then length and value of each field
+				data.writeShort(2);
+				data.writeInt(8);
+				data.writeLong(cursor.gridID());
+				data.writeInt(8);
+				data.writeDouble(cursor.density());
+			}
+		}
+		data.writeShort(-1);
+		data.flush();
+	}
+
+	/**
+	 * Load random densities into a local table, for testing.<br>
+	 * args: jdbc url, user, password, table (created if it does not exist),
+	 * number of points
+	 */
+	public static void main(String[] args) throws Exception {
+		String url = (args.length > 0 ? args[0] : "jdbc:postgresql://localhost:5432/postgres");
+		String user = (args.length > 1 ? args[1] : "postgres");
+		String password = (args.length > 2 ? args[2] : "postgres");
+		String table = (args.length > 3 ? args[3] : "grid_density_test");
+		int n = (args.length > 4 ? Integer.parseInt(args[4]) : 100000);
+		Random random = new Random(0);
+		Point2D[] points = new Point2D[n];
+		for (int i = 0; i < n; i++) {
+			points[i] = new Point2D.Double(116 + random.nextDouble(), 39 + random.nextDouble());
+		}
+		long t0 = System.nanoTime();
+		DensityGrid density = new GridEstimator().estimateParallel(points, null, 0.01, GridLevel.GRID_0_001);
+		long t1 = System.nanoTime();
+		try (Connection connection = DriverManager.getConnection(url, user, password)) {
+			try (Statement statement = connection.createStatement()) {
+				statement.execute("CREATE TABLE IF NOT EXISTS " + table
+						+ "(gridid BIGINT PRIMARY KEY, density DOUBLE PRECISION);");
+			}
+			final double[] sum = { 0 };
+			density.forEach(new DensityVisitor() {
+				@Override
+				public void visit(long gridID, double d) {
+					sum[0] += d;
+				}
+			});
+			GridDensityWriter writer = new GridDensityWriter(connection);
+			writer.add(density);
+			long rows = writer.flush(table);
+			long t2 = System.nanoTime();
+			System.out.println(rows + " grids (total " + sum[0] + "), estimate " + (t1 - t0) / 1e6 + "ms, write "
+					+ (t2 - t1) / 1e6 + "ms");
+		}
+	}
+}
@@ -0,0 +1,308 @@
+package com.navdata.db;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.InvalidParameterException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.navdata.kernel.DensityGrid;
+import com.navdata.kernel.GridEstimator;
+import com.navdata.kernel.PointBatch;
+import com.navinfo.grid.GridLevel;
+
+/**
+ * Stream points from PostGIS without loading a whole kind into memory.<br>
+ *
+ * The query runs through a server-side cursor (auto commit is turned off while
+ * reading, and rows are fetched {@link #setFetchSize(int)} at a time). The first
+ * column is the point as WKB, such as <code>ST_AsBinary(geom)</code>, the
+ * optional second column is the weight. Points are decoded straight into
+ * primitive buffers and handed over in batches of {@link #setBatchSize(int)}.
+ * Rows whose geometry is null, empty or not a point are skipped.
+ *
+ * @author Lin DONG
+ *
+ */
+public class JdbcPointSource {
+	/**
+	 * Default rows per fetch
+	 */
+	public static final int DEFAULT_FETCH_SIZE = 10000;
+	/**
+	 * Default points per batch
+	 */
+	public static final int DEFAULT_BATCH_SIZE = GridEstimator.CHUNK_SIZE;
+	/**
+	 * Batches queued between the reader and the estimator
+	 */
+	private static final int QUEUE_SIZE = 4;
+
+	/**
+	 * Receive batches of points
+	 */
+	public interface PointSink {
+		/**
+		 * Receive a batch, the arrays are reused after the call
+		 *
+		 * @param xs
+		 *            x of points
+		 * @param ys
+		 *            y of points
+		 * @param weights
+		 *            weights of points, null if the query has no weight column
+		 * @param n
+		 *            number of points in the arrays
+		 */
+		void accept(double[] xs, double[] ys, double[] weights, int n);
+	}
+
+	private final Connection connection;
+	private final String sql;
+	private final Object[] parameters;
+	private int fetchSize = DEFAULT_FETCH_SIZE;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+
+	/**
+	 * Create a source
+	 *
+	 * @param connection
+	 *            connection to PostGIS
+	 * @param sql
+	 *            the query, such as
+	 *            <code>select ST_AsBinary(geom) from poi where kind between ? and ?</code>
+	 * @param parameters
+	 *            parameters of the query
+	 */
+	public JdbcPointSource(Connection connection, String sql, Object... parameters) {
+		if (connection == null || sql == null) {
+			throw new InvalidParameterException("Connection or SQL is null.");
+		}
+		this.connection = connection;
+		this.sql = sql;
+		this.parameters = parameters.clone();
+	}
+
+	/**
+	 * @param fetchSize
+	 *            rows per fetch of the cursor
+	 */
+	public void setFetchSize(int fetchSize) {
+		if (fetchSize < 1) {
+			throw new InvalidParameterException("Fetch size should be positive.");
+		}
+		this.fetchSize = fetchSize;
+	}
+
+	/**
+	 * @param batchSize
+	 *            points per batch
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1) {
+			throw new InvalidParameterException("Batch size should be positive.");
+		}
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Run the query and push batches to the sink in this thread
+	 *
+	 * @param sink
+	 *            receiver of batches
+	 * @return number of points read
+	 * @throws SQLException
+	 *             on failure
+	 */
+	public long read(PointSink sink) throws SQLException {
+		boolean autoCommit = connection.getAutoCommit();
+		// pgjdbc uses a cursor only inside a transaction
+		connection.setAutoCommit(false);
+		try (PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+				ResultSet.CONCUR_READ_ONLY)) {
+			statement.setFetchSize(fetchSize);
+			for (int i = 0; i < parameters.length; i++) {
+				statement.setObject(i + 1, parameters[i]);
+			}
+			long count = 0;
+			try (ResultSet rs = statement.executeQuery()) {
+				boolean weighted = rs.getMetaData().getColumnCount() > 1;
+				double[] xs = new double[batchSize];
+				double[] ys = new double[batchSize];
+				double[] weights = (weighted ? new double[batchSize] : null);
+				double[] xy = new double[2];
+				int n = 0;
+				while (rs.next()) {
+					if (!decodePoint(rs.getBytes(1), xy)) {
+						continue;
+					}
+					xs[n] = xy[0];
+					ys[n] = xy[1];
+					if (weighted) {
+						weights[n] = rs.getDouble(2);
+						if (rs.wasNull()) {
+							weights[n] = 1;
+						}
+					}
+					n++;
+					if (n == batchSize) {
+						sink.accept(xs, ys, weights, n);
+						count += n;
+						n = 0;
+					}
+				}
+				if (n > 0) {
+					sink.accept(xs, ys, weights, n);
+					count += n;
+				}
+			}
+			connection.commit();
+			return count;
+		} catch (SQLException | RuntimeException e) {
+			connection.rollback();
+			throw e;
+		} finally {
+			connection.setAutoCommit(autoCommit);
+		}
+	}
+
+	/**
+	 * Estimate the density while reading: a reader thread decodes rows into
+	 * batches, and this thread estimates the batches as they arrive. At most a
+	 * few batches are in memory.
+	 *
+	 * @param estimator
+	 *            the estimator
+	 * @param bandWidth
+	 *            band width
+	 * @param gridLevel
+	 *            size of grid
+	 * @return the result
+	 * @throws SQLException
+	 *             on failure of the query
+	 * @throws InterruptedException
+	 *             if it is interrupted. On this or any other failure the reader
+	 *             is stopped and waited for, its transaction is rolled back
+	 */
+	public DensityGrid estimate(GridEstimator estimator, double bandWidth, GridLevel gridLevel)
+			throws SQLException, InterruptedException {
+		final BlockingQueue<PointBatch> free = new ArrayBlockingQueue<>(QUEUE_SIZE + 2);
+		// room for all batches and the end mark
+		final BlockingQueue<PointBatch> full = new ArrayBlockingQueue<>(QUEUE_SIZE + 3);
+		for (int i = 0; i < QUEUE_SIZE + 2; i++) {
+			free.add(PointBatch.allocate(batchSize, true, false));
+		}
+		final PointBatch end = PointBatch.allocate(0, false, false);
+		final AtomicReference<Throwable> error = new AtomicReference<>();
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					read(new PointSink() {
+						@Override
+						public void accept(double[] xs, double[] ys, double[] weights, int n) {
+							try {
+								PointBatch batch = free.take();
+								batch.clear();
+								for (int j = 0; j < n; j++) {
+									batch.add(xs[j], ys[j], (weights == null ? 1 : weights[j]));
+								}
+								full.put(batch);
+							} catch (InterruptedException e) {
+								throw new IllegalStateException(e);
+							}
+						}
+					});
+				} catch (Throwable e) {
+					error.set(e);
+				} finally {
+					try {
+						full.put(end);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		}, "JdbcPointSource-reader");
+		reader.start();
+		DensityGrid result = new DensityGrid(gridLevel);
+		boolean finished = false;
+		try {
+			for (PointBatch batch = full.take(); batch != end; batch = full.take()) {
+				estimator.accumulate(result, batch, bandWidth);
+				free.put(batch);
+			}
+			finished = true;
+		} finally {
+			// on any failure here, stop the reader so that it rolls back and closes the cursor
+			if (!finished) {
+				reader.interrupt();
+			}
+			join(reader);
+		}
+		Throwable e = error.get();
+		if (e instanceof SQLException) {
+			throw (SQLException) e;
+		} else if (e != null) {
+			throw new SQLException("Failed to read points.", e);
+		}
+		return result;
+	}
+
+	/**
+	 * Wait for a thread to end even if this thread is interrupted, the interrupt
+	 * is kept
+	 */
+	private static void join(Thread thread) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				thread.join();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Decode a point from WKB or EWKB (ST_AsBinary or ST_AsEWKB), in either byte
+	 * order. Z and M are ignored.
+	 *
+	 * @param wkb
+	 *            the geometry
+	 * @param xy
+	 *            x and y are written into it
+	 * @return false if it is null, empty or not a point
+	 */
+	public static boolean decodePoint(byte[] wkb, double[] xy) {
+		if (wkb == null || wkb.length < 21) {
+			return false;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(wkb);
+		buffer.order(buffer.get() == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+		int type = buffer.getInt();
+		if ((type & 0x20000000) != 0) {
+			// EWKB SRID
+			if (wkb.length < 25) {
+				return false;
+			}
+			buffer.getInt();
+		}
+		// EWKB flags are in the high bits, ISO Z/M/ZM types are 1001, 2001, 3001
+		if ((type & 0x0FFFFFFF) % 1000 != 1) {
+			return false;
+		}
+		xy[0] = buffer.getDouble();
+		xy[1] = buffer.getDouble();
+		return !(Double.isNaN(xy[0]) || Double.isNaN(xy[1]));
+	}
+}
@@ -9,6 +9,9 @@ import org.gdal.ogr.Layer;
 import org.gdal.ogr.ogr;
 import org.gdal.ogr.ogrConstants;
 
+import com.navdata.metrics.Histogram;
+import com.navdata.metrics.Metrics;
+
 /**
  * Contour maker, it should be thread-safe in the future. This is a wrapper of
  * GDAl_COUNTOUR<br>
@@ -25,6 +28,8 @@ import org.gdal.ogr.ogrConstants;
  *
  */
 public class Contour {
+	private static final Histogram CONTOUR_GENERATE = Metrics.histogram("gdal.contourGenerate.nanos");
+
 	// init gdal and ogr
 	static {
 		try {
@@ -35,11 +40,8 @@ public class Contour {
 		}
 	}
 
-	private static int serialID = 0;
-
-	private static synchronized String getUniqueFileName() {
-		serialID++;
-		return "Contour" + Thread.currentThread().getId() + "No" + serialID;
+	private static String getUniqueFileName() {
+		return GdalResources.uniqueName("Contour");
 	}
 
 	/**
@@ -70,7 +72,11 @@ public class Contour {
 			Layer result = outputVectorDataSouce.CreateLayer(getUniqueFileName(), null, ogrConstants.wkbLineString);
 			FieldDefn elevation = new FieldDefn("contour", ogrConstants.OFTInteger);
 			result.CreateField(elevation);
+			long t0 = (Metrics.ENABLED ? System.nanoTime() : 0);
 			gdal.ContourGenerate(band, intervel, base, seps, (useNoDataValue ? 1 : 0), noDataValue, result, -1, 0);
+			if (Metrics.ENABLED) {
+				CONTOUR_GENERATE.record(System.nanoTime() - t0);
+			}
 			return result;
 		} catch (Exception e) {
 			e.printStackTrace();
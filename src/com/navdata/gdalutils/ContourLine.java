@@ -0,0 +1,57 @@
+package com.navdata.gdalutils;
+
+/**
+ * A contour line made by {@link ContourTracer}, coordinates are kept in a
+ * primitive array.
+ *
+ * @author Lin DONG
+ *
+ */
+public class ContourLine {
+	private final double level;
+	private final double[] coordinates;
+	private final boolean closed;
+
+	/**
+	 * @param level
+	 *            value of the contour
+	 * @param coordinates
+	 *            x0, y0, x1, y1, ...
+	 * @param closed
+	 *            whether it is a ring, the last point is the same as the first one
+	 *            if it is
+	 */
+	public ContourLine(double level, double[] coordinates, boolean closed) {
+		this.level = level;
+		this.coordinates = coordinates;
+		this.closed = closed;
+	}
+
+	/**
+	 * @return value of the contour
+	 */
+	public double getLevel() {
+		return level;
+	}
+
+	/**
+	 * @return x0, y0, x1, y1, ... (not a copy)
+	 */
+	public double[] getCoordinates() {
+		return coordinates;
+	}
+
+	/**
+	 * @return number of points
+	 */
+	public int size() {
+		return coordinates.length / 2;
+	}
+
+	/**
+	 * @return whether it is a ring
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+}
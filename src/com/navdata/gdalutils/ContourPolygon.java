@@ -0,0 +1,81 @@
+package com.navdata.gdalutils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A contour polygon with holes made by {@link ContourPolygonizer}. The shell is
+ * counter-clockwise and the holes are clockwise, every ring is closed.
+ *
+ * @author Lin DONG
+ *
+ */
+public class ContourPolygon {
+	private final double level;
+	private final double[] shell;
+	private final double[][] holes;
+
+	/**
+	 * @param level
+	 *            value of the contour
+	 * @param shell
+	 *            x0, y0, x1, y1, ... of the outer ring
+	 * @param holes
+	 *            coordinates of the holes
+	 */
+	public ContourPolygon(double level, double[] shell, double[][] holes) {
+		this.level = level;
+		this.shell = shell;
+		this.holes = holes;
+	}
+
+	/**
+	 * @return value of the contour
+	 */
+	public double getLevel() {
+		return level;
+	}
+
+	/**
+	 * @return x0, y0, x1, y1, ... of the outer ring (not a copy)
+	 */
+	public double[] getShell() {
+		return shell;
+	}
+
+	/**
+	 * @return coordinates of the holes (not a copy)
+	 */
+	public double[][] getHoles() {
+		return holes;
+	}
+
+	/**
+	 * Encode as WKB (little endian), which can be read by ST_GeomFromWKB.
+	 *
+	 * @return WKB of the polygon
+	 */
+	public byte[] toWKB() {
+		int size = 9 + 4 + shell.length * 8;
+		for (double[] hole : holes) {
+			size += 4 + hole.length * 8;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.put((byte) 1);
+		// polygon
+		buffer.putInt(3);
+		buffer.putInt(1 + holes.length);
+		putRing(buffer, shell);
+		for (double[] hole : holes) {
+			putRing(buffer, hole);
+		}
+		return buffer.array();
+	}
+
+	private static void putRing(ByteBuffer buffer, double[] ring) {
+		buffer.putInt(ring.length / 2);
+		for (double v : ring) {
+			buffer.putDouble(v);
+		}
+	}
+}
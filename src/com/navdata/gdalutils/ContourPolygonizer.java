@@ -0,0 +1,332 @@
+package com.navdata.gdalutils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.gdal.ogr.DataSource;
+import org.gdal.ogr.Feature;
+import org.gdal.ogr.FeatureDefn;
+import org.gdal.ogr.FieldDefn;
+import org.gdal.ogr.Geometry;
+import org.gdal.ogr.Layer;
+import org.gdal.ogr.ogrConstants;
+
+/**
+ * Convert contour lines to polygons in process, the same as contour_polygon in
+ * contour.pgsql: every ring becomes a polygon, and the rings within it are
+ * burnt as holes so that polygons do not overlap. Non-ring lines are
+ * skipped.<br>
+ *
+ * Instead of querying the rings within every ring, the nesting tree is built
+ * once: the parent of a ring is the smallest ring containing it, found with an
+ * STR-tree over the envelopes of rings. Holes of a polygon are the children of
+ * its ring, which is the same as the union of all rings within it, since
+ * contours never cross. Results are written in bulk, by a JDBC batch or in one
+ * OGR transaction.
+ *
+ * @author Lin DONG
+ *
+ */
+public class ContourPolygonizer {
+	/**
+	 * Rows per JDBC batch
+	 */
+	public static final int BATCH_SIZE = 1000;
+
+	private static String getUniqueFileName() {
+		return GdalResources.uniqueName("ContourPolygon");
+	}
+
+	/**
+	 * Build polygons from contour lines
+	 *
+	 * @param lines
+	 *            contour lines, such as results of {@link ContourTracer}
+	 * @return polygons, one per ring, in the order of rings
+	 */
+	public static List<ContourPolygon> polygonize(List<ContourLine> lines) {
+		final List<ContourLine> rings = new ArrayList<>();
+		for (ContourLine line : lines) {
+			if (line.isClosed() && line.size() >= 4) {
+				rings.add(line);
+			}
+		}
+		final int n = rings.size();
+		final double[] areas = new double[n];
+		double[] envelopes = new double[n * 4];
+		for (int i = 0; i < n; i++) {
+			double[] c = rings.get(i).getCoordinates();
+			areas[i] = Math.abs(signedArea(c));
+			envelopes[i * 4] = envelopes[i * 4 + 2] = Double.POSITIVE_INFINITY;
+			envelopes[i * 4 + 1] = envelopes[i * 4 + 3] = Double.NEGATIVE_INFINITY;
+			for (int k = 0; k < c.length; k += 2) {
+				envelopes[i * 4] = Math.min(envelopes[i * 4], c[k]);
+				envelopes[i * 4 + 1] = Math.max(envelopes[i * 4 + 1], c[k]);
+				envelopes[i * 4 + 2] = Math.min(envelopes[i * 4 + 2], c[k + 1]);
+				envelopes[i * 4 + 3] = Math.max(envelopes[i * 4 + 3], c[k + 1]);
+			}
+		}
+		STRTree tree = new STRTree(envelopes);
+		// nesting tree
+		final int[] parent = new int[n];
+		int[] childCount = new int[n];
+		for (int i = 0; i < n; i++) {
+			final int ring = i;
+			double[] c = rings.get(i).getCoordinates();
+			// the middle of the first segment, vertices may be shared by rings of the
+			// same level
+			final double x = (c[0] + c[2]) / 2;
+			final double y = (c[1] + c[3]) / 2;
+			parent[i] = -1;
+			tree.query(x, x, y, y, new STRTree.Visitor() {
+				@Override
+				public void visit(int j) {
+					if (j == ring || areas[j] < areas[ring] || (areas[j] == areas[ring] && j < ring)) {
+						return;
+					}
+					if (parent[ring] >= 0 && areas[j] >= areas[parent[ring]]) {
+						return;
+					}
+					if (contains(rings.get(j).getCoordinates(), x, y)) {
+						parent[ring] = j;
+					}
+				}
+			});
+			if (parent[i] >= 0) {
+				childCount[parent[i]]++;
+			}
+		}
+		double[][][] holes = new double[n][][];
+		for (int i = 0; i < n; i++) {
+			holes[i] = new double[childCount[i]][];
+		}
+		int[] filled = new int[n];
+		for (int i = 0; i < n; i++) {
+			if (parent[i] >= 0) {
+				holes[parent[i]][filled[parent[i]]++] = orient(rings.get(i).getCoordinates(), false);
+			}
+		}
+		List<ContourPolygon> result = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			ContourLine ring = rings.get(i);
+			result.add(new ContourPolygon(ring.getLevel(), orient(ring.getCoordinates(), true), holes[i]));
+		}
+		return result;
+	}
+
+	/**
+	 * Read contour lines from a layer, such as results of {@link Contour}.
+	 * Multi-part geometries are skipped.
+	 *
+	 * @param contourLayer
+	 *            layer of line strings
+	 * @param valueIn
+	 *            name of the contour value field
+	 * @return contour lines on success, null on failure.
+	 */
+	public static List<ContourLine> readLines(Layer contourLayer, String valueIn) {
+		try {
+			List<ContourLine> lines = new ArrayList<>();
+			int field = contourLayer.GetLayerDefn().GetFieldIndex(valueIn);
+			contourLayer.ResetReading();
+			for (Feature feature = contourLayer.GetNextFeature(); feature != null; feature = contourLayer
+					.GetNextFeature()) {
+				Geometry geometry = feature.GetGeometryRef();
+				int points = (geometry == null ? 0 : geometry.GetPointCount());
+				if (points >= 2) {
+					double[] coordinates = new double[points * 2];
+					for (int i = 0; i < points; i++) {
+						coordinates[i * 2] = geometry.GetX(i);
+						coordinates[i * 2 + 1] = geometry.GetY(i);
+					}
+					boolean closed = coordinates[0] == coordinates[points * 2 - 2]
+							&& coordinates[1] == coordinates[points * 2 - 1];
+					lines.add(new ContourLine(feature.GetFieldAsDouble(field), coordinates, closed));
+				}
+				feature.delete();
+			}
+			return lines;
+		} catch (Exception e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Write polygons into a new layer in one transaction, with an OFTInteger
+	 * "contour" field like {@link Contour}.
+	 *
+	 * @param outputVectorDataSouce
+	 *            where to create the layer
+	 * @param polygons
+	 *            the polygons
+	 * @return the result layer on success, null on failure.
+	 */
+	public static Layer toLayer(DataSource outputVectorDataSouce, List<ContourPolygon> polygons) {
+		return toLayer(outputVectorDataSouce, polygons, ogrConstants.OFTInteger);
+	}
+
+	/**
+	 * Write polygons into a new layer in one transaction, with a "contour" field.
+	 *
+	 * @param outputVectorDataSouce
+	 *            where to create the layer
+	 * @param polygons
+	 *            the polygons
+	 * @param fieldType
+	 *            type of the "contour" field, see
+	 *            {@link ContourTracer#toLayer(DataSource, List, int)}
+	 * @return the result layer on success, null on failure.
+	 */
+	public static Layer toLayer(DataSource outputVectorDataSouce, List<ContourPolygon> polygons, int fieldType) {
+		try {
+			Layer result = outputVectorDataSouce.CreateLayer(getUniqueFileName(), null, ogrConstants.wkbPolygon);
+			FieldDefn value = new FieldDefn("contour", fieldType);
+			result.CreateField(value);
+			FeatureDefn definition = result.GetLayerDefn();
+			result.StartTransaction();
+			for (ContourPolygon polygon : polygons) {
+				Geometry geometry = new Geometry(ogrConstants.wkbPolygon);
+				geometry.AddGeometryDirectly(toRing(polygon.getShell()));
+				for (double[] hole : polygon.getHoles()) {
+					geometry.AddGeometryDirectly(toRing(hole));
+				}
+				Feature feature = new Feature(definition);
+				feature.SetGeometryDirectly(geometry);
+				feature.SetField(0, polygon.getLevel());
+				result.CreateFeature(feature);
+				feature.delete();
+			}
+			result.CommitTransaction();
+			return result;
+		} catch (Exception e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	private static Geometry toRing(double[] coordinates) {
+		Geometry ring = new Geometry(ogrConstants.wkbLinearRing);
+		for (int i = 0; i < coordinates.length; i += 2) {
+			ring.AddPoint_2D(coordinates[i], coordinates[i + 1]);
+		}
+		return ring;
+	}
+
+	/**
+	 * Insert polygons into an existing table by JDBC batches in one transaction.
+	 *
+	 * @param connection
+	 *            connection to PostGIS
+	 * @param polygonTable
+	 *            name of the output polygon table
+	 * @param geomOut
+	 *            name of the geometry field
+	 * @param valueOut
+	 *            name of the contour value field
+	 * @param srid
+	 *            SRID of the geometries, such as 4326
+	 * @param polygons
+	 *            the polygons
+	 * @return number of polygons written, -1 on failure (rolled back).
+	 */
+	public static int write(Connection connection, String polygonTable, String geomOut, String valueOut, int srid,
+			List<ContourPolygon> polygons) {
+		String sql = "insert into " + polygonTable + "(" + geomOut + "," + valueOut
+				+ ") values(ST_SetSRID(ST_GeomFromWKB(?)," + srid + "), ?)";
+		boolean autoCommit = true;
+		try {
+			autoCommit = connection.getAutoCommit();
+			connection.setAutoCommit(false);
+			try (PreparedStatement statement = connection.prepareStatement(sql)) {
+				int count = 0;
+				for (ContourPolygon polygon : polygons) {
+					statement.setBytes(1, polygon.toWKB());
+					statement.setDouble(2, polygon.getLevel());
+					statement.addBatch();
+					count++;
+					if (count % BATCH_SIZE == 0) {
+						statement.executeBatch();
+					}
+				}
+				statement.executeBatch();
+				connection.commit();
+				return count;
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+			try {
+				connection.rollback();
+			} catch (SQLException e1) {
+				e1.printStackTrace();
+			}
+			return -1;
+		} finally {
+			try {
+				connection.setAutoCommit(autoCommit);
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Insert polygons into an existing table, geometry field is 'geom', value
+	 * field is 'contour' and SRID is 4326.
+	 *
+	 * @param connection
+	 *            connection to PostGIS
+	 * @param polygonTable
+	 *            name of the output polygon table
+	 * @param polygons
+	 *            the polygons
+	 * @return number of polygons written, -1 on failure (rolled back).
+	 */
+	public static int write(Connection connection, String polygonTable, List<ContourPolygon> polygons) {
+		return write(connection, polygonTable, "geom", "contour", 4326, polygons);
+	}
+
+	/**
+	 * Shoelace formula
+	 */
+	static double signedArea(double[] c) {
+		double area = 0;
+		for (int k = 0; k + 3 < c.length; k += 2) {
+			area += c[k] * c[k + 3] - c[k + 2] * c[k + 1];
+		}
+		return area / 2;
+	}
+
+	/**
+	 * Crossing number test
+	 */
+	static boolean contains(double[] c, double x, double y) {
+		boolean inside = false;
+		for (int k = 0; k + 3 < c.length; k += 2) {
+			double x0 = c[k], y0 = c[k + 1], x1 = c[k + 2], y1 = c[k + 3];
+			if ((y0 > y) != (y1 > y) && x < x0 + (y - y0) * (x1 - x0) / (y1 - y0)) {
+				inside = !inside;
+			}
+		}
+		return inside;
+	}
+
+	/**
+	 * @return the ring, reversed if needed to be counter-clockwise (or
+	 *         clockwise)
+	 */
+	private static double[] orient(double[] c, boolean counterClockwise) {
+		if ((signedArea(c) > 0) == counterClockwise) {
+			return c;
+		}
+		double[] reversed = new double[c.length];
+		for (int k = 0; k < c.length; k += 2) {
+			reversed[c.length - 2 - k] = c[k];
+			reversed[c.length - 1 - k] = c[k + 1];
+		}
+		return reversed;
+	}
+}
@@ -0,0 +1,601 @@
+package com.navdata.gdalutils;
+
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.gdal.gdal.Band;
+import org.gdal.gdal.Dataset;
+import org.gdal.ogr.DataSource;
+import org.gdal.ogr.Feature;
+import org.gdal.ogr.FeatureDefn;
+import org.gdal.ogr.FieldDefn;
+import org.gdal.ogr.Geometry;
+import org.gdal.ogr.Layer;
+import org.gdal.ogr.ogrConstants;
+
+/**
+ * Pure Java contour maker (marching squares), an alternative to
+ * {@link Contour} which wraps GDAL_CONTOUR. Unlike GDAL_CONTOUR it is
+ * thread-safe and uses all cores for one raster.<br>
+ *
+ * Levels are given the same way as {@link Contour}: by interval and base, or
+ * by fixed levels. As GDAL does, pixel values are at pixel centers, a pixel is
+ * above a level if value &gt;= level, and a cell with a no data corner is
+ * skipped, so contours stop there and at the border of the raster. Saddle cells
+ * are resolved by the mean of the 4 corners.<br>
+ *
+ * Rows of cells are split into bands traced in parallel. A contour crosses an
+ * edge between 2 pixels at most once per level, so the edges are used as IDs
+ * to link segments into lines inside a band, and then lines of all bands at the
+ * seams. Every segment runs from the edge where values go up to the edge where
+ * they go down (walking around the cell), so lines are consistently oriented:
+ * higher values are on the right, in (col, row) pixel space.
+ *
+ * @author Lin DONG
+ *
+ */
+public class ContourTracer {
+	/**
+	 * Minimum rows of cells in a band
+	 */
+	private static final int MIN_BAND_ROWS = 32;
+
+	private final double interval;
+	private final double base;
+	private final double[] fixedLevels;
+	private final boolean useNoDataValue;
+	private final double noDataValue;
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	/**
+	 * Pixel values of a raster, row-major
+	 */
+	private interface Values {
+		double get(int index);
+	}
+
+	/**
+	 * Segments of one level, as pairs of edge IDs
+	 */
+	private static class Segments {
+		long[] from = new long[16];
+		long[] to = new long[16];
+		int size;
+
+		void add(long f, long t) {
+			if (size == from.length) {
+				from = Arrays.copyOf(from, size * 2);
+				to = Arrays.copyOf(to, size * 2);
+			}
+			from[size] = f;
+			to[size] = t;
+			size++;
+		}
+	}
+
+	/**
+	 * Lines of a band, edge IDs of each line, by level
+	 */
+	private static class BandLines {
+		final List<List<long[]>> open = new ArrayList<>();
+		final List<List<long[]>> closed = new ArrayList<>();
+	}
+
+	/**
+	 * Create a tracer
+	 *
+	 * @param interval
+	 *            interval of contours
+	 * @param base
+	 *            base of contours
+	 * @param fixedLevels
+	 *            specify value of contours, if this is not null, interval and base
+	 *            will be ignored
+	 * @param useNoDataValue
+	 *            whether use no data value or ignore it
+	 * @param noDataValue
+	 *            specify the no data value
+	 */
+	public ContourTracer(double interval, double base, double[] fixedLevels, boolean useNoDataValue,
+			double noDataValue) {
+		if (fixedLevels == null && !(interval > 0)) {
+			throw new InvalidParameterException("Interval should be positive.");
+		}
+		this.interval = interval;
+		this.base = base;
+		this.fixedLevels = (fixedLevels == null ? null : fixedLevels.clone());
+		if (this.fixedLevels != null) {
+			Arrays.sort(this.fixedLevels);
+		}
+		this.useNoDataValue = useNoDataValue;
+		this.noDataValue = noDataValue;
+	}
+
+	/**
+	 * Create a tracer
+	 *
+	 * @param interval
+	 *            interval of contours
+	 * @param base
+	 *            base of contours
+	 * @param useNoDataValue
+	 *            whether use no data value or ignore it
+	 * @param noDataValue
+	 *            specify the no data value
+	 */
+	public ContourTracer(double interval, double base, boolean useNoDataValue, double noDataValue) {
+		this(interval, base, null, useNoDataValue, noDataValue);
+	}
+
+	/**
+	 * Set the pool to run bands in, the common pool by default
+	 *
+	 * @param pool
+	 *            the pool
+	 */
+	public void setPool(ForkJoinPool pool) {
+		if (pool == null) {
+			throw new InvalidParameterException("Pool is null.");
+		}
+		this.pool = pool;
+	}
+
+	/**
+	 * Get the levels between given values
+	 *
+	 * @param min
+	 *            min value of the raster
+	 * @param max
+	 *            max value of the raster
+	 * @return levels in (min, max], sorted
+	 */
+	public double[] levels(double min, double max) {
+		if (fixedLevels != null) {
+			int from = 0;
+			while (from < fixedLevels.length && fixedLevels[from] <= min) {
+				from++;
+			}
+			int to = from;
+			while (to < fixedLevels.length && fixedLevels[to] <= max) {
+				to++;
+			}
+			return Arrays.copyOfRange(fixedLevels, from, to);
+		}
+		long k0 = (long) Math.floor((min - base) / interval) + 1;
+		long k1 = (long) Math.floor((max - base) / interval);
+		if (k1 < k0) {
+			return new double[0];
+		}
+		double[] levels = new double[(int) (k1 - k0 + 1)];
+		for (int i = 0; i < levels.length; i++) {
+			levels[i] = base + (k0 + i) * interval;
+		}
+		return levels;
+	}
+
+	/**
+	 * Trace contours of a raster
+	 *
+	 * @param values
+	 *            pixel values, row-major
+	 * @param width
+	 *            width of the raster
+	 * @param height
+	 *            height of the raster
+	 * @param transform
+	 *            geotransform of the raster
+	 * @return contour lines, by level
+	 */
+	public List<ContourLine> trace(final float[] values, int width, int height, double[] transform) {
+		return trace(new Values() {
+			@Override
+			public double get(int index) {
+				return values[index];
+			}
+		}, width, height, transform);
+	}
+
+	/**
+	 * Trace contours of a classified (Byte) raster, pixels are unsigned.
+	 *
+	 * @param values
+	 *            pixel values, row-major
+	 * @param width
+	 *            width of the raster
+	 * @param height
+	 *            height of the raster
+	 * @param transform
+	 *            geotransform of the raster
+	 * @return contour lines, by level
+	 */
+	public List<ContourLine> trace(final byte[] values, int width, int height, double[] transform) {
+		return trace(new Values() {
+			@Override
+			public double get(int index) {
+				return values[index] & 0xFF;
+			}
+		}, width, height, transform);
+	}
+
+	/**
+	 * Trace contours of a band
+	 *
+	 * @param inputRaster
+	 *            input raster
+	 * @param bandNumber
+	 *            the index of the band to use
+	 * @return contour lines on success, null on failure.
+	 */
+	public List<ContourLine> trace(Dataset inputRaster, int bandNumber) {
+		try {
+			Band band = inputRaster.GetRasterBand(bandNumber);
+			int width = inputRaster.GetRasterXSize();
+			int height = inputRaster.GetRasterYSize();
+			float[] values = new float[width * height];
+			band.ReadRaster(0, 0, width, height, values);
+			return trace(values, width, height, inputRaster.GetGeoTransform());
+		} catch (Exception e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	private List<ContourLine> trace(final Values values, final int width, final int height,
+			final double[] transform) {
+		if (width * (long) height > Integer.MAX_VALUE || transform == null || transform.length < 6) {
+			throw new InvalidParameterException("Invalid raster.");
+		}
+		List<ContourLine> result = new ArrayList<>();
+		if (width < 2 || height < 2) {
+			return result;
+		}
+		double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < width * height; i++) {
+			double v = values.get(i);
+			if (valid(v)) {
+				min = Math.min(min, v);
+				max = Math.max(max, v);
+			}
+		}
+		final double[] levels = levels(min, max);
+		if (levels.length == 0) {
+			return result;
+		}
+		// trace bands
+		int cellRows = height - 1;
+		int bands = Math.max(1, Math.min(cellRows / MIN_BAND_ROWS, pool.getParallelism() * 4));
+		List<Callable<BandLines>> bandTasks = new ArrayList<>();
+		for (int b = 0; b < bands; b++) {
+			final int r0 = (int) ((long) cellRows * b / bands);
+			final int r1 = (int) ((long) cellRows * (b + 1) / bands);
+			bandTasks.add(new Callable<BandLines>() {
+				@Override
+				public BandLines call() {
+					return traceBand(values, width, r0, r1, levels);
+				}
+			});
+		}
+		final List<BandLines> bandLines = new ArrayList<>();
+		for (Future<BandLines> future : pool.invokeAll(bandTasks)) {
+			bandLines.add(join(future));
+		}
+		// stitch bands, level by level
+		List<Callable<List<ContourLine>>> levelTasks = new ArrayList<>();
+		for (int l = 0; l < levels.length; l++) {
+			final int level = l;
+			levelTasks.add(new Callable<List<ContourLine>>() {
+				@Override
+				public List<ContourLine> call() {
+					return stitch(values, width, transform, levels[level], bandLines, level);
+				}
+			});
+		}
+		for (Future<List<ContourLine>> future : pool.invokeAll(levelTasks)) {
+			result.addAll(join(future));
+		}
+		return result;
+	}
+
+	private static <T> T join(Future<T> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	private boolean valid(double v) {
+		return !Double.isNaN(v) && !(useNoDataValue && v == noDataValue);
+	}
+
+	/**
+	 * ID of the edge from pixel (col,row) to (col+1,row)
+	 */
+	private static long horizontal(int col, int row, int width) {
+		return 2 * ((long) row * width + col);
+	}
+
+	/**
+	 * ID of the edge from pixel (col,row) to (col,row+1)
+	 */
+	private static long vertical(int col, int row, int width) {
+		return 2 * ((long) row * width + col) + 1;
+	}
+
+	/**
+	 * Trace cells of rows [r0, r1)
+	 */
+	private BandLines traceBand(Values values, int width, int r0, int r1, double[] levels) {
+		Segments[] segments = new Segments[levels.length];
+		for (int l = 0; l < levels.length; l++) {
+			segments[l] = new Segments();
+		}
+		// corners and edges walking around a cell
+		double[] v = new double[4];
+		long[] edges = new long[4];
+		int[] crossings = new int[4];
+		for (int row = r0; row < r1; row++) {
+			for (int col = 0; col < width - 1; col++) {
+				int i = row * width + col;
+				v[0] = values.get(i);
+				v[1] = values.get(i + 1);
+				v[2] = values.get(i + width + 1);
+				v[3] = values.get(i + width);
+				if (!(valid(v[0]) && valid(v[1]) && valid(v[2]) && valid(v[3]))) {
+					continue;
+				}
+				double min = Math.min(Math.min(v[0], v[1]), Math.min(v[2], v[3]));
+				double max = Math.max(Math.max(v[0], v[1]), Math.max(v[2], v[3]));
+				int l = firstAbove(levels, min);
+				if (l >= levels.length || levels[l] > max) {
+					continue;
+				}
+				edges[0] = horizontal(col, row, width);
+				edges[1] = vertical(col + 1, row, width);
+				edges[2] = horizontal(col, row + 1, width);
+				edges[3] = vertical(col, row, width);
+				double center = (v[0] + v[1] + v[2] + v[3]) / 4;
+				for (; l < levels.length && levels[l] <= max; l++) {
+					double level = levels[l];
+					int n = 0;
+					for (int k = 0; k < 4; k++) {
+						if ((v[k] >= level) != (v[(k + 1) & 3] >= level)) {
+							crossings[n++] = k;
+						}
+					}
+					// up crossings are paired with the next down crossing, or the previous
+					// one if the center is above (the 2 above corners are connected)
+					int shift = (n == 4 && center >= level ? n - 1 : 1);
+					for (int p = 0; p < n; p++) {
+						int k = crossings[p];
+						if (v[k] < level) {
+							segments[l].add(edges[k], edges[crossings[(p + shift) % n]]);
+						}
+					}
+				}
+			}
+		}
+		BandLines lines = new BandLines();
+		for (int l = 0; l < levels.length; l++) {
+			Segments s = segments[l];
+			List<long[]> open = new ArrayList<>();
+			List<long[]> closed = new ArrayList<>();
+			for (int[] sequence : link(s.from, s.to, s.size)) {
+				long[] line = new long[sequence.length + 1];
+				line[0] = s.from[sequence[0]];
+				for (int k = 0; k < sequence.length; k++) {
+					line[k + 1] = s.to[sequence[k]];
+				}
+				(line[0] == line[sequence.length] ? closed : open).add(line);
+			}
+			lines.open.add(open);
+			lines.closed.add(closed);
+		}
+		return lines;
+	}
+
+	/**
+	 * @return index of the first level &gt; value
+	 */
+	private static int firstAbove(double[] levels, double value) {
+		int lo = 0, hi = levels.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (levels[mid] > value) {
+				hi = mid;
+			} else {
+				lo = mid + 1;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Link items into sequences, an item is followed by the item whose first edge
+	 * is its last edge. Every edge is the first edge of at most 1 item and the
+	 * last edge of at most 1 item, so the result is paths and cycles.
+	 *
+	 * @return sequences of item indexes, paths first
+	 */
+	private static List<int[]> link(long[] first, long[] last, int n) {
+		LongIntMap byFirst = new LongIntMap(n);
+		for (int i = 0; i < n; i++) {
+			byFirst.put(first[i], i);
+		}
+		int[] next = new int[n];
+		boolean[] followed = new boolean[n];
+		for (int i = 0; i < n; i++) {
+			next[i] = byFirst.get(last[i]);
+			if (next[i] >= 0) {
+				followed[next[i]] = true;
+			}
+		}
+		List<int[]> sequences = new ArrayList<>();
+		boolean[] used = new boolean[n];
+		int[] buffer = new int[16];
+		for (int pass = 0; pass < 2; pass++) {
+			for (int i = 0; i < n; i++) {
+				// paths start from items without predecessor, then the rest are cycles
+				if (used[i] || (pass == 0 && followed[i])) {
+					continue;
+				}
+				int size = 0;
+				for (int j = i; j >= 0 && !used[j]; j = next[j]) {
+					if (size == buffer.length) {
+						buffer = Arrays.copyOf(buffer, size * 2);
+					}
+					buffer[size++] = j;
+					used[j] = true;
+				}
+				sequences.add(Arrays.copyOf(buffer, size));
+			}
+		}
+		return sequences;
+	}
+
+	/**
+	 * Join open lines of all bands at the seams and make the coordinates
+	 */
+	private static List<ContourLine> stitch(Values values, int width, double[] transform, double level,
+			List<BandLines> bandLines, int l) {
+		List<long[]> open = new ArrayList<>();
+		List<long[]> closed = new ArrayList<>();
+		for (BandLines lines : bandLines) {
+			open.addAll(lines.open.get(l));
+			closed.addAll(lines.closed.get(l));
+		}
+		long[] first = new long[open.size()];
+		long[] last = new long[open.size()];
+		for (int i = 0; i < open.size(); i++) {
+			long[] line = open.get(i);
+			first[i] = line[0];
+			last[i] = line[line.length - 1];
+		}
+		List<long[]> joined = new ArrayList<>();
+		for (int[] sequence : link(first, last, open.size())) {
+			if (sequence.length == 1) {
+				joined.add(open.get(sequence[0]));
+				continue;
+			}
+			int size = 1;
+			for (int i : sequence) {
+				size += open.get(i).length - 1;
+			}
+			long[] line = new long[size];
+			int offset = 0;
+			for (int i : sequence) {
+				long[] part = open.get(i);
+				// the first edge of a part is the last edge of the previous one
+				System.arraycopy(part, (offset == 0 ? 0 : 1), line, offset, part.length - (offset == 0 ? 0 : 1));
+				offset += part.length - (offset == 0 ? 0 : 1);
+			}
+			joined.add(line);
+		}
+		List<ContourLine> result = new ArrayList<>();
+		for (long[] line : joined) {
+			addLine(result, values, width, transform, level, line);
+		}
+		for (long[] line : closed) {
+			addLine(result, values, width, transform, level, line);
+		}
+		return result;
+	}
+
+	/**
+	 * Interpolate the points on the edges, repeated points (at pixel centers equal
+	 * to the level) are removed.
+	 */
+	private static void addLine(List<ContourLine> result, Values values, int width, double[] transform,
+			double level, long[] edges) {
+		double[] coordinates = new double[edges.length * 2];
+		int size = 0;
+		for (long edge : edges) {
+			int p = (int) (edge >>> 1);
+			boolean horizontal = (edge & 1) == 0;
+			double vp = values.get(p);
+			double vq = values.get(horizontal ? p + 1 : p + width);
+			double t = (level - vp) / (vq - vp);
+			double px = p % width + 0.5 + (horizontal ? t : 0);
+			double py = p / width + 0.5 + (horizontal ? 0 : t);
+			double x = transform[0] + px * transform[1] + py * transform[2];
+			double y = transform[3] + px * transform[4] + py * transform[5];
+			if (size > 0 && coordinates[size - 2] == x && coordinates[size - 1] == y) {
+				continue;
+			}
+			coordinates[size++] = x;
+			coordinates[size++] = y;
+		}
+		boolean closed = edges[0] == edges[edges.length - 1];
+		if (size < (closed ? 8 : 4)) {
+			return;
+		}
+		result.add(new ContourLine(level, Arrays.copyOf(coordinates, size), closed));
+	}
+
+	private static String getUniqueFileName() {
+		return GdalResources.uniqueName("ContourTracer");
+	}
+
+	/**
+	 * Write contour lines into a new layer, the same as the layers of
+	 * {@link Contour}: line strings with an OFTInteger "contour" field.
+	 *
+	 * @param outputVectorDataSouce
+	 *            where to create the layer
+	 * @param lines
+	 *            contour lines
+	 * @return the result layer on success, null on failure.
+	 */
+	public static Layer toLayer(DataSource outputVectorDataSouce, List<ContourLine> lines) {
+		return toLayer(outputVectorDataSouce, lines, ogrConstants.OFTInteger);
+	}
+
+	/**
+	 * Write contour lines into a new layer: line strings with a "contour" field.
+	 *
+	 * @param outputVectorDataSouce
+	 *            where to create the layer
+	 * @param lines
+	 *            contour lines
+	 * @param fieldType
+	 *            type of the "contour" field, ogrConstants.OFTInteger like
+	 *            {@link Contour}, or ogrConstants.OFTReal to keep fractional
+	 *            levels
+	 * @return the result layer on success, null on failure.
+	 */
+	public static Layer toLayer(DataSource outputVectorDataSouce, List<ContourLine> lines, int fieldType) {
+		try {
+			Layer result = outputVectorDataSouce.CreateLayer(getUniqueFileName(), null, ogrConstants.wkbLineString);
+			FieldDefn elevation = new FieldDefn("contour", fieldType);
+			result.CreateField(elevation);
+			FeatureDefn definition = result.GetLayerDefn();
+			result.StartTransaction();
+			for (ContourLine line : lines) {
+				double[] coordinates = line.getCoordinates();
+				Geometry geometry = new Geometry(ogrConstants.wkbLineString);
+				for (int i = 0; i < coordinates.length; i += 2) {
+					geometry.AddPoint_2D(coordinates[i], coordinates[i + 1]);
+				}
+				Feature feature = new Feature(definition);
+				feature.SetGeometryDirectly(geometry);
+				feature.SetField(0, line.getLevel());
+				result.CreateFeature(feature);
+				feature.delete();
+			}
+			result.CommitTransaction();
+			return result;
+		} catch (Exception e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+}
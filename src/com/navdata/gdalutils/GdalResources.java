@@ -0,0 +1,183 @@
+package com.navdata.gdalutils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.gdal.gdal.gdal;
+import org.gdal.ogr.DataSource;
+import org.gdal.ogr.Layer;
+import org.gdal.osr.SpatialReference;
+
+/**
+ * Thread-safe access to temporary GDAL resources, without global locks.<br>
+ *
+ * Names come from an atomic counter, temporary layers are created in a MEMORY
+ * datasource of the current thread, rasters are borrowed from a shared
+ * {@link RasterPool}. Resources are returned as AutoCloseable handles, so they
+ * can be released deterministically by try-with-resources, and the native
+ * memory held by them is accounted here, with temporary rasters of
+ * {@link MemData#createTempDataset(int, int, int, double[])}. Threads which
+ * create temporary layers should call {@link #releaseThread()} when they are
+ * done.
+ *
+ * @author Lin DONG
+ *
+ */
+public final class GdalResources {
+	private static final AtomicLong SERIAL = new AtomicLong();
+	private static final AtomicLong RASTER_BYTES = new AtomicLong();
+	private static final AtomicLong LIVE_RASTERS = new AtomicLong();
+	private static final AtomicLong LIVE_LAYERS = new AtomicLong();
+	private static final RasterPool POOL = new RasterPool(RasterPool.DEFAULT_MAX_BYTES);
+	/**
+	 * MEMORY datasource of each thread, see {@link MemData#getThreadDataSource()}.
+	 * It is kept here, so that {@link #releaseThread()} does not load GDAL in
+	 * threads which never used it.
+	 */
+	static final ThreadLocal<DataSource> THREAD_DATA_SOURCE = new ThreadLocal<>();
+
+	private GdalResources() {
+	}
+
+	/**
+	 * Get a unique name
+	 *
+	 * @param prefix
+	 *            prefix of the name
+	 * @return prefix + thread ID + "No" + serial number
+	 */
+	public static String uniqueName(String prefix) {
+		return prefix + Thread.currentThread().getId() + "No" + SERIAL.incrementAndGet();
+	}
+
+	/**
+	 * @return the shared raster pool
+	 */
+	public static RasterPool getRasterPool() {
+		return POOL;
+	}
+
+	/**
+	 * Borrow a raster from the shared pool, projection=WGS84, bands=1. It may be
+	 * larger than requested, see {@link RasterPool}.
+	 *
+	 * @param width
+	 *            width of dataset
+	 * @param height
+	 *            height of dataset
+	 * @param pixelType
+	 *            pixel type of dataset
+	 * @param transform
+	 *            transform parameters of dataset
+	 * @return handle on success, null on failure.
+	 */
+	public static RasterHandle raster(int width, int height, int pixelType, double[] transform) {
+		return POOL.acquire(width, height, pixelType, transform);
+	}
+
+	/**
+	 * Create a temporary layer in the datasource of the current thread. Close it in
+	 * the same thread.
+	 *
+	 * @param sr
+	 *            spatial reference
+	 * @param geomType
+	 *            geometry type
+	 * @return handle on success, null on failure.
+	 */
+	public static LayerHandle tempLayer(SpatialReference sr, int geomType) {
+		DataSource dataSource = MemData.getThreadDataSource();
+		String name = uniqueName("MemoryDS");
+		Layer layer = MemData.createLayer(dataSource, name, sr, geomType);
+		if (layer == null) {
+			return null;
+		}
+		LIVE_LAYERS.incrementAndGet();
+		return new LayerHandle(dataSource, layer, name);
+	}
+
+	/**
+	 * Create a temporary WGS84 layer in the datasource of the current thread.
+	 * Close it in the same thread.
+	 *
+	 * @param geomType
+	 *            geometry type
+	 * @return handle on success, null on failure.
+	 */
+	public static LayerHandle tempLayer(int geomType) {
+		return tempLayer(MemData.getWGS84(), geomType);
+	}
+
+	/**
+	 * Release the temporary resources of the current thread, that is
+	 * {@link MemData#releaseThreadDataSource()} if the thread has created its
+	 * datasource. Close its layer handles first. It does nothing in threads
+	 * which have not used GDAL, so workers can always call it when they end.
+	 */
+	public static void releaseThread() {
+		if (THREAD_DATA_SOURCE.get() != null) {
+			MemData.releaseThreadDataSource();
+		}
+	}
+
+	/**
+	 * Bytes of pixels of a raster
+	 *
+	 * @param width
+	 *            width of dataset
+	 * @param height
+	 *            height of dataset
+	 * @param bands
+	 *            band count of dataset
+	 * @param pixelType
+	 *            pixel type of dataset
+	 * @return bytes
+	 */
+	public static long rasterBytes(int width, int height, int bands, int pixelType) {
+		return (long) width * height * bands * (gdal.GetDataTypeSize(pixelType) / 8);
+	}
+
+	static void rasterCreated(long bytes) {
+		RASTER_BYTES.addAndGet(bytes);
+		LIVE_RASTERS.incrementAndGet();
+	}
+
+	static void rasterDeleted(long bytes) {
+		RASTER_BYTES.addAndGet(-bytes);
+		LIVE_RASTERS.decrementAndGet();
+	}
+
+	static void layerDeleted() {
+		LIVE_LAYERS.decrementAndGet();
+	}
+
+	/**
+	 * @return bytes of pixels of live rasters created here, pooled and temporary
+	 *         ones included
+	 */
+	public static long rasterBytes() {
+		return RASTER_BYTES.get();
+	}
+
+	/**
+	 * @return number of live rasters created here, pooled and temporary ones
+	 *         included
+	 */
+	public static long liveRasters() {
+		return LIVE_RASTERS.get();
+	}
+
+	/**
+	 * @return number of live temporary layers created here
+	 */
+	public static long liveLayers() {
+		return LIVE_LAYERS.get();
+	}
+
+	/**
+	 * @return statistics for logs
+	 */
+	public static String stats() {
+		return "rasters=" + liveRasters() + ", rasterBytes=" + rasterBytes() + ", layers=" + liveLayers() + ", pool: "
+				+ POOL.stats();
+	}
+}
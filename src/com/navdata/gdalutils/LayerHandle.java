@@ -0,0 +1,68 @@
+package com.navdata.gdalutils;
+
+import org.gdal.ogr.DataSource;
+import org.gdal.ogr.Layer;
+
+/**
+ * A temporary layer. Closing it deletes the layer from its datasource, close it
+ * in the thread which created it, since the datasource belongs to that thread.
+ *
+ * @author Lin DONG
+ *
+ */
+public class LayerHandle implements AutoCloseable {
+	private final DataSource dataSource;
+	private final Layer layer;
+	private final String name;
+	private boolean closed = false;
+
+	LayerHandle(DataSource dataSource, Layer layer, String name) {
+		this.dataSource = dataSource;
+		this.layer = layer;
+		this.name = name;
+	}
+
+	/**
+	 * @return the layer
+	 */
+	public Layer getLayer() {
+		return layer;
+	}
+
+	/**
+	 * @return the datasource of the layer
+	 */
+	public DataSource getDataSource() {
+		return dataSource;
+	}
+
+	/**
+	 * @return name of the layer
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Delete the layer, it is safe to call it more than once.
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			for (int i = dataSource.GetLayerCount() - 1; i >= 0; i--) {
+				if (name.equals(dataSource.GetLayer(i).GetName())) {
+					dataSource.DeleteLayer(i);
+					break;
+				}
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			GdalResources.layerDeleted();
+		}
+	}
+}
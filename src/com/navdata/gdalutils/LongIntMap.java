@@ -0,0 +1,97 @@
+package com.navdata.gdalutils;
+
+import java.util.Arrays;
+
+/**
+ * A small open-addressing map from non-negative long keys to int values,
+ * without boxing. Keys can not be removed.
+ *
+ * @author Lin DONG
+ *
+ */
+class LongIntMap {
+	private static final long EMPTY = -1;
+
+	private long[] keys;
+	private int[] values;
+	private int mask;
+	private int size;
+
+	/**
+	 * @param expected
+	 *            expected number of keys
+	 */
+	LongIntMap(int expected) {
+		int capacity = Integer.highestOneBit(Math.max(4, expected) * 2 - 1) << 1;
+		keys = new long[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+		Arrays.fill(keys, EMPTY);
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/**
+	 * Put a key, the old value is replaced
+	 *
+	 * @param key
+	 *            non-negative key
+	 * @param value
+	 *            value
+	 */
+	void put(long key, int value) {
+		if (size * 2 >= keys.length) {
+			grow();
+		}
+		int i = hash(key) & mask;
+		while (keys[i] != EMPTY && keys[i] != key) {
+			i = (i + 1) & mask;
+		}
+		if (keys[i] == EMPTY) {
+			keys[i] = key;
+			size++;
+		}
+		values[i] = value;
+	}
+
+	/**
+	 * @param key
+	 *            the key
+	 * @return value of the key, -1 if it is absent
+	 */
+	int get(long key) {
+		int i = hash(key) & mask;
+		while (keys[i] != EMPTY) {
+			if (keys[i] == key) {
+				return values[i];
+			}
+			i = (i + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return number of keys
+	 */
+	int size() {
+		return size;
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new int[oldKeys.length * 2];
+		mask = keys.length - 1;
+		size = 0;
+		Arrays.fill(keys, EMPTY);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				put(oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+}
@@ -11,7 +11,14 @@ import org.gdal.osr.SpatialReference;
 import org.gdal.osr.osr;
 
 /**
- * Create a temporary in-memory raster data-set.
+ * Create a temporary in-memory raster data-set.<br>
+ * 
+ * It is thread-safe without locks: names come from
+ * {@link GdalResources#uniqueName(String)}, and temporary layers are created in
+ * a MEMORY datasource of the current thread, which is deleted by
+ * {@link #releaseThreadDataSource()}. Temporary rasters are counted in
+ * {@link GdalResources}, delete them by {@link #deleteTempDataset(Dataset)}.
+ * For pooled rasters and AutoCloseable handles, see {@link GdalResources}.
  * 
  * @author Lin DONG
  *
@@ -33,15 +40,61 @@ public class MemData {
 
 	private final static Driver RASTER_DRIVER = gdal.GetDriverByName("MEM");
 	private final static org.gdal.ogr.Driver VECTOR_DRIVER = ogr.GetDriverByName("MEMORY");
-	private static int serialID = 0;
 	private final static String WGS84WKT = osr.SRS_WKT_WGS84;
 	private final static int FLOAT32 = gdalconst.GDT_Float32;
 	private static SpatialReference WGS84;
-	private final static DataSource VECTOR_DS = VECTOR_DRIVER.CreateDataSource("temp");
-	
-	private static synchronized String getUniqueFileName() {
-		serialID++;
-		return "MemoryDS" + Thread.currentThread().getId() + "No" + serialID;
+
+	private static String getUniqueFileName() {
+		return GdalResources.uniqueName("MemoryDS");
+	}
+
+	/**
+	 * Get the MEMORY datasource of the current thread, where temporary layers are
+	 * created. Do not share it with other threads. It is created on the first
+	 * call, and lives until {@link #releaseThreadDataSource()}.
+	 * 
+	 * @return the datasource
+	 */
+	public static DataSource getThreadDataSource() {
+		DataSource dataSource = GdalResources.THREAD_DATA_SOURCE.get();
+		if (dataSource == null) {
+			dataSource = VECTOR_DRIVER.CreateDataSource(GdalResources.uniqueName("temp"));
+			GdalResources.THREAD_DATA_SOURCE.set(dataSource);
+		}
+		return dataSource;
+	}
+
+	/**
+	 * Delete the MEMORY datasource of the current thread with all its layers.
+	 * Call it when a thread which created temporary layers is done, such as a
+	 * worker of a pool, after its layer handles have been closed. A later
+	 * {@link #getThreadDataSource()} creates a new one.
+	 */
+	public static void releaseThreadDataSource() {
+		DataSource dataSource = GdalResources.THREAD_DATA_SOURCE.get();
+		if (dataSource == null) {
+			return;
+		}
+		GdalResources.THREAD_DATA_SOURCE.remove();
+		try {
+			dataSource.delete();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return WGS84 spatial reference
+	 */
+	public static SpatialReference getWGS84() {
+		return WGS84;
+	}
+
+	/**
+	 * @return WKT of WGS84
+	 */
+	public static String getWGS84WKT() {
+		return WGS84WKT;
 	}
 
 	/**
@@ -64,7 +117,7 @@ public class MemData {
 	 * 
 	 * @return dataset on success, null on failure.
 	 */
-	public synchronized static Dataset createDataset(String name, int width, int height, int bands, int pixelType,
+	public static Dataset createDataset(String name, int width, int height, int bands, int pixelType,
 			String projection, double[] transform) {
 		Dataset result = null;
 		try {
@@ -86,11 +139,10 @@ public class MemData {
 	}
 
 	/**
-	 * Create a temporary raster dataset in memory. Remember to delete it after use. <br>
+	 * Create a temporary raster dataset in memory. Delete it by
+	 * {@link #deleteTempDataset(Dataset)} after use. <br>
 	 * name=automatic name, projection=WGS84, bands=1, pixelType=FLOAT32
 	 * 
-	 * @param name
-	 *            name of dataset, should be unique
 	 * @param width
 	 *            width of dataset
 	 * @param height
@@ -100,23 +152,76 @@ public class MemData {
 	 * 
 	 * @return dataset on success, null on failure.
 	 */
-	public synchronized static Dataset createTempDataset(int width, int height, double[] transform) {
-		Dataset result = null;
+	public static Dataset createTempDataset(int width, int height, double[] transform) {
+		return createTempDataset(width, height, FLOAT32, transform);
+	}
+	
+	/**
+	 * Create a temporary raster dataset in memory. Delete it by
+	 * {@link #deleteTempDataset(Dataset)} after use. <br>
+	 * name=automatic name, projection=WGS84, bands=1
+	 * 
+	 * @param width
+	 *            width of dataset
+	 * @param height
+	 *            height of dataset
+	 * @param pixelType
+	 *            pixel type of dataset, such as gdalconst.GDT_Byte
+	 * @param transform
+	 *            transform parameters of dataset
+	 * 
+	 * @return dataset on success, null on failure.
+	 */
+	public static Dataset createTempDataset(int width, int height, int pixelType, double[] transform) {
+		return createTempDataset(width, height, 1, pixelType, transform);
+	}
+
+	/**
+	 * Create a temporary raster dataset of several bands in memory. Delete it by
+	 * {@link #deleteTempDataset(Dataset)} after use. <br>
+	 * name=automatic name, projection=WGS84
+	 * 
+	 * @param width
+	 *            width of dataset
+	 * @param height
+	 *            height of dataset
+	 * @param bands
+	 *            band count of dataset
+	 * @param pixelType
+	 *            pixel type of dataset, such as gdalconst.GDT_Byte
+	 * @param transform
+	 *            transform parameters of dataset
+	 * 
+	 * @return dataset on success, null on failure.
+	 */
+	public static Dataset createTempDataset(int width, int height, int bands, int pixelType, double[] transform) {
+		Dataset result = createDataset(getUniqueFileName(), width, height, bands, pixelType, WGS84WKT, transform);
+		if (result != null) {
+			GdalResources.rasterCreated(GdalResources.rasterBytes(width, height, bands, pixelType));
+		}
+		return result;
+	}
+
+	/**
+	 * Delete a dataset of {@link #createTempDataset(int, int, int, int, double[])},
+	 * and take it out of the accounting of {@link GdalResources}.
+	 * 
+	 * @param dataset
+	 *            the dataset, may be null
+	 */
+	public static void deleteTempDataset(Dataset dataset) {
+		if (dataset == null) {
+			return;
+		}
+		long bytes = 0;
 		try {
-			result = RASTER_DRIVER.Create(getUniqueFileName(), width, height, 1, FLOAT32);
-			result.SetProjection(WGS84WKT);
-			result.SetGeoTransform(transform);
-			return result;
+			bytes = GdalResources.rasterBytes(dataset.GetRasterXSize(), dataset.GetRasterYSize(),
+					dataset.GetRasterCount(), dataset.GetRasterBand(1).getDataType());
+			dataset.delete();
 		} catch (Exception e) {
 			e.printStackTrace();
-			try {
-				if (result != null) {
-					result.delete();
-				}
-			} catch (Exception ein) {
-				ein.printStackTrace();
-			}
-			return null;
+		} finally {
+			GdalResources.rasterDeleted(bytes);
 		}
 	}
 	
@@ -128,7 +233,7 @@ public class MemData {
 	 * @param geomType geometry type
 	 * @return the layer on success, null on failure.
 	 */
-	public synchronized static Layer createLayer(DataSource dataSource, String name, SpatialReference sr, int geomType) {
+	public static Layer createLayer(DataSource dataSource, String name, SpatialReference sr, int geomType) {
 		try {
 			Layer layer = dataSource.CreateLayer(name, sr, geomType);
 			return layer;
@@ -144,8 +249,8 @@ public class MemData {
 	 * @param geomType geometry type
 	 * @return the layer on success, null on failure.
 	 */
-	public synchronized static Layer createTempLayer(SpatialReference sr, int geomType) {
-		return createLayer(VECTOR_DS, getUniqueFileName(), sr, geomType);
+	public static Layer createTempLayer(SpatialReference sr, int geomType) {
+		return createLayer(getThreadDataSource(), getUniqueFileName(), sr, geomType);
 	}
 	
 	/**
@@ -153,8 +258,8 @@ public class MemData {
 	 * @param geomType geometry type
 	 * @return the layer on success, null on failure.
 	 */
-	public synchronized static Layer createTempLayer(int geomType) {
-		return createLayer(VECTOR_DS, getUniqueFileName(), WGS84, geomType);
+	public static Layer createTempLayer(int geomType) {
+		return createLayer(getThreadDataSource(), getUniqueFileName(), WGS84, geomType);
 	}
 
 }
@@ -0,0 +1,76 @@
+package com.navdata.gdalutils;
+
+import org.gdal.gdal.Dataset;
+
+/**
+ * A raster borrowed from a {@link RasterPool}. Closing it returns the dataset
+ * to the pool, do not use or delete the dataset after that.
+ *
+ * @author Lin DONG
+ *
+ */
+public class RasterHandle implements AutoCloseable {
+	private final Dataset dataset;
+	private final RasterPool pool;
+	private final int width;
+	private final int height;
+	private final int pixelType;
+	private final long bytes;
+	private boolean closed = false;
+
+	RasterHandle(Dataset dataset, RasterPool pool, int width, int height, int pixelType, long bytes) {
+		this.dataset = dataset;
+		this.pool = pool;
+		this.width = width;
+		this.height = height;
+		this.pixelType = pixelType;
+		this.bytes = bytes;
+	}
+
+	/**
+	 * @return the dataset, it may be larger than requested
+	 */
+	public Dataset getDataset() {
+		return dataset;
+	}
+
+	/**
+	 * @return requested width
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return requested height
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return pixel type
+	 */
+	public int getPixelType() {
+		return pixelType;
+	}
+
+	/**
+	 * @return bytes of pixels of the dataset
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Return the dataset to the pool, it is safe to call it more than once.
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		pool.release(dataset, pixelType, bytes);
+	}
+}
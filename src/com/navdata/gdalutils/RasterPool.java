@@ -0,0 +1,173 @@
+package com.navdata.gdalutils;
+
+import java.security.InvalidParameterException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.gdal.gdal.Band;
+import org.gdal.gdal.Dataset;
+
+/**
+ * A pool of reusable single band MEM rasters, so that creating and deleting
+ * rasters for every (city, kind) does not churn native memory.<br>
+ *
+ * Sizes are rounded up to buckets (at most 1/4 larger, at least 64), and a
+ * borrowed raster has the size of its bucket: the extra pixels in the east and
+ * north are 0, which is the same as padding. A reused raster is filled with 0
+ * and gets the new geotransform. Idle rasters are kept up to a limit of bytes,
+ * the rest are deleted when returned. It is thread-safe and lock-free.
+ *
+ * @author Lin DONG
+ *
+ */
+public class RasterPool {
+	/**
+	 * Default limit of idle bytes, 512MB
+	 */
+	public static final long DEFAULT_MAX_BYTES = 512L << 20;
+
+	private final long maxBytes;
+	private final ConcurrentHashMap<Long, ConcurrentLinkedDeque<Dataset>> idle = new ConcurrentHashMap<>();
+	private final AtomicLong idleBytes = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Create a pool
+	 *
+	 * @param maxBytes
+	 *            limit of bytes of idle rasters
+	 */
+	public RasterPool(long maxBytes) {
+		if (maxBytes < 0) {
+			throw new InvalidParameterException("Max bytes should not be negative.");
+		}
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Round a size up to its bucket
+	 *
+	 * @param size
+	 *            width or height
+	 * @return size of the bucket
+	 */
+	public static int bucket(int size) {
+		if (size <= 64) {
+			return 64;
+		}
+		int step = Integer.highestOneBit(size) / 4;
+		return (size + step - 1) / step * step;
+	}
+
+	private static long key(int width, int height, int pixelType) {
+		return ((long) pixelType << 48) | ((long) width << 24) | height;
+	}
+
+	/**
+	 * Borrow a raster, projection=WGS84, bands=1
+	 *
+	 * @param width
+	 *            width of dataset
+	 * @param height
+	 *            height of dataset
+	 * @param pixelType
+	 *            pixel type of dataset
+	 * @param transform
+	 *            transform parameters of dataset
+	 * @return handle on success, null on failure.
+	 */
+	public RasterHandle acquire(int width, int height, int pixelType, double[] transform) {
+		int bucketWidth = bucket(width);
+		int bucketHeight = bucket(height);
+		long bytes = GdalResources.rasterBytes(bucketWidth, bucketHeight, 1, pixelType);
+		ConcurrentLinkedDeque<Dataset> queue = idle.get(key(bucketWidth, bucketHeight, pixelType));
+		Dataset dataset = (queue == null ? null : queue.pollFirst());
+		if (dataset != null) {
+			idleBytes.addAndGet(-bytes);
+			try {
+				Band band = dataset.GetRasterBand(1);
+				band.Fill(0);
+				dataset.SetGeoTransform(transform);
+				hits.incrementAndGet();
+				return new RasterHandle(dataset, this, width, height, pixelType, bytes);
+			} catch (Exception e) {
+				e.printStackTrace();
+				delete(dataset, bytes);
+				return null;
+			}
+		}
+		misses.incrementAndGet();
+		dataset = MemData.createDataset(GdalResources.uniqueName("MemoryDS"), bucketWidth, bucketHeight, 1,
+				pixelType, MemData.getWGS84WKT(), transform);
+		if (dataset == null) {
+			return null;
+		}
+		GdalResources.rasterCreated(bytes);
+		return new RasterHandle(dataset, this, width, height, pixelType, bytes);
+	}
+
+	/**
+	 * Take a raster back, or delete it if the pool is full
+	 */
+	void release(Dataset dataset, int pixelType, long bytes) {
+		if (idleBytes.addAndGet(bytes) > maxBytes) {
+			idleBytes.addAndGet(-bytes);
+			delete(dataset, bytes);
+			return;
+		}
+		long key = key(dataset.GetRasterXSize(), dataset.GetRasterYSize(), pixelType);
+		ConcurrentLinkedDeque<Dataset> queue = idle.get(key);
+		if (queue == null) {
+			ConcurrentLinkedDeque<Dataset> created = new ConcurrentLinkedDeque<>();
+			queue = idle.putIfAbsent(key, created);
+			if (queue == null) {
+				queue = created;
+			}
+		}
+		queue.offerFirst(dataset);
+	}
+
+	private static void delete(Dataset dataset, long bytes) {
+		try {
+			dataset.delete();
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			GdalResources.rasterDeleted(bytes);
+		}
+	}
+
+	/**
+	 * Delete all idle rasters
+	 */
+	public void clear() {
+		for (Map.Entry<Long, ConcurrentLinkedDeque<Dataset>> entry : idle.entrySet()) {
+			long key = entry.getKey();
+			int pixelType = (int) (key >>> 48);
+			long bytes = GdalResources.rasterBytes((int) ((key >>> 24) & 0xFFFFFF), (int) (key & 0xFFFFFF), 1,
+					pixelType);
+			for (Dataset dataset = entry.getValue().pollFirst(); dataset != null; dataset = entry.getValue()
+					.pollFirst()) {
+				idleBytes.addAndGet(-bytes);
+				delete(dataset, bytes);
+			}
+		}
+	}
+
+	/**
+	 * @return bytes of idle rasters
+	 */
+	public long idleBytes() {
+		return idleBytes.get();
+	}
+
+	/**
+	 * @return statistics for logs
+	 */
+	public String stats() {
+		return "idleBytes=" + idleBytes() + ", hits=" + hits.get() + ", misses=" + misses.get();
+	}
+}
@@ -1,11 +1,22 @@
 package com.navdata.gdalutils;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.InvalidParameterException;
 import java.util.Vector;
+import org.gdal.gdal.Band;
 import org.gdal.gdal.Dataset;
 import org.gdal.gdal.gdal;
+import org.gdal.gdalconst.gdalconst;
 import org.gdal.ogr.Layer;
 import org.gdal.ogr.ogr;
 
+import com.navdata.grid.GridCodec;
+import com.navdata.kernel.DensityGrid;
+import com.navdata.kernel.MultiDensityGrid;
+import com.navdata.kernel.Breakpoints;
+import com.navdata.metrics.Histogram;
+import com.navdata.metrics.Metrics;
 import com.navinfo.grid.GridLevel;
 
 /**
@@ -18,6 +29,8 @@ public class Rasterizer {
 	final static Vector<String> OPTIONS = new Vector<>();
 	final static double[] BURNV = { 0 };
 	final static int[] BANDS = { 1 };
+	private static final Histogram RASTERIZE_LAYER = Metrics.histogram("gdal.rasterizeLayer.nanos");
+	private static final Histogram WRITE_RASTER = Metrics.histogram("gdal.writeRaster.nanos");
 	static {
 		OPTIONS.add("ALL_TOUCHED=TRUE");
 		OPTIONS.add("BURN_VALUE_FROM=Z");
@@ -38,7 +51,8 @@ public class Rasterizer {
 	 *            input vector layer
 	 * @param level
 	 *            pixcel size as {@link GridLevel}
-	 * @return the result dataset on sucess, null on failure.
+	 * @return the result dataset on sucess, null on failure. Delete it by
+	 *         {@link MemData#deleteTempDataset(Dataset)}.
 	 */
 	public static Dataset rasterize(Layer inputLayer, GridLevel level) {
 		try {
@@ -60,7 +74,11 @@ public class Rasterizer {
 			 * outputRaster.SetGeoTransform(transform); Dataset outputRaster =
 			 * 
 			 */
+			long t0 = (Metrics.ENABLED ? System.nanoTime() : 0);
 			gdal.RasterizeLayer(outputRaster, BANDS, inputLayer, BURNV, OPTIONS);
+			if (Metrics.ENABLED) {
+				RASTERIZE_LAYER.record(System.nanoTime() - t0);
+			}
 			outputRaster.FlushCache();
 			return outputRaster;
 		} catch (Exception e) {
@@ -68,4 +86,202 @@ public class Rasterizer {
 			return null;
 		}
 	}
+
+	/**
+	 * Write density grids into a Float32 raster directly, without the vector
+	 * layer. Tiles of the result are copied one by one into a native buffer and
+	 * written with one call each. The geotransform is the same as
+	 * {@link #rasterize(Layer, GridLevel)}: the origin is the lower-left corner
+	 * and pixel height is positive, so raster row 0 is the southern-most row.
+	 * Empty grids are 0.
+	 * 
+	 * @param density
+	 *            density result
+	 * @return the result dataset on sucess, null on failure or empty result.
+	 *         Delete it by {@link MemData#deleteTempDataset(Dataset)}.
+	 */
+	public static Dataset rasterize(DensityGrid density) {
+		return rasterize(density, null);
+	}
+
+	/**
+	 * Write density grids into a raster directly, see
+	 * {@link #rasterize(DensityGrid)}. If breakpoints is not null, the raster is
+	 * Byte and pixels are classes of the densities (see
+	 * {@link Breakpoints#index(double)}), empty grids are 0.
+	 * 
+	 * @param density
+	 *            density result
+	 * @param breakpoints
+	 *            classification, null for a Float32 raster of densities
+	 * @return the result dataset on sucess, null on failure or empty result.
+	 *         Delete it by {@link MemData#deleteTempDataset(Dataset)}.
+	 */
+	public static Dataset rasterize(DensityGrid density, Breakpoints breakpoints) {
+		Dataset outputRaster = null;
+		try {
+			int[] bounds = density.bounds();
+			if (bounds == null) {
+				return null;
+			}
+			int pixelType = (breakpoints != null ? gdalconst.GDT_Byte : gdalconst.GDT_Float32);
+			outputRaster = MemData.createTempDataset(bounds[1] - bounds[0] + 1, bounds[3] - bounds[2] + 1, pixelType,
+					transform(density, bounds));
+			write(outputRaster, 1, density, breakpoints, bounds);
+			outputRaster.FlushCache();
+			return outputRaster;
+		} catch (Exception e) {
+			e.printStackTrace();
+			MemData.deleteTempDataset(outputRaster);
+			return null;
+		}
+	}
+
+	/**
+	 * Write density grids into a raster borrowed from a pool, see
+	 * {@link #rasterize(DensityGrid, Breakpoints)}. The raster may be larger than
+	 * the result, extra pixels are 0. Close the handle to return it.
+	 * 
+	 * @param density
+	 *            density result
+	 * @param breakpoints
+	 *            classification, null for a Float32 raster of densities
+	 * @param pool
+	 *            the pool, such as {@link GdalResources#getRasterPool()}
+	 * @return the handle on sucess, null on failure or empty result.
+	 */
+	public static RasterHandle rasterize(DensityGrid density, Breakpoints breakpoints, RasterPool pool) {
+		RasterHandle handle = null;
+		try {
+			int[] bounds = density.bounds();
+			if (bounds == null) {
+				return null;
+			}
+			int pixelType = (breakpoints != null ? gdalconst.GDT_Byte : gdalconst.GDT_Float32);
+			handle = pool.acquire(bounds[1] - bounds[0] + 1, bounds[3] - bounds[2] + 1, pixelType,
+					transform(density, bounds));
+			if (handle == null) {
+				return null;
+			}
+			write(handle.getDataset(), 1, density, breakpoints, bounds);
+			handle.getDataset().FlushCache();
+			return handle;
+		} catch (Exception e) {
+			e.printStackTrace();
+			if (handle != null) {
+				handle.close();
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Write every channel into a band of one raster (channel c in band c+1), see
+	 * {@link #rasterize(DensityGrid, Breakpoints)}. All bands share the range of
+	 * non-empty grids of all channels.
+	 * 
+	 * @param density
+	 *            density result of channels
+	 * @param breakpoints
+	 *            classification of every channel, null for a Float32 raster of
+	 *            densities
+	 * @return the result dataset on sucess, null on failure or empty result.
+	 *         Delete it by {@link MemData#deleteTempDataset(Dataset)}.
+	 * @throws InvalidParameterException
+	 *             if breakpoints is not null and its length is not the channel
+	 *             count
+	 */
+	public static Dataset rasterize(MultiDensityGrid density, Breakpoints[] breakpoints) {
+		int channels = density.getChannelCount();
+		if (breakpoints != null && breakpoints.length != channels) {
+			throw new InvalidParameterException("Breakpoints of every channel are required.");
+		}
+		Dataset outputRaster = null;
+		try {
+			int[] bounds = density.bounds();
+			if (bounds == null) {
+				return null;
+			}
+			int pixelType = (breakpoints != null ? gdalconst.GDT_Byte : gdalconst.GDT_Float32);
+			outputRaster = MemData.createTempDataset(bounds[1] - bounds[0] + 1, bounds[3] - bounds[2] + 1, channels,
+					pixelType, transform(density.getZ(), bounds));
+			for (int c = 0; c < channels; c++) {
+				write(outputRaster, c + 1, density.getChannel(c), (breakpoints == null ? null : breakpoints[c]),
+						bounds);
+			}
+			outputRaster.FlushCache();
+			return outputRaster;
+		} catch (Exception e) {
+			e.printStackTrace();
+			MemData.deleteTempDataset(outputRaster);
+			return null;
+		}
+	}
+
+	/**
+	 * Write every channel into a band of one Float32 raster, see
+	 * {@link #rasterize(MultiDensityGrid, Breakpoints[])}.
+	 * 
+	 * @param density
+	 *            density result of channels
+	 * @return the result dataset on sucess, null on failure or empty result.
+	 *         Delete it by {@link MemData#deleteTempDataset(Dataset)}.
+	 */
+	public static Dataset rasterize(MultiDensityGrid density) {
+		return rasterize(density, null);
+	}
+
+	private static double[] transform(DensityGrid density, int[] bounds) {
+		return transform(density.getZ(), bounds);
+	}
+
+	private static double[] transform(int z, int[] bounds) {
+		return new double[] { GridCodec.x0(bounds[0], z), GridCodec.length(z), 0, GridCodec.y0(bounds[2], z), 0,
+				GridCodec.length(z) };
+	}
+
+	/**
+	 * Write tiles one by one, raster row 0 is row bounds[2]
+	 */
+	private static void write(Dataset outputRaster, int bandNumber, DensityGrid density, Breakpoints breakpoints,
+			int[] bounds) {
+		boolean classified = (breakpoints != null);
+		int pixelType = classified ? gdalconst.GDT_Byte : gdalconst.GDT_Float32;
+		Band band = outputRaster.GetRasterBand(bandNumber);
+		int tile = density.tileSize();
+		double[] block = new double[tile * tile];
+		ByteBuffer buffer = ByteBuffer.allocateDirect(tile * tile * (classified ? 1 : 4));
+		buffer.order(ByteOrder.nativeOrder());
+		for (long key : density.tileKeys()) {
+			// window of the tile in the raster
+			int col0 = DensityGrid.tileCol(key) * tile;
+			int row0 = DensityGrid.tileRow(key) * tile;
+			int c0 = Math.max(col0, bounds[0]);
+			int c1 = Math.min(col0 + tile - 1, bounds[1]);
+			int r0 = Math.max(row0, bounds[2]);
+			int r1 = Math.min(row0 + tile - 1, bounds[3]);
+			if (c1 < c0 || r1 < r0) {
+				// a tile of zeros may lie outside the range of non-empty grids
+				continue;
+			}
+			density.copyTile(key, block);
+			buffer.clear();
+			for (int row = r0; row <= r1; row++) {
+				int offset = (row - row0) * tile - col0;
+				for (int col = c0; col <= c1; col++) {
+					double d = block[offset + col];
+					if (classified) {
+						buffer.put((byte) (d == 0 ? 0 : breakpoints.index(d)));
+					} else {
+						buffer.putFloat((float) d);
+					}
+				}
+			}
+			long t0 = (Metrics.ENABLED ? System.nanoTime() : 0);
+			band.WriteRaster_Direct(c0 - bounds[0], r0 - bounds[2], c1 - c0 + 1, r1 - r0 + 1, pixelType, buffer);
+			if (Metrics.ENABLED) {
+				WRITE_RASTER.record(System.nanoTime() - t0);
+			}
+		}
+	}
 }
@@ -0,0 +1,159 @@
+package com.navdata.gdalutils;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A static R-tree over envelopes, packed by Sort-Tile-Recursive: envelopes are
+ * sorted into vertical slices by x, then by y inside a slice, and packed into
+ * leaves of {@link #CAPACITY}. Upper nodes pack consecutive nodes of the level
+ * below. It is immutable after construction and can be queried by threads.
+ *
+ * @author Lin DONG
+ *
+ */
+class STRTree {
+	/**
+	 * Entries per node
+	 */
+	static final int CAPACITY = 16;
+
+	/**
+	 * Visit items found by a query
+	 */
+	interface Visitor {
+		/**
+		 * @param item
+		 *            index of the envelope
+		 */
+		void visit(int item);
+	}
+
+	private final double[] items;
+	private final int[] order;
+	/**
+	 * Envelopes of nodes by level, level 0 is the leaves
+	 */
+	private final double[][] boxes;
+
+	/**
+	 * Build the tree
+	 *
+	 * @param envelopes
+	 *            x0, x1, y0, y1 of every item
+	 */
+	STRTree(double[] envelopes) {
+		this.items = envelopes;
+		final int n = envelopes.length / 4;
+		Integer[] sorted = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			sorted[i] = i;
+		}
+		Arrays.sort(sorted, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(center(a, 0), center(b, 0));
+			}
+		});
+		int leaves = (n + CAPACITY - 1) / CAPACITY;
+		int slices = (int) Math.ceil(Math.sqrt(leaves));
+		int sliceSize = slices * CAPACITY;
+		for (int from = 0; from < n; from += sliceSize) {
+			Arrays.sort(sorted, from, Math.min(n, from + sliceSize), new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return Double.compare(center(a, 2), center(b, 2));
+				}
+			});
+		}
+		order = new int[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = sorted[i];
+		}
+		// pack levels until one root
+		int levels = 1;
+		for (int count = leaves; count > 1; count = (count + CAPACITY - 1) / CAPACITY) {
+			levels++;
+		}
+		boxes = new double[levels][];
+		boxes[0] = new double[leaves * 4];
+		for (int i = 0; i < n; i++) {
+			extend(boxes[0], i / CAPACITY, envelopes, order[i], i % CAPACITY == 0);
+		}
+		for (int level = 1; level < levels; level++) {
+			int children = boxes[level - 1].length / 4;
+			boxes[level] = new double[(children + CAPACITY - 1) / CAPACITY * 4];
+			for (int i = 0; i < children; i++) {
+				extend(boxes[level], i / CAPACITY, boxes[level - 1], i, i % CAPACITY == 0);
+			}
+		}
+	}
+
+	private double center(int item, int axis) {
+		return items[item * 4 + axis] + items[item * 4 + axis + 1];
+	}
+
+	private static void extend(double[] nodes, int node, double[] source, int index, boolean first) {
+		for (int k = 0; k < 4; k++) {
+			double v = source[index * 4 + k];
+			if (first) {
+				nodes[node * 4 + k] = v;
+			} else if ((k & 1) == 0) {
+				nodes[node * 4 + k] = Math.min(nodes[node * 4 + k], v);
+			} else {
+				nodes[node * 4 + k] = Math.max(nodes[node * 4 + k], v);
+			}
+		}
+	}
+
+	private static boolean intersects(double[] boxes, int i, double x0, double x1, double y0, double y1) {
+		return boxes[i * 4] <= x1 && boxes[i * 4 + 1] >= x0 && boxes[i * 4 + 2] <= y1 && boxes[i * 4 + 3] >= y0;
+	}
+
+	/**
+	 * @return number of items
+	 */
+	int size() {
+		return order.length;
+	}
+
+	/**
+	 * Visit all items whose envelopes intersect the given rectangle
+	 *
+	 * @param x0
+	 *            min x
+	 * @param x1
+	 *            max x
+	 * @param y0
+	 *            min y
+	 * @param y1
+	 *            max y
+	 * @param visitor
+	 *            the visitor
+	 */
+	void query(double x0, double x1, double y0, double y1, Visitor visitor) {
+		if (order.length > 0) {
+			query(boxes.length - 1, 0, x0, x1, y0, y1, visitor);
+		}
+	}
+
+	private void query(int level, int node, double x0, double x1, double y0, double y1, Visitor visitor) {
+		if (!intersects(boxes[level], node, x0, x1, y0, y1)) {
+			return;
+		}
+		int from = node * CAPACITY;
+		if (level == 0) {
+			int to = Math.min(order.length, from + CAPACITY);
+			for (int i = from; i < to; i++) {
+				if (intersects(items, order[i], x0, x1, y0, y1)) {
+					visitor.visit(order[i]);
+				}
+			}
+		} else {
+			int to = Math.min(boxes[level - 1].length / 4, from + CAPACITY);
+			for (int i = from; i < to; i++) {
+				query(level - 1, i, x0, x1, y0, y1, visitor);
+			}
+		}
+	}
+}
@@ -0,0 +1,389 @@
+package com.navdata.grid;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.security.InvalidParameterException;
+
+import com.navinfo.grid.GridLevel;
+
+/**
+ * Pure arithmetic grid ID codec, the same as xy2grid and friends in
+ * nav_grid.pgsql. No object is created, so it can be used in hot loops.<br>
+ *
+ * GridID is a bigint using the lower-left coordinate of the grid in the form
+ * of xxxxxxxyyyyyyzr (see xy2grid). Here a grid is also addressed by integer
+ * column and row, col = floor(x/length) and row = floor(y/length), which are
+ * negative in the west/south, so all four quadrants are covered.<br>
+ *
+ * xy2grid takes decimal coordinates, so x*10000/step is exact there, while
+ * the same product of doubles may miss an edge by an ulp (1.15*100 is
+ * 114.99999999999999). Products close to an integer are floored again in
+ * decimal, with the shortest decimal form of the double, which is what a
+ * double becomes when it is cast to decimal in PostgreSQL.
+ *
+ * <pre>
+ * z  length
+ * 0  0.0001
+ * 1  0.001
+ * 2  0.002
+ * 4  0.005
+ * 5  0.01
+ * 6  0.02
+ * 8  0.05
+ * 9  0.1
+ * </pre>
+ *
+ * @author Lin DONG
+ *
+ */
+public final class GridCodec {
+
+	/**
+	 * Length of grid in 0.0001 degree, index is z. 0 means reserved.
+	 */
+	private static final int[] STEPS = { 1, 10, 20, 0, 50, 100, 200, 0, 500, 1000 };
+
+	/**
+	 * Grids per degree, 10000/step
+	 */
+	private static final int[] RECIPROCALS = { 10000, 1000, 500, 0, 200, 100, 50, 0, 20, 10 };
+
+	/**
+	 * Products closer than this to an integer are floored in decimal. Errors of
+	 * the binary product are below 1e-9 for |x| &lt;= 180.
+	 */
+	private static final double EDGE = 1e-6;
+
+	private GridCodec() {
+	}
+
+	/**
+	 * Visit grids one by one
+	 */
+	public interface CellVisitor {
+		/**
+		 * @param col
+		 *            column of the grid
+		 * @param row
+		 *            row of the grid
+		 */
+		void visit(int col, int row);
+	}
+
+	/**
+	 * Get the z part of grid ID of the given level
+	 *
+	 * @param level
+	 *            grid level
+	 * @return z
+	 */
+	public static int z(GridLevel level) {
+		if (level == null) {
+			throw new InvalidParameterException("Grid level is null.");
+		}
+		int step = (int) Math.round(level.length() * 10000);
+		for (int z = 0; z < STEPS.length; z++) {
+			if (STEPS[z] == step) {
+				return z;
+			}
+		}
+		throw new InvalidParameterException("Unsupported grid level: " + level);
+	}
+
+	/**
+	 * Get the z part of given grid ID
+	 *
+	 * @param gridID
+	 *            grid ID
+	 * @return z
+	 */
+	public static int z(long gridID) {
+		return (int) ((gridID / 10) % 10);
+	}
+
+	/**
+	 * Get the r part (quadrant) of given grid ID
+	 *
+	 * @param gridID
+	 *            grid ID
+	 * @return r, 0 north-east, 1 north-west, 2 south-west, 3 south-east
+	 */
+	public static int r(long gridID) {
+		return (int) (gridID % 10);
+	}
+
+	/**
+	 * Check the z value, see _checkZ in nav_grid.pgsql
+	 *
+	 * @param z
+	 *            z part of grid ID
+	 * @return true if it is valid
+	 */
+	public static boolean checkZ(int z) {
+		return z >= 0 && z < STEPS.length && STEPS[z] > 0;
+	}
+
+	/**
+	 * Length of grid in 0.0001 degree
+	 *
+	 * @param z
+	 *            z part of grid ID
+	 * @return length in 0.0001 degree
+	 */
+	public static int step(int z) {
+		if (!checkZ(z)) {
+			throw new InvalidParameterException("Invalid grid level: z = " + z);
+		}
+		return STEPS[z];
+	}
+
+	/**
+	 * Check whether grids of a level are made of whole grids of a finer level,
+	 * that is the coarse length is a multiple of the fine length. Since all
+	 * levels share the origin, a coarse grid is then the union of ratio*ratio
+	 * fine grids, such as 5*5 grids of 0.001 in a grid of 0.005, but grids of
+	 * 0.002 do not fit in a grid of 0.005.
+	 *
+	 * @param fineZ
+	 *            z of the finer level
+	 * @param coarseZ
+	 *            z of the coarser level
+	 * @return true if the levels nest, also true if they are the same
+	 */
+	public static boolean nests(int fineZ, int coarseZ) {
+		return step(coarseZ) % step(fineZ) == 0;
+	}
+
+	/**
+	 * Length of grid in degree
+	 *
+	 * @param z
+	 *            z part of grid ID
+	 * @return length in degree
+	 */
+	public static double length(int z) {
+		return step(z) / 10000.0;
+	}
+
+	/**
+	 * Column of the grid which x lies in
+	 *
+	 * @param x
+	 *            longitude
+	 * @param z
+	 *            z part of grid ID
+	 * @return floor(x/length), x/length in decimal
+	 */
+	public static int col(double x, int z) {
+		return floor(x, RECIPROCALS[z]);
+	}
+
+	/**
+	 * Row of the grid which y lies in
+	 *
+	 * @param y
+	 *            latitude
+	 * @param z
+	 *            z part of grid ID
+	 * @return floor(y/length), y/length in decimal
+	 */
+	public static int row(double y, int z) {
+		return floor(y, RECIPROCALS[z]);
+	}
+
+	/**
+	 * floor(v*reciprocal) as xy2grid does it in decimal
+	 */
+	private static int floor(double v, int reciprocal) {
+		double p = v * reciprocal;
+		double r = Math.rint(p);
+		if (Math.abs(p - r) > EDGE || Double.isInfinite(p) || Double.isNaN(p)) {
+			return (int) Math.floor(p);
+		}
+		// on or next to an edge
+		return BigDecimal.valueOf(v).multiply(BigDecimal.valueOf(reciprocal)).setScale(0, RoundingMode.FLOOR)
+				.intValue();
+	}
+
+	/**
+	 * Min x (lower-left x) of a column
+	 *
+	 * @param col
+	 *            column of the grid
+	 * @param z
+	 *            z part of grid ID
+	 * @return min x
+	 */
+	public static double x0(int col, int z) {
+		return (long) col * STEPS[z] / 10000.0;
+	}
+
+	/**
+	 * Min y (lower-left y) of a row
+	 *
+	 * @param row
+	 *            row of the grid
+	 * @param z
+	 *            z part of grid ID
+	 * @return min y
+	 */
+	public static double y0(int row, int z) {
+		return (long) row * STEPS[z] / 10000.0;
+	}
+
+	/**
+	 * Get grid ID of a grid
+	 *
+	 * @param col
+	 *            column of the grid
+	 * @param row
+	 *            row of the grid
+	 * @param z
+	 *            z part of grid ID
+	 * @return grid ID
+	 */
+	public static long encode(int col, int row, int z) {
+		long x = (long) col * STEPS[z];
+		long y = (long) row * STEPS[z];
+		int r;
+		if (x >= 0) {
+			r = (y >= 0 ? 0 : 3);
+		} else {
+			r = (y >= 0 ? 1 : 2);
+		}
+		return Math.abs(x) * 100000000L + Math.abs(y) * 100 + z * 10 + r;
+	}
+
+	/**
+	 * Get grid ID of the grid which the given point lies in, the same as
+	 * xy2grid(x, y, z).
+	 *
+	 * @param x
+	 *            longitude, [-180, 180]
+	 * @param y
+	 *            latitude, [-90, 90]
+	 * @param z
+	 *            z part of grid ID
+	 * @return grid ID
+	 */
+	public static long encode(double x, double y, int z) {
+		if (!checkZ(z)) {
+			throw new InvalidParameterException("Invalid grid level: z = " + z);
+		}
+		// also rejects NaN
+		if (!(x >= -180 && x <= 180 && y >= -90 && y <= 90)) {
+			throw new InvalidParameterException("Invalid coordinates: (" + x + ", " + y + ")");
+		}
+		return encode(col(x, z), row(y, z), z);
+	}
+
+	/**
+	 * Get grid IDs of many points at once.
+	 *
+	 * @param xs
+	 *            longitudes
+	 * @param ys
+	 *            latitudes
+	 * @param z
+	 *            z part of grid ID
+	 * @param out
+	 *            grid IDs, at least as long as xs
+	 */
+	public static void encode(double[] xs, double[] ys, int z, long[] out) {
+		if (xs.length != ys.length || out.length < xs.length) {
+			throw new InvalidParameterException("Lengths of xs, ys and out mismatch.");
+		}
+		for (int i = 0; i < xs.length; i++) {
+			out[i] = encode(xs[i], ys[i], z);
+		}
+	}
+
+	/**
+	 * Get grid IDs of many points at once.
+	 *
+	 * @param xs
+	 *            longitudes
+	 * @param ys
+	 *            latitudes
+	 * @param level
+	 *            grid level
+	 * @return grid IDs
+	 */
+	public static long[] encode(double[] xs, double[] ys, GridLevel level) {
+		long[] out = new long[xs.length];
+		encode(xs, ys, z(level), out);
+		return out;
+	}
+
+	/**
+	 * Get column of a grid
+	 *
+	 * @param gridID
+	 *            grid ID
+	 * @return column
+	 */
+	public static int col(long gridID) {
+		int r = r(gridID);
+		int col = (int) (gridID / 100000000L / STEPS[z(gridID)]);
+		return (r == 1 || r == 2) ? -col : col;
+	}
+
+	/**
+	 * Get row of a grid
+	 *
+	 * @param gridID
+	 *            grid ID
+	 * @return row
+	 */
+	public static int row(long gridID) {
+		int r = r(gridID);
+		int row = (int) ((gridID / 100) % 1000000 / STEPS[z(gridID)]);
+		return (r == 2 || r == 3) ? -row : row;
+	}
+
+	/**
+	 * Get the bound of a grid without creating an array.
+	 *
+	 * @param gridID
+	 *            grid ID
+	 * @param bound
+	 *            x0, x1, y0, y1 are written into it
+	 */
+	public static void bound(long gridID, double[] bound) {
+		int z = z(gridID);
+		int col = col(gridID);
+		int row = row(gridID);
+		bound[0] = x0(col, z);
+		bound[1] = x0(col + 1, z);
+		bound[2] = y0(row, z);
+		bound[3] = y0(row + 1, z);
+	}
+
+	/**
+	 * Visit all grids which intersect the given rectangle, row by row.
+	 *
+	 * @param x0
+	 *            min x
+	 * @param x1
+	 *            max x
+	 * @param y0
+	 *            min y
+	 * @param y1
+	 *            max y
+	 * @param z
+	 *            z part of grid ID
+	 * @param visitor
+	 *            the visitor
+	 */
+	public static void forEach(double x0, double x1, double y0, double y1, int z, CellVisitor visitor) {
+		int c0 = col(x0, z);
+		int c1 = col(x1, z);
+		int r0 = row(y0, z);
+		int r1 = row(y1, z);
+		for (int row = r0; row <= r1; row++) {
+			for (int col = c0; col <= c1; col++) {
+				visitor.visit(col, row);
+			}
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package com.navdata.kernel;
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import com.navinfo.grid.GridLevel;
+
+/**
+ * Band width of each point from the distance to its k-th nearest neighbour
+ * (sample-point adaptive estimation): points in dense areas get
+ * narrow kernels, isolated points get wide ones. The distances are clamped to
+ * [minBandWidth, maxBandWidth], so that duplicated points do not get a zero
+ * band width and outliers do not spread over the whole city. Weights are not
+ * used for the neighbours, every point counts once.
+ *
+ * @author Lin DONG
+ *
+ */
+public class AdaptiveBandwidth {
+	private final int k;
+	private final double minBandWidth;
+	private final double maxBandWidth;
+
+	/**
+	 * @param k
+	 *            which neighbour gives the band width, 1 is the nearest
+	 * @param minBandWidth
+	 *            lower bound of band widths, should be positive
+	 * @param maxBandWidth
+	 *            upper bound of band widths, also used for points that have
+	 *            less than k neighbours
+	 */
+	public AdaptiveBandwidth(int k, double minBandWidth, double maxBandWidth) {
+		if (k < 1) {
+			throw new InvalidParameterException("k should be positive.");
+		}
+		if (!(minBandWidth > 0) || !(maxBandWidth >= minBandWidth) || Double.isInfinite(maxBandWidth)) {
+			throw new InvalidParameterException("Band widths should be 0 < min <= max.");
+		}
+		this.k = k;
+		this.minBandWidth = minBandWidth;
+		this.maxBandWidth = maxBandWidth;
+	}
+
+	/**
+	 * @return which neighbour gives the band width
+	 */
+	public int getK() {
+		return k;
+	}
+
+	/**
+	 * @return lower bound of band widths
+	 */
+	public double getMinBandWidth() {
+		return minBandWidth;
+	}
+
+	/**
+	 * @return upper bound of band widths
+	 */
+	public double getMaxBandWidth() {
+		return maxBandWidth;
+	}
+
+	/**
+	 * Band widths of points, with all cores of the common {@link ForkJoinPool}
+	 *
+	 * @param points
+	 *            the points
+	 * @return band width of each point
+	 */
+	public double[] bandWidths(PointBatch points) {
+		return bandWidths(points, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Band widths of points: a {@link KDTree} is built and queried in parallel
+	 *
+	 * @param points
+	 *            the points
+	 * @param pool
+	 *            the pool to run on
+	 * @return band width of each point
+	 */
+	public double[] bandWidths(PointBatch points, ForkJoinPool pool) {
+		double[] result = new KDTree(points).kthDistances(k, pool);
+		for (int i = 0; i < result.length; i++) {
+			result[i] = Math.min(maxBandWidth, Math.max(minBandWidth, result[i]));
+		}
+		return result;
+	}
+
+	/**
+	 * Compare the tree with brute force on a synthetic city (a dense core and
+	 * sparse suburbs), then estimate it with adaptive band widths.
+	 *
+	 * @param args
+	 *            [number of points], the default is 200000
+	 */
+	public static void main(String[] args) {
+		int n = (args.length > 0 ? Integer.parseInt(args[0]) : 200000);
+		int k = 20;
+		Random random = new Random(0);
+		PointBatch points = PointBatch.allocate(n, false, false);
+		for (int i = 0; i < n; i++) {
+			double sigma = (i % 4 == 0 ? 0.2 : 0.02);
+			points.add(116 + random.nextGaussian() * sigma, 39.9 + random.nextGaussian() * sigma);
+		}
+		long t0 = System.nanoTime();
+		KDTree tree = new KDTree(points);
+		long t1 = System.nanoTime();
+		double[] distances = tree.kthDistances(k);
+		long t2 = System.nanoTime();
+		System.out.println("build: " + (t1 - t0) / 1000000 + "ms, " + k + "-NN of " + n + " points: "
+				+ (t2 - t1) / 1000000 + "ms");
+		// brute force on a sample
+		double maxError = 0;
+		double[] d2 = new double[n];
+		for (int s = 0; s < 100; s++) {
+			int i = random.nextInt(n);
+			for (int j = 0; j < n; j++) {
+				double dx = points.getX(i) - points.getX(j);
+				double dy = points.getY(i) - points.getY(j);
+				d2[j] = dx * dx + dy * dy;
+			}
+			Arrays.sort(d2);
+			maxError = Math.max(maxError, Math.abs(Math.sqrt(d2[k]) - distances[i]));
+		}
+		System.out.println("max error against brute force: " + maxError);
+
+		AdaptiveBandwidth adaptive = new AdaptiveBandwidth(k, 0.0005, 0.05);
+		double[] bandWidths = adaptive.bandWidths(points);
+		double[] sorted = bandWidths.clone();
+		Arrays.sort(sorted);
+		System.out.println("band widths p10/p50/p90: " + sorted[n / 10] + " / " + sorted[n / 2] + " / "
+				+ sorted[n * 9 / 10]);
+		GridEstimator estimator = new GridEstimator();
+		long t3 = System.nanoTime();
+		DensityGrid parallel = estimator.estimateAdaptive(points, bandWidths, GridLevel.GRID_0_002);
+		long t4 = System.nanoTime();
+		DensityGrid serial = new DensityGrid(GridLevel.GRID_0_002);
+		estimator.accumulate(serial, points, bandWidths);
+		final double[] total = new double[1];
+		parallel.forEach(new DensityVisitor() {
+			@Override
+			public void visit(long gridID, double density) {
+				total[0] += density;
+			}
+		});
+		final DensityGrid expected = serial;
+		final double[] maxDiff = new double[1];
+		parallel.forEach(new DensityVisitor() {
+			@Override
+			public void visit(long gridID, double density) {
+				maxDiff[0] = Math.max(maxDiff[0], Math.abs(density - expected.get(gridID)));
+			}
+		});
+		System.out.println("adaptive estimation: " + (t4 - t3) / 1000000 + "ms, " + parallel.size()
+				+ " grids, total " + total[0] + ", max difference to serial " + maxDiff[0]);
+	}
+}
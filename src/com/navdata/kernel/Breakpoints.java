@@ -0,0 +1,224 @@
+package com.navdata.kernel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.InvalidParameterException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.navdata.kernel.base.ValueMapper;
+
+/**
+ * Immutable separators fitted by {@link Classifier100} or
+ * {@link StreamingClassifier100}: seps[i] is the lower bound of class i+1.
+ * Fit once (e.g. on a national reference distribution), save it, and
+ * classify any number of cities and runs with it.<br>
+ *
+ * Classes are 1-100 and NaN is 0, so they are written into bytes.
+ *
+ * @author Lin DONG
+ *
+ */
+public final class Breakpoints implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	private static final int MAGIC = 0x42524B50; // BRKP
+	private static final int VERSION = 1;
+	// magic, version and number of separators
+	private static final int HEADER_BYTES = 12;
+	// values per task of the parallel transform
+	private static final int CHUNK = 1 << 16;
+
+	private final double[] seps;
+
+	/**
+	 * @param seps
+	 *            ascending separators, copied
+	 */
+	public Breakpoints(double[] seps) {
+		if (seps == null || seps.length == 0) {
+			throw new InvalidParameterException("Separators are null or empty.");
+		}
+		for (int i = 1; i < seps.length; i++) {
+			if (seps[i] < seps[i - 1]) {
+				throw new InvalidParameterException("Separators should be ascending.");
+			}
+		}
+		this.seps = seps.clone();
+	}
+
+	/**
+	 * @return a copy of the separators
+	 */
+	public double[] separators() {
+		return seps.clone();
+	}
+
+	/**
+	 * Classify a value
+	 *
+	 * @param value
+	 *            the value
+	 * @return 1 to number of separators, 0 for NaN
+	 */
+	public int index(double value) {
+		return Double.isNaN(value) ? 0 : ValueMapper.findIndex(value, seps);
+	}
+
+	/**
+	 * Classify values into a caller-supplied buffer.
+	 *
+	 * @param values
+	 *            input values
+	 * @param from
+	 *            start index, inclusive
+	 * @param to
+	 *            end index, exclusive
+	 * @param out
+	 *            output, out[outOffset+i-from] is the class of values[i]
+	 * @param outOffset
+	 *            start index of output
+	 */
+	public void transform(double[] values, int from, int to, byte[] out, int outOffset) {
+		for (int i = from; i < to; i++) {
+			out[outOffset + i - from] = (byte) index(values[i]);
+		}
+	}
+
+	/**
+	 * Classify values into a caller-supplied buffer.
+	 *
+	 * @param values
+	 *            input values
+	 * @param out
+	 *            output, at least as long as values
+	 */
+	public void transform(double[] values, byte[] out) {
+		transform(values, 0, values.length, out, 0);
+	}
+
+	/**
+	 * Classify the remaining values of in into out, both positions advance.
+	 *
+	 * @param in
+	 *            input values
+	 * @param out
+	 *            output
+	 */
+	public void transform(DoubleBuffer in, ByteBuffer out) {
+		while (in.hasRemaining()) {
+			out.put((byte) index(in.get()));
+		}
+	}
+
+	/**
+	 * Classify values with all cores of the common {@link ForkJoinPool}.
+	 *
+	 * @param values
+	 *            input values
+	 * @param out
+	 *            output, at least as long as values
+	 */
+	public void transformParallel(final double[] values, final byte[] out) {
+		if (out.length < values.length) {
+			throw new InvalidParameterException("Output is shorter than input.");
+		}
+		ForkJoinPool.commonPool().invoke(new TransformTask(values, out, 0, values.length));
+	}
+
+	private class TransformTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final double[] values;
+		private final byte[] out;
+		private final int from, to;
+
+		TransformTask(double[] values, byte[] out, int from, int to) {
+			this.values = values;
+			this.out = out;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= CHUNK) {
+				transform(values, from, to, out, from);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new TransformTask(values, out, from, mid), new TransformTask(values, out, mid, to));
+		}
+	}
+
+	/**
+	 * Save to a file. It is written into a temporary file beside it first and
+	 * then renamed, so the file is either the old one or complete, even if the
+	 * process dies or several processes save at the same time.
+	 *
+	 * @param file
+	 *            the file
+	 * @throws IOException
+	 *             on failure
+	 */
+	public void save(File file) throws IOException {
+		File directory = file.getAbsoluteFile().getParentFile();
+		File temp = File.createTempFile(file.getName(), ".tmp", directory);
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(seps.length);
+				for (double sep : seps) {
+					out.writeDouble(sep);
+				}
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp.toPath());
+		}
+	}
+
+	/**
+	 * Load from a file written by {@link #save(File)}
+	 *
+	 * @param file
+	 *            the file
+	 * @return the breakpoints
+	 * @throws IOException
+	 *             on failure or a bad file: wrong magic number or version, a
+	 *             length which does not match the number of separators, or
+	 *             separators which are not ascending
+	 */
+	public static Breakpoints load(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (file.length() < HEADER_BYTES || in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not a breakpoints file: " + file);
+			}
+			int n = in.readInt();
+			if (n <= 0 || file.length() != HEADER_BYTES + 8L * n) {
+				throw new IOException("Truncated or corrupt breakpoints file: " + file);
+			}
+			double[] seps = new double[n];
+			for (int i = 0; i < n; i++) {
+				seps[i] = in.readDouble();
+			}
+			try {
+				return new Breakpoints(seps);
+			} catch (InvalidParameterException e) {
+				throw new IOException("Corrupt breakpoints file: " + file, e);
+			}
+		}
+	}
+}
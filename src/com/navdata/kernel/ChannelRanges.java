@@ -0,0 +1,109 @@
+package com.navdata.kernel;
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+
+/**
+ * Channels defined by ranges of kind codes, such as kind between 150000 and
+ * 159999. Ranges may overlap or nest, so a point can belong to several
+ * channels.<br>
+ *
+ * The ends of the ranges cut kind codes into at most 2*channels+1 segments,
+ * and all kinds of a segment belong to the same channels. The channels of
+ * every segment are computed once in the constructor, so a lookup is a binary
+ * search over primitive arrays, without boxing, locking or allocation.
+ *
+ * @author Lin DONG
+ *
+ */
+public class ChannelRanges {
+	private static final int[] NONE = new int[0];
+
+	private final int[] lows;
+	private final int[] highs;
+	/**
+	 * First kind of every segment, ascending
+	 */
+	private final int[] starts;
+	/**
+	 * Channels of every segment
+	 */
+	private final int[][] segments;
+
+	/**
+	 * Create channels
+	 *
+	 * @param lows
+	 *            min kind of every channel, inclusive
+	 * @param highs
+	 *            max kind of every channel, inclusive
+	 */
+	public ChannelRanges(int[] lows, int[] highs) {
+		if (lows.length != highs.length) {
+			throw new InvalidParameterException("Lengths of lows and highs differ.");
+		}
+		this.lows = lows.clone();
+		this.highs = highs.clone();
+		long[] ends = new long[2 * lows.length];
+		for (int c = 0; c < lows.length; c++) {
+			ends[2 * c] = lows[c];
+			ends[2 * c + 1] = highs[c] + 1L;
+		}
+		Arrays.sort(ends);
+		int n = 0;
+		for (int i = 0; i < ends.length; i++) {
+			// a range ending at Integer.MAX_VALUE has no segment after it
+			if ((n == 0 || ends[i] != ends[n - 1]) && ends[i] <= Integer.MAX_VALUE) {
+				ends[n++] = ends[i];
+			}
+		}
+		starts = new int[n];
+		segments = new int[n][];
+		int[] channels = new int[lows.length];
+		for (int i = 0; i < n; i++) {
+			starts[i] = (int) ends[i];
+			int m = 0;
+			for (int c = 0; c < lows.length; c++) {
+				if (starts[i] >= lows[c] && starts[i] <= highs[c]) {
+					channels[m++] = c;
+				}
+			}
+			segments[i] = (m == 0 ? NONE : Arrays.copyOf(channels, m));
+		}
+	}
+
+	/**
+	 * @return number of channels
+	 */
+	public int size() {
+		return lows.length;
+	}
+
+	/**
+	 * @param channel
+	 *            the channel
+	 * @return {min kind, max kind} of the channel
+	 */
+	public int[] range(int channel) {
+		return new int[] { lows[channel], highs[channel] };
+	}
+
+	/**
+	 * Get the channels a kind belongs to
+	 *
+	 * @param kind
+	 *            kind code
+	 * @return channels, sorted, do not modify it
+	 */
+	public int[] channelsOf(int kind) {
+		int i = Arrays.binarySearch(starts, kind);
+		if (i < 0) {
+			// the segment which starts before kind
+			i = -i - 2;
+			if (i < 0) {
+				return NONE;
+			}
+		}
+		return segments[i];
+	}
+}
@@ -1,5 +1,7 @@
 package com.navdata.kernel;
 
+import java.io.File;
+import java.io.IOException;
 import java.security.InvalidParameterException;
 import java.util.Arrays;
 
@@ -11,9 +13,69 @@ import com.navdata.kernel.base.ValueMapper;
  *
  */
 public class Classifier100 extends ValueMapper{
+	
+	private final boolean parallel;
+	
+	/**
+	 * Create a single-thread classifier
+	 */
+	public Classifier100() {
+		this(false);
+	}
+	
+	/**
+	 * Create a classifier
+	 * @param parallel true to sort and map with all cores of the common {@link java.util.concurrent.ForkJoinPool}, 
+	 * the result is the same as the single-thread one 
+	 */
+	public Classifier100(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	/**
+	 * Fit the 100 separators, seps[i] is the lower bound of class i+1.
+	 * @param values input values
+	 * @return the separators, they can be saved and reused, see {@link Breakpoints} 
+	 */
+	@Override
+	public Breakpoints fit(double... values) {
+		return new Breakpoints(separators(values));
+	}
+	
+	/**
+	 * Load separators from a cache file, or fit and save them if the file does not exist
+	 * or is not a valid breakpoints file (e.g. truncated by a crash). The cache is replaced
+	 * atomically, see {@link Breakpoints#save(File)}.
+	 * @param cache the cache file
+	 * @param values input values, only used when the cache is missing or invalid
+	 * @return the separators
+	 * @throws IOException on failure of writing the cache
+	 */
+	public Breakpoints fit(File cache, double... values) throws IOException {
+		if(cache.isFile()) {
+			try {
+				return Breakpoints.load(cache);
+			} catch (IOException e) {
+				// a bad cache is fitted again and replaced
+			}
+		}
+		Breakpoints result = fit(values);
+		result.save(cache);
+		return result;
+	}
 
 	@Override
 	public int[] map(double... values) {
+		if(!parallel) {
+			return super.map(values);
+		}
+		Breakpoints breakpoints = fit(values);
+		byte[] classes = new byte[values.length];
+		breakpoints.transformParallel(values, classes);
+		return toIndex(classes);
+	}
+	
+	private double[] separators(double... values) {
 		if(values == null || values.length==0) {
 			throw new InvalidParameterException("Array [values] is null or empty.");
 		}
@@ -21,35 +83,17 @@ public class Classifier100 extends ValueMapper{
 		int N = 100;
 		int n = values.length;
 		double[] copy =Arrays.copyOf(values, n);
-		Arrays.sort(copy);
+		if(parallel) {
+			Arrays.parallelSort(copy);
+		}else {
+			Arrays.sort(copy);
+		}
 		double[] seps = new double[N];
 		for(int i=0;i<N;i++) {
 			int index = (int) (0+i*(1.0*n/N));
 			seps[i] = copy[index];
 		}
-		copy = null;
-		int[] result = new int[n];
-		for(int i=0;i<n;i++) {
-			result[i] = findIndex(values[i], seps);
-		}
-		return result;
-	}
-	 
-	//0-99 -->1-100
-	private int findIndex(double value, double[] seps) {
-		int N =seps.length;
-		int l = 0;
-		int h = N-1;		
-		//bin search
-		while(h-l>1) {
-			int half = (l+h)/2;
-			if(value<seps[half]) {	
-				h = half;
-			}else {
-				l = half;
-			}
-		}		
-		return l+1;
+		return seps;
 	}
 	
 	public static void main(String[] args) {
@@ -0,0 +1,553 @@
+package com.navdata.kernel;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.navdata.grid.GridCodec;
+import com.navinfo.grid.GridLevel;
+
+/**
+ * Density result of one {@link GridLevel}, stored in dense square tiles of
+ * primitive doubles. <br>
+ *
+ * Grids are addressed by integer column/row (see {@link GridCodec}), so all
+ * four quadrants are supported. Tiles are created on
+ * the first write and keyed by (tile row, tile column); a tile can be a heap
+ * double[] or an off-heap direct buffer. A grid costs 8 bytes (in an occupied
+ * tile) instead of a boxed HashMap entry.<br>
+ *
+ * Grids with density 0 are treated as empty and skipped by
+ * {@link #forEach(DensityVisitor)} and {@link #cursor()}. This class is not
+ * thread-safe, use one instance per thread and {@link #merge(DensityGrid)}
+ * them.
+ *
+ * @author Lin DONG
+ *
+ */
+public class DensityGrid {
+
+	/**
+	 * The default tile is 64*64 grids (32KB)
+	 */
+	public static final int DEFAULT_TILE_BITS = 6;
+
+	private final GridLevel gridLevel;
+	private final int z;
+	private final boolean offHeap;
+	private final int tileBits;
+	private final int tileSize;
+	private final int tileMask;
+	private final Map<Long, Tile> tiles = new HashMap<>();
+	// the last used tile, most writes of a point fall into the same tile
+	private long lastKey;
+	private Tile lastTile;
+
+	/**
+	 * Create an empty result on heap.
+	 *
+	 * @param gridLevel
+	 *            size of grid, {@link GridLevel}
+	 */
+	public DensityGrid(GridLevel gridLevel) {
+		this(gridLevel, false, DEFAULT_TILE_BITS);
+	}
+
+	/**
+	 * Create an empty result.
+	 *
+	 * @param gridLevel
+	 *            size of grid, {@link GridLevel}
+	 * @param offHeap
+	 *            true to store tiles in direct buffers (out of the Java heap)
+	 */
+	public DensityGrid(GridLevel gridLevel, boolean offHeap) {
+		this(gridLevel, offHeap, DEFAULT_TILE_BITS);
+	}
+
+	/**
+	 * Create an empty result.
+	 *
+	 * @param gridLevel
+	 *            size of grid, {@link GridLevel}
+	 * @param offHeap
+	 *            true to store tiles in direct buffers (out of the Java heap)
+	 * @param tileBits
+	 *            a tile has (2^tileBits)*(2^tileBits) grids, 1 to 12
+	 */
+	public DensityGrid(GridLevel gridLevel, boolean offHeap, int tileBits) {
+		if (gridLevel == null) {
+			throw new InvalidParameterException("Grid level is null.");
+		}
+		if (tileBits < 1 || tileBits > 12) {
+			throw new InvalidParameterException("tileBits should be in [1,12].");
+		}
+		this.gridLevel = gridLevel;
+		this.z = GridCodec.z(gridLevel);
+		this.offHeap = offHeap;
+		this.tileBits = tileBits;
+		this.tileSize = 1 << tileBits;
+		this.tileMask = tileSize - 1;
+	}
+
+	/**
+	 * @return size of grid
+	 */
+	public GridLevel getGridLevel() {
+		return gridLevel;
+	}
+
+	/**
+	 * @return z part of grid ID, see {@link GridCodec}
+	 */
+	public int getZ() {
+		return z;
+	}
+
+	/**
+	 * @return whether tiles are stored out of the Java heap
+	 */
+	public boolean isOffHeap() {
+		return offHeap;
+	}
+
+	/**
+	 * Add density to a grid
+	 *
+	 * @param col
+	 *            column of the grid, floor(x/length)
+	 * @param row
+	 *            row of the grid, floor(y/length)
+	 * @param density
+	 *            the density to add
+	 */
+	public void add(int col, int row, double density) {
+		Tile tile = tile(col >> tileBits, row >> tileBits, true);
+		tile.add(((row & tileMask) << tileBits) | (col & tileMask), density);
+	}
+
+	/**
+	 * Add density to a grid
+	 *
+	 * @param gridID
+	 *            ID of the grid, it should be of the same level
+	 * @param density
+	 *            the density to add
+	 */
+	public void add(long gridID, double density) {
+		checkLevel(gridID);
+		add(GridCodec.col(gridID), GridCodec.row(gridID), density);
+	}
+
+	/**
+	 * Get density of a grid
+	 *
+	 * @param col
+	 *            column of the grid
+	 * @param row
+	 *            row of the grid
+	 * @return density, 0 if it is empty
+	 */
+	public double get(int col, int row) {
+		Tile tile = tile(col >> tileBits, row >> tileBits, false);
+		return tile == null ? 0 : tile.get(((row & tileMask) << tileBits) | (col & tileMask));
+	}
+
+	/**
+	 * Get density of a grid
+	 *
+	 * @param gridID
+	 *            ID of the grid
+	 * @return density, 0 if it is empty
+	 */
+	public double get(long gridID) {
+		checkLevel(gridID);
+		return get(GridCodec.col(gridID), GridCodec.row(gridID));
+	}
+
+	/**
+	 * @return true if nothing has been written
+	 */
+	public boolean isEmpty() {
+		return tiles.isEmpty();
+	}
+
+	/**
+	 * @return number of allocated tiles
+	 */
+	public int tileCount() {
+		return tiles.size();
+	}
+
+	/**
+	 * @return number of non-empty grids, it scans all tiles
+	 */
+	public long size() {
+		long n = 0;
+		int cells = tileSize * tileSize;
+		for (Tile tile : tiles.values()) {
+			for (int i = 0; i < cells; i++) {
+				if (tile.get(i) != 0) {
+					n++;
+				}
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * @return bytes used by tile data (heap or off-heap)
+	 */
+	public long memoryBytes() {
+		return (long) tiles.size() * tileSize * tileSize * 8;
+	}
+
+	/**
+	 * Visit all non-empty grids, ordered by tile then by row and column.
+	 *
+	 * @param visitor
+	 *            the visitor
+	 */
+	public void forEach(DensityVisitor visitor) {
+		Cursor cursor = cursor();
+		while (cursor.next()) {
+			visitor.visit(cursor.gridID(), cursor.density());
+		}
+	}
+
+	/**
+	 * @return a cursor over all non-empty grids
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * Add all grids of another result into this one. Tiles of the other result
+	 * may be taken over, so it should not be used afterwards.
+	 *
+	 * @param other
+	 *            another result of the same grid level and tile size
+	 */
+	public void merge(DensityGrid other) {
+		if (other.z != z || other.tileBits != tileBits) {
+			throw new InvalidParameterException("Grid level or tile size mismatch.");
+		}
+		int cells = tileSize * tileSize;
+		for (Map.Entry<Long, Tile> entry : other.tiles.entrySet()) {
+			Tile mine = tiles.get(entry.getKey());
+			Tile theirs = entry.getValue();
+			if (mine == null) {
+				if (theirs.offHeap() == offHeap) {// take it over
+					tiles.put(entry.getKey(), theirs);
+					continue;
+				}
+				mine = newTile();
+				tiles.put(entry.getKey(), mine);
+			}
+			for (int i = 0; i < cells; i++) {
+				double d = theirs.get(i);
+				if (d != 0) {
+					mine.add(i, d);
+				}
+			}
+		}
+		other.tiles.clear();
+		other.lastTile = null;
+	}
+
+	/**
+	 * Sum the grids into a coarser level, every coarse grid gets the total of
+	 * the fine grids it is made of. Since the density of a grid is the
+	 * integral of the kernel over it, the sum equals the estimation at the
+	 * coarse level without running the kernel again.
+	 *
+	 * @param coarse
+	 *            the coarser level, see {@link GridCodec#nests(int, int)}
+	 * @return a new result with the same storage and tile size
+	 */
+	public DensityGrid aggregate(GridLevel coarse) {
+		int coarseZ = GridCodec.z(coarse);
+		if (!GridCodec.nests(z, coarseZ)) {
+			throw new InvalidParameterException(gridLevel + " does not nest in " + coarse + ".");
+		}
+		int ratio = GridCodec.step(coarseZ) / GridCodec.step(z);
+		DensityGrid result = new DensityGrid(coarse, offHeap, tileBits);
+		int cells = tileSize * tileSize;
+		// sorted, so the sums do not depend on the hash order
+		for (long key : tileKeys()) {
+			Tile tile = tiles.get(key);
+			int col0 = tileCol(key) << tileBits;
+			int row0 = tileRow(key) << tileBits;
+			for (int i = 0; i < cells; i++) {
+				double d = tile.get(i);
+				if (d != 0) {
+					result.add(Math.floorDiv(col0 + (i & tileMask), ratio),
+							Math.floorDiv(row0 + (i >>> tileBits), ratio), d);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Copy the result into a {@link Map}, gridID to density. Only for small
+	 * results and the legacy API.
+	 *
+	 * @return a new map
+	 */
+	public Map<Long, Double> toMap() {
+		final Map<Long, Double> map = new HashMap<>((int) (size() / 0.75f) + 1);
+		forEach(new DensityVisitor() {
+			@Override
+			public void visit(long gridID, double density) {
+				map.put(gridID, density);
+			}
+		});
+		return map;
+	}
+
+	/**
+	 * Release all tiles
+	 */
+	public void clear() {
+		tiles.clear();
+		lastTile = null;
+	}
+
+	/**
+	 * Primitive cursor over non-empty grids. Call {@link #next()} before reading.
+	 */
+	public class Cursor {
+		private final long[] keys;
+		private int tileIndex = -1;
+		private Tile tile;
+		private int tileCol, tileRow;
+		private int cell;
+		private final int cells = tileSize * tileSize;
+		private long gridID;
+		private double density;
+
+		private Cursor() {
+			keys = tileKeys();
+		}
+
+		/**
+		 * Move to the next non-empty grid
+		 *
+		 * @return false if there is no more grid
+		 */
+		public boolean next() {
+			while (true) {
+				if (tile != null) {
+					while (++cell < cells) {
+						double d = tile.get(cell);
+						if (d != 0) {
+							int col = (tileCol << tileBits) | (cell & tileMask);
+							int row = (tileRow << tileBits) | (cell >>> tileBits);
+							gridID = GridCodec.encode(col, row, z);
+							density = d;
+							return true;
+						}
+					}
+				}
+				if (++tileIndex >= keys.length) {
+					tile = null;
+					return false;
+				}
+				long key = keys[tileIndex];
+				tile = tiles.get(key);
+				tileRow = tileRow(key);
+				tileCol = tileCol(key);
+				cell = -1;
+			}
+		}
+
+		/**
+		 * @return ID of the current grid
+		 */
+		public long gridID() {
+			return gridID;
+		}
+
+		/**
+		 * @return density of the current grid
+		 */
+		public double density() {
+			return density;
+		}
+	}
+
+	/**
+	 * @return grids per side of a tile
+	 */
+	public int tileSize() {
+		return tileSize;
+	}
+
+	/**
+	 * @return keys of all tiles, sorted. Use {@link #tileCol(long)} and
+	 *         {@link #tileRow(long)} to decode.
+	 */
+	public long[] tileKeys() {
+		long[] keys = new long[tiles.size()];
+		int i = 0;
+		for (Long key : tiles.keySet()) {
+			keys[i++] = key;
+		}
+		Arrays.sort(keys);
+		return keys;
+	}
+
+	/**
+	 * @param key
+	 *            tile key
+	 * @return column of the tile, its first grid column is tileCol*tileSize
+	 */
+	public static int tileCol(long key) {
+		return (int) key;
+	}
+
+	/**
+	 * @param key
+	 *            tile key
+	 * @return row of the tile, its first grid row is tileRow*tileSize
+	 */
+	public static int tileRow(long key) {
+		return (int) (key >> 32);
+	}
+
+	/**
+	 * Copy a tile, row-major
+	 *
+	 * @param key
+	 *            tile key
+	 * @param dest
+	 *            at least tileSize*tileSize long
+	 */
+	public void copyTile(long key, double[] dest) {
+		Tile tile = tiles.get(key);
+		int cells = tileSize * tileSize;
+		for (int i = 0; i < cells; i++) {
+			dest[i] = (tile == null ? 0 : tile.get(i));
+		}
+	}
+
+	/**
+	 * Get the range of non-empty grids
+	 *
+	 * @return {min col, max col, min row, max row}, null if it is empty
+	 */
+	public int[] bounds() {
+		int[] bounds = null;
+		int cells = tileSize * tileSize;
+		for (Map.Entry<Long, Tile> entry : tiles.entrySet()) {
+			Tile tile = entry.getValue();
+			int col0 = tileCol(entry.getKey()) << tileBits;
+			int row0 = tileRow(entry.getKey()) << tileBits;
+			for (int i = 0; i < cells; i++) {
+				if (tile.get(i) == 0) {
+					continue;
+				}
+				int col = col0 + (i & tileMask);
+				int row = row0 + (i >>> tileBits);
+				if (bounds == null) {
+					bounds = new int[] { col, col, row, row };
+				} else {
+					bounds[0] = Math.min(bounds[0], col);
+					bounds[1] = Math.max(bounds[1], col);
+					bounds[2] = Math.min(bounds[2], row);
+					bounds[3] = Math.max(bounds[3], row);
+				}
+			}
+		}
+		return bounds;
+	}
+
+	private Tile tile(int tileCol, int tileRow, boolean create) {
+		long key = ((long) tileRow << 32) | (tileCol & 0xFFFFFFFFL);
+		if (lastTile != null && key == lastKey) {
+			return lastTile;
+		}
+		Tile tile = tiles.get(key);
+		if (tile == null) {
+			if (!create) {
+				return null;
+			}
+			tile = newTile();
+			tiles.put(key, tile);
+		}
+		lastKey = key;
+		lastTile = tile;
+		return tile;
+	}
+
+	private Tile newTile() {
+		int cells = tileSize * tileSize;
+		return offHeap ? new DirectTile(cells) : new HeapTile(cells);
+	}
+
+	private void checkLevel(long gridID) {
+		if (GridCodec.z(gridID) != z) {
+			throw new InvalidParameterException("Grid level mismatch: " + gridID);
+		}
+	}
+
+	private interface Tile {
+		double get(int i);
+
+		void add(int i, double d);
+
+		boolean offHeap();
+	}
+
+	private static final class HeapTile implements Tile {
+		private final double[] data;
+
+		HeapTile(int cells) {
+			data = new double[cells];
+		}
+
+		@Override
+		public double get(int i) {
+			return data[i];
+		}
+
+		@Override
+		public void add(int i, double d) {
+			data[i] += d;
+		}
+
+		@Override
+		public boolean offHeap() {
+			return false;
+		}
+	}
+
+	private static final class DirectTile implements Tile {
+		private final DoubleBuffer data;
+
+		DirectTile(int cells) {
+			data = ByteBuffer.allocateDirect(cells * 8).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+		}
+
+		@Override
+		public double get(int i) {
+			return data.get(i);
+		}
+
+		@Override
+		public void add(int i, double d) {
+			data.put(i, data.get(i) + d);
+		}
+
+		@Override
+		public boolean offHeap() {
+			return true;
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package com.navdata.kernel;
+
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.navdata.grid.GridCodec;
+import com.navinfo.grid.GridLevel;
+
+/**
+ * Results of several grid levels from one estimation, for layers of different
+ * zoom levels.<br>
+ *
+ * The kernel runs once at the finest level, and every coarser level is summed
+ * from the coarsest level built so far that nests in it (see
+ * {@link DensityGrid#aggregate(GridLevel)}), such as 0.005 from 0.001 and 0.01
+ * from 0.005, but 0.05 from 0.01 rather than 0.02. The finest level must nest
+ * in all the others, see {@link GridCodec#nests(int, int)}. Each level is a
+ * plain {@link DensityGrid}, so classification, rasterization and contours run
+ * per level as usual.
+ *
+ * @author Lin DONG
+ *
+ */
+public class DensityPyramid {
+	/**
+	 * Results by length of grid in 0.0001 degree, fine to coarse
+	 */
+	private final TreeMap<Integer, DensityGrid> levels = new TreeMap<>();
+
+	/**
+	 * Build a pyramid from a result of the finest level
+	 *
+	 * @param base
+	 *            result of the finest level, it is kept as the first level
+	 * @param gridLevels
+	 *            coarser levels to build, the level of the base may be included
+	 */
+	public DensityPyramid(DensityGrid base, GridLevel... gridLevels) {
+		int baseZ = base.getZ();
+		levels.put(GridCodec.step(baseZ), base);
+		TreeMap<Integer, GridLevel> targets = new TreeMap<>();
+		for (GridLevel level : gridLevels) {
+			int z = GridCodec.z(level);
+			if (!GridCodec.nests(baseZ, z)) {
+				throw new InvalidParameterException(base.getGridLevel() + " does not nest in " + level + ".");
+			}
+			targets.put(GridCodec.step(z), level);
+		}
+		for (Map.Entry<Integer, GridLevel> target : targets.entrySet()) {
+			int step = target.getKey();
+			if (levels.containsKey(step)) {
+				continue;
+			}
+			// the coarsest built level which nests in the target has the fewest grids
+			DensityGrid source = base;
+			for (Map.Entry<Integer, DensityGrid> built : levels.entrySet()) {
+				if (step % built.getKey() == 0) {
+					source = built.getValue();
+				}
+			}
+			levels.put(step, source.aggregate(target.getValue()));
+		}
+	}
+
+	/**
+	 * Estimate at the finest of the levels and build the others from it
+	 *
+	 * @param estimator
+	 *            the estimator
+	 * @param points
+	 *            points as the input, weights are used if it has them
+	 * @param bandWidth
+	 *            band width, the effective range of the kernel function
+	 * @param gridLevels
+	 *            levels to build, the finest one should nest in all the others
+	 * @return the pyramid
+	 */
+	public static DensityPyramid estimate(GridEstimator estimator, PointBatch points, double bandWidth,
+			GridLevel... gridLevels) {
+		if (gridLevels.length == 0) {
+			throw new InvalidParameterException("No grid level.");
+		}
+		GridLevel finest = gridLevels[0];
+		for (GridLevel level : gridLevels) {
+			if (level.length() < finest.length()) {
+				finest = level;
+			}
+		}
+		return new DensityPyramid(estimator.estimateParallel(points, bandWidth, finest), gridLevels);
+	}
+
+	/**
+	 * @param gridLevel
+	 *            the level
+	 * @return result of the level, null if it is not built
+	 */
+	public DensityGrid get(GridLevel gridLevel) {
+		return levels.get(GridCodec.step(GridCodec.z(gridLevel)));
+	}
+
+	/**
+	 * @return levels built, fine to coarse
+	 */
+	public List<GridLevel> getGridLevels() {
+		List<GridLevel> result = new ArrayList<>();
+		for (DensityGrid grid : levels.values()) {
+			result.add(grid.getGridLevel());
+		}
+		return result;
+	}
+
+	/**
+	 * @return bytes used by tiles of all levels
+	 */
+	public long memoryBytes() {
+		long bytes = 0;
+		for (DensityGrid grid : levels.values()) {
+			bytes += grid.memoryBytes();
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,20 @@
+package com.navdata.kernel;
+
+/**
+ * Visit grids of a density result one by one, without boxing.
+ *
+ * @author Lin DONG
+ *
+ */
+public interface DensityVisitor {
+
+	/**
+	 * Visit a grid
+	 *
+	 * @param gridID
+	 *            ID of the grid
+	 * @param density
+	 *            density/expectation of the grid
+	 */
+	void visit(long gridID, double density);
+}
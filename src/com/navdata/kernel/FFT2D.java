@@ -0,0 +1,117 @@
+package com.navdata.kernel;
+
+import java.security.InvalidParameterException;
+
+/**
+ * In-place radix-2 complex FFT of an N*N array (row-major re/im arrays). One
+ * instance keeps the twiddle factors of N and some scratch arrays, so it is
+ * not thread-safe.
+ *
+ * @author Lin DONG
+ *
+ */
+class FFT2D {
+
+	private final int n;
+	private final int bits;
+	private final double[] cos;
+	private final double[] sin;
+	private final double[] colRe;
+	private final double[] colIm;
+
+	/**
+	 * @param n
+	 *            size, a power of 2
+	 */
+	FFT2D(int n) {
+		if (n < 2 || Integer.bitCount(n) != 1) {
+			throw new InvalidParameterException("FFT size should be a power of 2: " + n);
+		}
+		this.n = n;
+		this.bits = Integer.numberOfTrailingZeros(n);
+		cos = new double[n / 2];
+		sin = new double[n / 2];
+		for (int i = 0; i < n / 2; i++) {
+			double angle = -2 * Math.PI * i / n;
+			cos[i] = Math.cos(angle);
+			sin[i] = Math.sin(angle);
+		}
+		colRe = new double[n];
+		colIm = new double[n];
+	}
+
+	int size() {
+		return n;
+	}
+
+	/**
+	 * Forward transform
+	 */
+	void forward(double[] re, double[] im) {
+		transform2D(re, im, false);
+	}
+
+	/**
+	 * Inverse transform, scaled by 1/(N*N)
+	 */
+	void inverse(double[] re, double[] im) {
+		transform2D(re, im, true);
+		double scale = 1.0 / ((double) n * n);
+		for (int i = 0; i < re.length; i++) {
+			re[i] *= scale;
+			im[i] *= scale;
+		}
+	}
+
+	private void transform2D(double[] re, double[] im, boolean inverse) {
+		for (int row = 0; row < n; row++) {
+			transform(re, im, row * n, inverse);
+		}
+		for (int col = 0; col < n; col++) {
+			for (int row = 0; row < n; row++) {
+				colRe[row] = re[row * n + col];
+				colIm[row] = im[row * n + col];
+			}
+			transform(colRe, colIm, 0, inverse);
+			for (int row = 0; row < n; row++) {
+				re[row * n + col] = colRe[row];
+				im[row * n + col] = colIm[row];
+			}
+		}
+	}
+
+	// 1D transform of re/im[offset, offset+n)
+	private void transform(double[] re, double[] im, int offset, boolean inverse) {
+		// bit reversal
+		for (int i = 0; i < n; i++) {
+			int j = Integer.reverse(i) >>> (32 - bits);
+			if (j > i) {
+				double t = re[offset + i];
+				re[offset + i] = re[offset + j];
+				re[offset + j] = t;
+				t = im[offset + i];
+				im[offset + i] = im[offset + j];
+				im[offset + j] = t;
+			}
+		}
+		double sign = inverse ? -1 : 1;
+		for (int size = 2; size <= n; size <<= 1) {
+			int half = size >> 1;
+			int step = n / size;
+			for (int start = 0; start < n; start += size) {
+				for (int k = 0; k < half; k++) {
+					double wr = cos[k * step];
+					double wi = sign * sin[k * step];
+					int a = offset + start + k;
+					int b = a + half;
+					double tr = re[b] * wr - im[b] * wi;
+					double ti = re[b] * wi + im[b] * wr;
+					re[b] = re[a] - tr;
+					im[b] = im[a] - ti;
+					re[a] += tr;
+					im[a] += ti;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,276 @@
+package com.navdata.kernel;
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+
+import com.navdata.grid.GridCodec;
+import com.navdata.kernel.base.Kernel2D;
+import com.navinfo.grid.GridLevel;
+
+/**
+ * Binned density estimation for very large point sets.<br>
+ *
+ * Points are linearly binned onto grid centers: the weight of a point is split
+ * among the 4 nearest grid centers, in proportion to the overlapping area
+ * (bilinear weights). The bins are then convolved with the kernel stencil of a
+ * point at a grid center, by FFT, tile by tile (overlap-add), so the cost grows
+ * with the raster rather than with points*footprint, and only one tile is
+ * transformed at a time.<br>
+ *
+ * The result is an approximation: the error is of the order of
+ * (length/bandWidth)^2, much smaller than snapping points to grid centers.
+ * Kernels with a hard edge bin worst. Measured by {@link #main(String[])} on
+ * 20000 points, the max error in % of the peak density at band width =
+ * 5/10/20 grids is:
+ *
+ * <pre>
+ * UniformKernel2D        1.24  0.44  0.16
+ * EpanechnikovKernel2D   0.30  0.08  0.04
+ * GaussianKernel2D       0.05  0.04  0.02
+ * </pre>
+ *
+ * Densities smaller than 1e-12 of the mass of a tile are treated as FFT noise
+ * and dropped. The footprint of a point can be at most {@value #MAX_SPAN}
+ * grids wide.
+ *
+ * @author Lin DONG
+ *
+ */
+public class FFTEstimator {
+
+	/**
+	 * Relative magnitude of values treated as rounding noise of the FFT
+	 */
+	private static final double NOISE = 1e-12;
+
+	/**
+	 * Max width of the footprint in grids, tiles of {@link DensityGrid} are at
+	 * most 2^12 grids wide
+	 */
+	public static final int MAX_SPAN = 1 << 12;
+
+	private final Kernel2D kernel;
+
+	/**
+	 * Create an estimator
+	 *
+	 * @param kernel
+	 *            the kernel function
+	 */
+	public FFTEstimator(Kernel2D kernel) {
+		if (kernel == null) {
+			throw new InvalidParameterException("Kernel is null.");
+		}
+		this.kernel = kernel;
+	}
+
+	/**
+	 * Estimate the density in grids
+	 *
+	 * @param xs
+	 *            x of points
+	 * @param ys
+	 *            y of points
+	 * @param weights
+	 *            weights of points, null means all weights are 1
+	 * @param n
+	 *            number of points to read from the arrays
+	 * @param bandWidth
+	 *            band width
+	 * @param gridLevel
+	 *            size of grid
+	 * @return the result
+	 * @throws InvalidParameterException
+	 *             if the footprint is wider than {@value #MAX_SPAN} grids
+	 */
+	public DensityGrid estimate(double[] xs, double[] ys, double[] weights, int n, double bandWidth,
+			GridLevel gridLevel) {
+		int z = GridCodec.z(gridLevel);
+		// checked before the stencil is built, this bounds its width
+		int width = (int) Math.ceil(2 * kernel.radius(bandWidth) / GridCodec.length(z)) + 1;
+		if (width > MAX_SPAN) {
+			throw new InvalidParameterException("Footprint is wider than " + MAX_SPAN + " grids.");
+		}
+		KernelStencil stencil = new KernelStencil(kernel, bandWidth, z, 1, 0, 0);
+		int span = Math.max(stencil.getWidth(), stencil.getHeight());
+		int tileBits = tileBits(span);
+		DensityGrid bins = bin(xs, ys, weights, n, gridLevel, tileBits);
+		DensityGrid result = new DensityGrid(gridLevel);
+		if (bins.isEmpty()) {
+			return result;
+		}
+		int tile = 1 << tileBits;
+		FFT2D fft = new FFT2D(2 * tile);
+		int size = fft.size();
+		// kernel spectrum
+		double[] kRe = new double[size * size];
+		double[] kIm = new double[size * size];
+		for (int r = 0; r < stencil.getHeight(); r++) {
+			for (int c = 0; c < stencil.getWidth(); c++) {
+				kRe[r * size + c] = stencil.weight(c + stencil.getColOffset(), r + stencil.getRowOffset());
+			}
+		}
+		fft.forward(kRe, kIm);
+		double[] block = new double[tile * tile];
+		double[] re = new double[size * size];
+		double[] im = new double[size * size];
+		int outWidth = tile + stencil.getWidth() - 1;
+		int outHeight = tile + stencil.getHeight() - 1;
+		for (long key : bins.tileKeys()) {
+			bins.copyTile(key, block);
+			Arrays.fill(re, 0);
+			Arrays.fill(im, 0);
+			double mass = 0;
+			for (int r = 0; r < tile; r++) {
+				for (int c = 0; c < tile; c++) {
+					double b = block[r * tile + c];
+					re[r * size + c] = b;
+					mass += b;
+				}
+			}
+			if (mass == 0) {
+				continue;
+			}
+			fft.forward(re, im);
+			for (int i = 0; i < re.length; i++) {
+				double a = re[i], b = im[i];
+				re[i] = a * kRe[i] - b * kIm[i];
+				im[i] = a * kIm[i] + b * kRe[i];
+			}
+			fft.inverse(re, im);
+			// overlap-add
+			int col0 = (DensityGrid.tileCol(key) << tileBits) + stencil.getColOffset();
+			int row0 = (DensityGrid.tileRow(key) << tileBits) + stencil.getRowOffset();
+			double noise = mass * NOISE;
+			for (int r = 0; r < outHeight; r++) {
+				for (int c = 0; c < outWidth; c++) {
+					double d = re[r * size + c];
+					if (d > noise) {
+						result.add(col0 + c, row0 + r, d);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Tiles of bins are at least as large as the stencil (and 16), so FFT size
+	 * 2*tile leaves room for the whole output of a tile.
+	 */
+	private static int tileBits(int span) {
+		return Math.max(4, 32 - Integer.numberOfLeadingZeros(span - 1));
+	}
+
+	/**
+	 * Linear binning onto grid centers
+	 */
+	private static DensityGrid bin(double[] xs, double[] ys, double[] weights, int n, GridLevel gridLevel,
+			int tileBits) {
+		DensityGrid bins = new DensityGrid(gridLevel, false, tileBits);
+		int z = bins.getZ();
+		double length = GridCodec.length(z);
+		for (int i = 0; i < n; i++) {
+			double w = (weights == null ? 1 : weights[i]);
+			if (w == 0) {
+				continue;
+			}
+			// position in grid-center coordinates
+			double u = xs[i] / length - 0.5;
+			double v = ys[i] / length - 0.5;
+			int col = (int) Math.floor(u);
+			int row = (int) Math.floor(v);
+			double fu = u - col;
+			double fv = v - row;
+			bins.add(col, row, w * (1 - fu) * (1 - fv));
+			bins.add(col + 1, row, w * fu * (1 - fv));
+			bins.add(col, row + 1, w * (1 - fu) * fv);
+			bins.add(col + 1, row + 1, w * fu * fv);
+		}
+		return bins;
+	}
+
+	/**
+	 * Whether the FFT path is expected to be faster than evaluating the
+	 * footprint of every point: points*footprint is compared with the FFT cost
+	 * of the raster covering the points.
+	 *
+	 * @param points
+	 *            number of points
+	 * @param footprint
+	 *            grids in the footprint of a point
+	 * @param rasterWidth
+	 *            columns of the raster covering all points
+	 * @param rasterHeight
+	 *            rows of the raster covering all points
+	 * @param span
+	 *            width (or height) of the footprint in grids
+	 * @return true if FFT is preferred, false if span is larger than
+	 *         {@value #MAX_SPAN}
+	 */
+	public static boolean preferred(long points, long footprint, long rasterWidth, long rasterHeight, int span) {
+		if (span > MAX_SPAN) {
+			return false;
+		}
+		long tile = 1L << tileBits(span);
+		long tiles = ((rasterWidth + tile - 1) / tile) * ((rasterHeight + tile - 1) / tile);
+		long size = 2L * tile;
+		// 2 transforms, each 2*size rows/columns of size*log2(size) butterflies, ~10 flops each
+		double fftCost = tiles * 2.0 * 2 * size * size * (63 - Long.numberOfLeadingZeros(size)) * 10 / 2;
+		// the per-point path costs a kernel call and a write per grid, ~50 flops
+		double pointCost = 50.0 * points * footprint;
+		return pointCost > fftCost;
+	}
+
+	/**
+	 * Error report: compare with the exact per-point estimation for each kernel
+	 * on a cluster of random points.
+	 *
+	 * @param args
+	 *            [number of points], the default is 20000
+	 */
+	public static void main(String[] args) {
+		int n = (args.length > 0 ? Integer.parseInt(args[0]) : 20000);
+		java.util.Random random = new java.util.Random(0);
+		double[] xs = new double[n];
+		double[] ys = new double[n];
+		for (int i = 0; i < n; i++) {
+			xs[i] = 116 + random.nextGaussian() * 0.02;
+			ys[i] = 39.9 + random.nextGaussian() * 0.02;
+		}
+		Kernel2D[] kernels = { new com.navdata.kernel.base.UniformKernel2D(
+				com.navdata.kernel.base.UniformKernel2D.Method.ANALYTIC),
+				new com.navdata.kernel.base.EpanechnikovKernel2D(), new com.navdata.kernel.base.GaussianKernel2D() };
+		GridLevel level = GridLevel.GRID_0_001;
+		for (Kernel2D kernel : kernels) {
+			for (double bandWidth : new double[] { 0.005, 0.01, 0.02 }) {
+				GridEstimator exact = new GridEstimator(kernel);
+				exact.setEngine(GridEstimator.Engine.POINT);
+				final DensityGrid expected = exact.estimateGrid(xs, ys, null, n, bandWidth, level);
+				final DensityGrid binned = new FFTEstimator(kernel).estimate(xs, ys, null, n, bandWidth, level);
+				// max |error| and sum |error| over the union of both results
+				final double[] e = new double[3];
+				expected.forEach(new DensityVisitor() {
+					@Override
+					public void visit(long gridID, double density) {
+						double d = Math.abs(density - binned.get(gridID));
+						e[0] = Math.max(e[0], d);
+						e[1] += d;
+						e[2] = Math.max(e[2], density);
+					}
+				});
+				binned.forEach(new DensityVisitor() {
+					@Override
+					public void visit(long gridID, double density) {
+						if (expected.get(gridID) == 0) {
+							e[0] = Math.max(e[0], density);
+							e[1] += density;
+						}
+					}
+				});
+				System.out.printf("%s bandWidth=%s: max error %.4f%% of peak, L1 error %.4f%% of mass%n",
+						kernel.getClass().getSimpleName(), bandWidth, e[0] / e[2] * 100, e[1] / n * 100);
+			}
+		}
+	}
+}
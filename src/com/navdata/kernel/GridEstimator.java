@@ -1,21 +1,30 @@
 package com.navdata.kernel;
 
 import java.awt.geom.Point2D;
+import java.security.InvalidParameterException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Set;
-
-import org.gdal.ogr.Geometry;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
+import com.navdata.grid.GridCodec;
+import com.navdata.kernel.base.GaussianKernel2D;
+import com.navdata.kernel.base.Kernel;
 import com.navdata.kernel.base.Kernel2D;
+import com.navdata.kernel.base.SeparableKernel2D;
+import com.navdata.kernel.base.TriangularKernel2D;
 import com.navdata.kernel.base.UniformKernel2D;
+import com.navdata.metrics.Counter;
+import com.navdata.metrics.Histogram;
+import com.navdata.metrics.Metrics;
 import com.navinfo.grid.Grid;
 import com.navinfo.grid.GridLevel;
-import com.navinfo.grid.VirtualGrid;
 
 /**
- * 2D Kernel density estimator
+ * 2D Kernel density estimator. The kernel is uniform by default, see
+ * {@link #GridEstimator(Kernel2D)}.
  * 
  * @author Lin DONG
  *
@@ -24,9 +33,114 @@ public class GridEstimator {
 	
 	private int HASH_SIZE = 1000;
 	private float HASH_RATIO = 0.5f;
-	private static final Kernel2D K = new UniformKernel2D();
-	//TODO
-	private int i =0;
+	private static final GridLevel DEFAULT_LEVEL = GridLevel.GRID_0_005;
+	/**
+	 * Points per chunk of the parallel estimation
+	 */
+	public static final int CHUNK_SIZE = 4096;
+	private static final Counter POINTS = Metrics.counter("estimator.points");
+	private static final Counter CANDIDATE_CELLS = Metrics.counter("estimator.candidateCells");
+	private static final Histogram RESULT_CELLS = Metrics.histogram("estimator.resultCells");
+	private static final Histogram MAP_SIZE = Metrics.histogram("estimator.mapSize");
+	private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+		@Override
+		protected Scratch initialValue() {
+			return new Scratch();
+		}
+	};
+	private final Kernel2D kernel;
+	private StencilCache stencilCache = null;
+	private int buckets = 0;
+	private Engine engine = Engine.POINT;
+
+	/**
+	 * How {@link #estimateGrid(Point2D[], double, GridLevel)} fills the grids
+	 */
+	public enum Engine {
+		/**
+		 * Evaluate the footprint of every point (exact, or by stencils), the default
+		 */
+		POINT,
+		/**
+		 * Bin the points and convolve with the kernel by FFT, an approximation, see
+		 * {@link FFTEstimator} for the error
+		 */
+		FFT,
+		/**
+		 * Use FFT when points*footprint is large compared with the raster covering the points.
+		 * POINT is always used for {@link UniformKernel2D} (its hard edge bins worst), when
+		 * stencils are set, or when the footprint is wider than {@link FFTEstimator#MAX_SPAN}
+		 */
+		AUTO
+	}
+
+	/**
+	 * Create an estimator with the uniform kernel
+	 */
+	public GridEstimator() {
+		this(new UniformKernel2D(UniformKernel2D.Method.ANALYTIC));
+	}
+
+	/**
+	 * Create an estimator
+	 * @param kernel the kernel function, such as {@link UniformKernel2D}, {@link TriangularKernel2D} or {@link GaussianKernel2D}
+	 */
+	public GridEstimator(Kernel2D kernel) {
+		if(kernel == null) {
+			throw new InvalidParameterException("Kernel is null.");
+		}
+		this.kernel = kernel;
+	}
+
+	/**
+	 * @return the kernel function
+	 */
+	public Kernel2D getKernel() {
+		return kernel;
+	}
+
+	/**
+	 * Use precomputed {@link KernelStencil}s instead of evaluating the kernel for
+	 * every grid of every point. A point is snapped to the center of one of
+	 * buckets*buckets sub-grids of its home grid, see
+	 * {@link KernelStencil#measureError(Kernel2D, double, GridLevel, int, int)}
+	 * for the error. Call it before estimation.
+	 * 
+	 * @param cache
+	 *            the cache, it can be shared by estimators. If it is null, a new
+	 *            one with the default memory limit will be created
+	 * @param buckets
+	 *            sub-grids per side of a grid, 0 to disable stencils
+	 */
+	public void setStencils(StencilCache cache, int buckets) {
+		if (buckets < 0) {
+			throw new InvalidParameterException("Buckets should not be negative.");
+		}
+		this.buckets = buckets;
+		this.stencilCache = (buckets == 0 ? null : (cache == null ? new StencilCache() : cache));
+	}
+
+	/**
+	 * Choose the engine, the default is {@link Engine#POINT}
+	 * @param engine how to fill the grids, null means {@link Engine#POINT}
+	 */
+	public void setEngine(Engine engine) {
+		this.engine = (engine == null ? Engine.POINT : engine);
+	}
+
+	/**
+	 * @return how to fill the grids
+	 */
+	public Engine getEngine() {
+		return engine;
+	}
+
+	/**
+	 * @return sub-grids per side of a grid for stencils, 0 means stencils are not used
+	 */
+	public int getBuckets() {
+		return buckets;
+	}
 
 	/**
 	 * Calculate expectation in grids
@@ -41,16 +155,13 @@ public class GridEstimator {
 	 * @return the result in a {@link Map}, gridID to expectation
 	 */
 	Map<Long, Double> estimate(Map<Point2D, Double> points, double bandWidth, GridLevel gridLevel) {
-		Map<Long, Double> result = new HashMap<>(HASH_SIZE,HASH_RATIO);
-		System.out.println(result.size());
+		DensityGrid result = new DensityGrid(gridLevel == null ? DEFAULT_LEVEL : gridLevel);
+		KernelStencil[] stencils = stencils(bandWidth, result.getZ());
 		for (Point2D point : points.keySet()) {
-			i++;
-			System.out.println(i+"estimated ");
-			
 			Double n = points.get(point);
-			updateMap(result, point, n, bandWidth, gridLevel);
+			update(result, point.getX(), point.getY(), (n == null ? 1 : n), bandWidth, stencils);
 		}
-		return result.isEmpty() ? null : result;
+		return toMap(result);
 	}
 
 	/**
@@ -65,11 +176,7 @@ public class GridEstimator {
 	 * @return the result in a {@link Map}, gridID to density
 	 */
 	Map<Long, Double> estimate(Collection<Point2D> points, double bandWidth, GridLevel gridLevel) {
-		Map<Long, Double> result = new HashMap<>(HASH_SIZE,HASH_RATIO);
-		for (Point2D point : points) {
-			updateMap(result, point, null, bandWidth, gridLevel);
-		}
-		return result.isEmpty() ? null : result;
+		return toMap(estimateGrid(points, bandWidth, gridLevel));
 	}
 
 	/**
@@ -82,11 +189,7 @@ public class GridEstimator {
 	 * @return the result in a {@link Map}, gridID to density
 	 */
 	Map<Long, Double> estimate(Collection<Point2D> points, double bandWidth) {
-		Map<Long, Double> result = new HashMap<>(HASH_SIZE,HASH_RATIO);
-		for (Point2D point : points) {
-			updateMap(result, point, null, bandWidth, null);
-		}
-		return result.isEmpty() ? null : result;
+		return toMap(estimateGrid(points, bandWidth, null));
 	}
 
 	/**
@@ -101,11 +204,7 @@ public class GridEstimator {
 	 * @return the result in a {@link Map}, gridID to density
 	 */
 	Map<Long, Double> estimate(Point2D[] points, double bandWidth, GridLevel gridLevel) {
-		Map<Long, Double> result = new HashMap<>(HASH_SIZE,HASH_RATIO);
-		for (Point2D point : points) {
-			updateMap(result, point, null, bandWidth, gridLevel);
-		}
-		return result.isEmpty() ? null : result;
+		return toMap(estimateGrid(points, bandWidth, gridLevel));
 	}
 
 	/**
@@ -118,58 +217,750 @@ public class GridEstimator {
 	 * @return the result in a {@link Map}, gridID to density
 	 */
 	Map<Long, Double> estimate(Point2D[] points, double bandWidth) {
-		Map<Long, Double> result = new HashMap<>(HASH_SIZE,HASH_RATIO);
-		for (Point2D point : points) {
-			updateMap(result, point, null, bandWidth, null);
+		return toMap(estimateGrid(points, bandWidth, null));
+	}
+
+	/**
+	 * Estimate the density in grids, the result is kept in primitive tiles.
+	 * 
+	 * @param points
+	 *            points as the input
+	 * @param bandWidth
+	 *            band width, the effective range of the kernel function
+	 * @param gridLevel
+	 *            size of grid, {@link GridLevel}. If it is null,
+	 *            {@link GridLevel#GRID_0_005} will be used
+	 * @return the result, use {@link DensityGrid#forEach(DensityVisitor)} to read it
+	 */
+	public DensityGrid estimateGrid(Collection<Point2D> points, double bandWidth, GridLevel gridLevel) {
+		return estimateGrid(points.toArray(new Point2D[points.size()]), bandWidth, gridLevel);
+	}
+
+	/**
+	 * Estimate the density in grids, the result is kept in primitive tiles.
+	 * 
+	 * @param points
+	 *            points as the input
+	 * @param bandWidth
+	 *            band width, the effective range of the kernel function
+	 * @param gridLevel
+	 *            size of grid, {@link GridLevel}. If it is null,
+	 *            {@link GridLevel#GRID_0_005} will be used
+	 * @return the result, use {@link DensityGrid#forEach(DensityVisitor)} to read it
+	 */
+	public DensityGrid estimateGrid(Point2D[] points, double bandWidth, GridLevel gridLevel) {
+		int n = points.length;
+		double[] xs = new double[n];
+		double[] ys = new double[n];
+		for (int j = 0; j < n; j++) {
+			xs[j] = points[j].getX();
+			ys[j] = points[j].getY();
+		}
+		return estimateGrid(PointBatch.wrap(xs, ys, null, null, n), bandWidth, gridLevel);
+	}
+
+	/**
+	 * Estimate the density in grids from columns of points.
+	 * 
+	 * @param xs
+	 *            x of points
+	 * @param ys
+	 *            y of points
+	 * @param weights
+	 *            weights of points, null means all weights are 1
+	 * @param n
+	 *            number of points to read from the arrays
+	 * @param bandWidth
+	 *            band width, the effective range of the kernel function
+	 * @param gridLevel
+	 *            size of grid, {@link GridLevel}. If it is null,
+	 *            {@link GridLevel#GRID_0_005} will be used
+	 * @return the result
+	 */
+	public DensityGrid estimateGrid(double[] xs, double[] ys, double[] weights, int n, double bandWidth,
+			GridLevel gridLevel) {
+		return estimateGrid(PointBatch.wrap(xs, ys, weights, null, n), bandWidth, gridLevel);
+	}
+
+	/**
+	 * Estimate the density in grids by the chosen {@link Engine}.
+	 * 
+	 * @param points
+	 *            points as the input, weights are used if it has them
+	 * @param bandWidth
+	 *            band width, the effective range of the kernel function
+	 * @param gridLevel
+	 *            size of grid, {@link GridLevel}. If it is null,
+	 *            {@link GridLevel#GRID_0_005} will be used
+	 * @return the result
+	 */
+	public DensityGrid estimateGrid(PointBatch points, double bandWidth, GridLevel gridLevel) {
+		GridLevel level = (gridLevel == null ? DEFAULT_LEVEL : gridLevel);
+		int n = points.size();
+		if (useFFT(points, bandWidth, level)) {
+			DensityGrid result = new FFTEstimator(kernel).estimate(points.xArray(), points.yArray(),
+					points.weightArray(), n, bandWidth, level);
+			if (Metrics.ENABLED) {
+				// binned points, candidate cells are not counted by FFT
+				POINTS.add(n);
+				RESULT_CELLS.record(result.size());
+			}
+			return result;
+		}
+		DensityGrid result = new DensityGrid(level);
+		accumulate(result, points, bandWidth);
+		if (Metrics.ENABLED) {
+			RESULT_CELLS.record(result.size());
+		}
+		return result;
+	}
+
+	/**
+	 * Add the density of a batch of points to a result, so that points can be
+	 * estimated while they are still being read. The footprint of every point is
+	 * evaluated (the FFT engine is not used), and stencils are used if enabled.
+	 * 
+	 * @param result
+	 *            the result, its grid level is used
+	 * @param xs
+	 *            x of points
+	 * @param ys
+	 *            y of points
+	 * @param weights
+	 *            weights of points, null means all weights are 1
+	 * @param n
+	 *            number of points to read from the arrays
+	 * @param bandWidth
+	 *            band width, the effective range of the kernel function
+	 */
+	public void accumulate(DensityGrid result, double[] xs, double[] ys, double[] weights, int n, double bandWidth) {
+		accumulate(result, PointBatch.wrap(xs, ys, weights, null, n), bandWidth);
+	}
+
+	/**
+	 * Add the density of a batch of points to a result, see
+	 * {@link #accumulate(DensityGrid, double[], double[], double[], int, double)}.
+	 * 
+	 * @param result
+	 *            the result, its grid level is used
+	 * @param points
+	 *            points as the input, weights are used if it has them
+	 * @param bandWidth
+	 *            band width, the effective range of the kernel function
+	 */
+	public void accumulate(DensityGrid result, PointBatch points, double bandWidth) {
+		int n = points.size();
+		KernelStencil[] stencils = stencils(bandWidth, result.getZ());
+		for (int j = 0; j < n; j++) {
+			update(result, points.getX(j), points.getY(j), points.getWeight(j), bandWidth, stencils);
+		}
+	}
+
+	/**
+	 * Choose between the per-point and the FFT path
+	 */
+	private boolean useFFT(PointBatch points, double bandWidth, GridLevel level) {
+		int n = points.size();
+		if (engine != Engine.AUTO || n == 0) {
+			return engine == Engine.FFT;
+		}
+		if (buckets > 0 || kernel instanceof UniformKernel2D) {
+			return false;
+		}
+		int z = GridCodec.z(level);
+		int c0 = Integer.MAX_VALUE, c1 = Integer.MIN_VALUE, r0 = Integer.MAX_VALUE, r1 = Integer.MIN_VALUE;
+		for (int j = 0; j < n; j++) {
+			int col = GridCodec.col(points.getX(j), z);
+			int row = GridCodec.row(points.getY(j), z);
+			c0 = Math.min(c0, col);
+			c1 = Math.max(c1, col);
+			r0 = Math.min(r0, row);
+			r1 = Math.max(r1, row);
+		}
+		int span = (int) Math.ceil(2 * kernel.radius(bandWidth) / GridCodec.length(z)) + 1;
+		return FFTEstimator.preferred(n, (long) span * span, (long) c1 - c0 + 1, (long) r1 - r0 + 1, span);
+	}
+
+	/**
+	 * Copy a result into a {@link Map} for the legacy API
+	 * @param grid the result
+	 * @return the result in a {@link Map}, null if it is empty
+	 */
+	private Map<Long, Double> toMap(DensityGrid grid) {
+		if(grid.isEmpty()) {
+			return null;
+		}
+		final Map<Long, Double> result = new HashMap<>((int)Math.max(HASH_SIZE, grid.size()/HASH_RATIO+1), HASH_RATIO);
+		grid.forEach(new DensityVisitor() {
+			@Override
+			public void visit(long gridID, double density) {
+				result.put(gridID, density);
+			}
+		});
+		if (Metrics.ENABLED) {
+			MAP_SIZE.record(result.size());
 		}
 		return result.isEmpty() ? null : result;
 	}
 
 	/**
-	 * Update the result map. If there exists an entry, update the density; if not, create one with the density.
-	 * @param result the result in a {@link Map}, gridID to density
-	 * @param point an input point, density/expectation will be produced with it and filled into grids
-	 * @param value the weight of the point. If it is null then it will be treated as 1
-	 * @param bandWid the result in a {@link Map}, gridID to density
-	 * @param gridLevel  size of grid, {@link GridLevel} 
-	 */
-	private void updateMap(Map<Long, Double> result, Point2D point, Double value, double bandWidth, GridLevel gridLevel) {
-		double weight = (value == null?1:value);
-		double baseX = point.getX();
-		double baseY = point.getY();
-		double x0 = baseX - bandWidth;
-		double x1 = baseX + bandWidth;
-		double y0 = baseY - bandWidth;
-		double y1 = baseY + bandWidth;
-		//Generate possible grids
-		StringBuffer sb = new StringBuffer();
-		sb.append("POLYGON((");
-		sb.append(x0);sb.append(' ');sb.append(y0);sb.append(',');
-		sb.append(x1);sb.append(" ");sb.append(y0);sb.append(',');
-		sb.append(x1);sb.append(" ");sb.append(y1);sb.append(',');
-		sb.append(x0);sb.append(" ");sb.append(y1);sb.append(',');
-		sb.append(x0);sb.append(" ");sb.append(y0);sb.append("))");
-		Geometry polygon = Geometry.CreateFromWkt(sb.toString());
-		Set<Long> grids = VirtualGrid.getGridsFromOgrGeometry(polygon, (gridLevel==null?GridLevel.GRID_0_005:gridLevel));
-		for (Long grid : grids) {
-			Double density = result.get(grid);	
-			//bound: x0 x1 y0 y1
-			double[] bound = Grid.getBound(grid);
-			bound[0]-=baseX;
-			bound[1]-=baseX;
-			bound[2]-=baseY;
-			bound[3]-=baseY;
-			double d = K.k(bound[0], bound[1], bound[2], bound[3], bandWidth);
-			if(d>0) {//grid with value 0 will be ignored
-				d = d*weight;
-				if(density == null) {// not in map, create it
-					density = d;					
-				}else {// in map, add d
-					density = density+d;
+	 * Estimate the density in grids with all cores of the common {@link ForkJoinPool}.
+	 * 
+	 * @param points
+	 *            points as the input
+	 * @param weights
+	 *            weight of each point, null means all weights are 1
+	 * @param bandWidth
+	 *            band width, the effective range of the kernel function
+	 * @param gridLevel
+	 *            size of grid, {@link GridLevel}. If it is null,
+	 *            {@link GridLevel#GRID_0_005} will be used
+	 * @return the result
+	 * @see #estimateParallel(Point2D[], double[], double, GridLevel, ForkJoinPool)
+	 */
+	public DensityGrid estimateParallel(Point2D[] points, double[] weights, double bandWidth, GridLevel gridLevel) {
+		return estimateParallel(points, weights, bandWidth, gridLevel, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Estimate the density in grids in parallel.<br>
+	 * 
+	 * Points are sorted by the tile they lie in and cut into chunks of
+	 * {@value #CHUNK_SIZE} points. Each chunk is estimated into its own
+	 * {@link DensityGrid}, and the partial results are merged pairwise along a
+	 * binary tree over the chunks. Neither the chunks nor the tree depend on the
+	 * number of threads, so the result is the same bit for bit on any pool
+	 * (though it may differ from {@link #estimateGrid(Point2D[], double, GridLevel)}
+	 * in the last bits, since the additions happen in another order).<br>
+	 * 
+	 * This method does not change the state of the estimator, one instance can
+	 * serve many threads.
+	 * 
+	 * @param points
+	 *            points as the input
+	 * @param weights
+	 *            weight of each point, null means all weights are 1
+	 * @param bandWidth
+	 *            band width, the effective range of the kernel function
+	 * @param gridLevel
+	 *            size of grid, {@link GridLevel}. If it is null,
+	 *            {@link GridLevel#GRID_0_005} will be used
+	 * @param pool
+	 *            the pool to run on
+	 * @return the result
+	 */
+	public DensityGrid estimateParallel(Point2D[] points, double[] weights, double bandWidth, GridLevel gridLevel,
+			ForkJoinPool pool) {
+		if (weights != null && weights.length != points.length) {
+			throw new InvalidParameterException("Lengths of points and weights differ.");
+		}
+		int n = points.length;
+		double[] xs = new double[n];
+		double[] ys = new double[n];
+		for (int j = 0; j < n; j++) {
+			xs[j] = points[j].getX();
+			ys[j] = points[j].getY();
+		}
+		return estimateParallel(PointBatch.wrap(xs, ys, weights, null, n), bandWidth, gridLevel, pool);
+	}
+
+	/**
+	 * Estimate the density in grids with all cores of the common {@link ForkJoinPool}.
+	 * 
+	 * @param points
+	 *            points as the input, weights are used if it has them
+	 * @param bandWidth
+	 *            band width, the effective range of the kernel function
+	 * @param gridLevel
+	 *            size of grid, {@link GridLevel}. If it is null,
+	 *            {@link GridLevel#GRID_0_005} will be used
+	 * @return the result
+	 * @see #estimateParallel(Point2D[], double[], double, GridLevel, ForkJoinPool)
+	 */
+	public DensityGrid estimateParallel(PointBatch points, double bandWidth, GridLevel gridLevel) {
+		return estimateParallel(points, bandWidth, gridLevel, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Estimate the density in grids in parallel, see
+	 * {@link #estimateParallel(Point2D[], double[], double, GridLevel, ForkJoinPool)}.
+	 * 
+	 * @param points
+	 *            points as the input, weights are used if it has them. It should
+	 *            not be changed during the estimation
+	 * @param bandWidth
+	 *            band width, the effective range of the kernel function
+	 * @param gridLevel
+	 *            size of grid, {@link GridLevel}. If it is null,
+	 *            {@link GridLevel#GRID_0_005} will be used
+	 * @param pool
+	 *            the pool to run on
+	 * @return the result
+	 */
+	public DensityGrid estimateParallel(PointBatch points, double bandWidth, GridLevel gridLevel, ForkJoinPool pool) {
+		GridLevel level = (gridLevel == null ? DEFAULT_LEVEL : gridLevel);
+		if (points.size() == 0) {
+			return new DensityGrid(level);
+		}
+		int[] order = spatialOrder(points, level);
+		int chunks = (points.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		KernelStencil[] stencils = stencils(bandWidth, GridCodec.z(level));
+		DensityGrid result = pool.invoke(
+				new EstimateTask(points, order, bandWidth, stencils, null, level, 0, chunks));
+		if (Metrics.ENABLED) {
+			RESULT_CELLS.record(result.size());
+		}
+		return result;
+	}
+
+	/**
+	 * Estimate the density in grids with a band width per point, with all cores
+	 * of the common {@link ForkJoinPool}.
+	 * 
+	 * @param points
+	 *            points as the input, weights are used if it has them
+	 * @param adaptive
+	 *            how to get the band width of each point
+	 * @param gridLevel
+	 *            size of grid, {@link GridLevel}. If it is null,
+	 *            {@link GridLevel#GRID_0_005} will be used
+	 * @return the result
+	 * @see #estimateAdaptive(PointBatch, double[], GridLevel, ForkJoinPool)
+	 */
+	public DensityGrid estimateAdaptive(PointBatch points, AdaptiveBandwidth adaptive, GridLevel gridLevel) {
+		return estimateAdaptive(points, adaptive.bandWidths(points), gridLevel, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Estimate the density in grids with a band width per point, with all cores
+	 * of the common {@link ForkJoinPool}.
+	 * 
+	 * @param points
+	 *            points as the input, weights are used if it has them
+	 * @param bandWidths
+	 *            band width of each point, see {@link AdaptiveBandwidth}
+	 * @param gridLevel
+	 *            size of grid, {@link GridLevel}. If it is null,
+	 *            {@link GridLevel#GRID_0_005} will be used
+	 * @return the result
+	 * @see #estimateAdaptive(PointBatch, double[], GridLevel, ForkJoinPool)
+	 */
+	public DensityGrid estimateAdaptive(PointBatch points, double[] bandWidths, GridLevel gridLevel) {
+		return estimateAdaptive(points, bandWidths, gridLevel, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Estimate the density in grids with a band width per point, in parallel as
+	 * {@link #estimateParallel(PointBatch, double, GridLevel, ForkJoinPool)}. The
+	 * footprint of every point is evaluated: neither the FFT engine nor stencils
+	 * are used, since both need one band width.
+	 * 
+	 * @param points
+	 *            points as the input, weights are used if it has them. It should
+	 *            not be changed during the estimation
+	 * @param bandWidths
+	 *            band width of each point, see {@link AdaptiveBandwidth}
+	 * @param gridLevel
+	 *            size of grid, {@link GridLevel}. If it is null,
+	 *            {@link GridLevel#GRID_0_005} will be used
+	 * @param pool
+	 *            the pool to run on
+	 * @return the result
+	 */
+	public DensityGrid estimateAdaptive(PointBatch points, double[] bandWidths, GridLevel gridLevel,
+			ForkJoinPool pool) {
+		checkBandWidths(points, bandWidths);
+		GridLevel level = (gridLevel == null ? DEFAULT_LEVEL : gridLevel);
+		if (points.size() == 0) {
+			return new DensityGrid(level);
+		}
+		int[] order = spatialOrder(points, level);
+		int chunks = (points.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		DensityGrid result = pool.invoke(new EstimateTask(points, order, 0, null, bandWidths, level, 0, chunks));
+		if (Metrics.ENABLED) {
+			RESULT_CELLS.record(result.size());
+		}
+		return result;
+	}
+
+	/**
+	 * Add the density of a batch of points with a band width per point to a
+	 * result, see {@link #estimateAdaptive(PointBatch, double[], GridLevel, ForkJoinPool)}.
+	 * 
+	 * @param result
+	 *            the result, its grid level is used
+	 * @param points
+	 *            points as the input, weights are used if it has them
+	 * @param bandWidths
+	 *            band width of each point
+	 */
+	public void accumulate(DensityGrid result, PointBatch points, double[] bandWidths) {
+		checkBandWidths(points, bandWidths);
+		int n = points.size();
+		for (int j = 0; j < n; j++) {
+			update(result, points.getX(j), points.getY(j), points.getWeight(j), bandWidths[j], null);
+		}
+	}
+
+	private static void checkBandWidths(PointBatch points, double[] bandWidths) {
+		if (bandWidths == null || bandWidths.length < points.size()) {
+			throw new InvalidParameterException("A band width is needed for every point.");
+		}
+		for (int j = points.size() - 1; j >= 0; j--) {
+			if (!(bandWidths[j] > 0) || Double.isInfinite(bandWidths[j])) {
+				throw new InvalidParameterException("Band width should be positive and finite.");
+			}
+		}
+	}
+
+	/**
+	 * Sort points by (tile, index), tile is the {@link DensityGrid} tile the
+	 * point lies in. Points of a chunk then touch only a few tiles.
+	 */
+	private static int[] spatialOrder(PointBatch points, GridLevel level) {
+		int n = points.size();
+		int z = GridCodec.z(level);
+		int bits = DensityGrid.DEFAULT_TILE_BITS;
+		long[] keys = new long[n];
+		for (int j = 0; j < n; j++) {
+			int tileCol = GridCodec.col(points.getX(j), z) >> bits;
+			int tileRow = GridCodec.row(points.getY(j), z) >> bits;
+			long tile = ((tileRow & 0xFFFFL) << 16) | (tileCol & 0xFFFFL);
+			keys[j] = (tile << 32) | j;
+		}
+		Arrays.parallelSort(keys);
+		int[] order = new int[n];
+		for (int j = 0; j < n; j++) {
+			order[j] = (int) keys[j];
+		}
+		return order;
+	}
+
+	/**
+	 * Estimate chunks [from, to), split into halves until one chunk is left.
+	 */
+	private class EstimateTask extends RecursiveTask<DensityGrid> {
+		private static final long serialVersionUID = 1L;
+		private final PointBatch points;
+		private final int[] order;
+		private final double bandWidth;
+		private final KernelStencil[] stencils;
+		private final double[] bandWidths;
+		private final GridLevel level;
+		private final int from, to;
+
+		EstimateTask(PointBatch points, int[] order, double bandWidth, KernelStencil[] stencils,
+				double[] bandWidths, GridLevel level, int from, int to) {
+			this.points = points;
+			this.order = order;
+			this.bandWidth = bandWidth;
+			this.stencils = stencils;
+			this.bandWidths = bandWidths;
+			this.level = level;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected DensityGrid compute() {
+			if (to - from == 1) {
+				DensityGrid result = new DensityGrid(level);
+				int end = Math.min(order.length, to * CHUNK_SIZE);
+				for (int j = from * CHUNK_SIZE; j < end; j++) {
+					int index = order[j];
+					if (bandWidths == null) {
+						update(result, points.getX(index), points.getY(index), points.getWeight(index), bandWidth,
+								stencils);
+					} else {
+						update(result, points.getX(index), points.getY(index), points.getWeight(index),
+								bandWidths[index], null);
+					}
+				}
+				return result;
+			}
+			int mid = (from + to) >>> 1;
+			EstimateTask left = new EstimateTask(points, order, bandWidth, stencils, bandWidths, level, from, mid);
+			EstimateTask right = new EstimateTask(points, order, bandWidth, stencils, bandWidths, level, mid, to);
+			left.fork();
+			DensityGrid r = right.compute();
+			DensityGrid l = left.join();
+			l.merge(r);
+			return l;
+		}
+	}
+
+	/**
+	 * Estimate the density of many channels (kinds) in one pass. A point belongs
+	 * to the channels whose ranges contain its kind, its footprint is evaluated
+	 * once and added to all of them, so the cost grows with the points rather
+	 * than points*channels.
+	 * 
+	 * @param xs
+	 *            x of points
+	 * @param ys
+	 *            y of points
+	 * @param weights
+	 *            weights of points, null means all weights are 1
+	 * @param kinds
+	 *            kind codes of points
+	 * @param n
+	 *            number of points to read from the arrays
+	 * @param channels
+	 *            channels as ranges of kinds
+	 * @param bandWidth
+	 *            band width, the effective range of the kernel function
+	 * @param gridLevel
+	 *            size of grid, {@link GridLevel}. If it is null,
+	 *            {@link GridLevel#GRID_0_005} will be used
+	 * @return the result, one {@link DensityGrid} per channel
+	 */
+	public MultiDensityGrid estimateChannels(double[] xs, double[] ys, double[] weights, int[] kinds, int n,
+			ChannelRanges channels, double bandWidth, GridLevel gridLevel) {
+		return estimateChannels(PointBatch.wrap(xs, ys, weights, kinds, n), channels, bandWidth, gridLevel);
+	}
+
+	/**
+	 * Estimate the density of many channels (kinds) in one pass, see
+	 * {@link #estimateChannels(double[], double[], double[], int[], int, ChannelRanges, double, GridLevel)}.
+	 * 
+	 * @param points
+	 *            points with kinds, weights are used if it has them
+	 * @param channels
+	 *            channels as ranges of kinds
+	 * @param bandWidth
+	 *            band width, the effective range of the kernel function
+	 * @param gridLevel
+	 *            size of grid, {@link GridLevel}. If it is null,
+	 *            {@link GridLevel#GRID_0_005} will be used
+	 * @return the result, one {@link DensityGrid} per channel
+	 */
+	public MultiDensityGrid estimateChannels(PointBatch points, ChannelRanges channels, double bandWidth,
+			GridLevel gridLevel) {
+		if (!points.hasKinds()) {
+			throw new InvalidParameterException("Points have no kinds.");
+		}
+		int n = points.size();
+		MultiDensityGrid result = new MultiDensityGrid(gridLevel == null ? DEFAULT_LEVEL : gridLevel,
+				channels.size());
+		int z = result.getZ();
+		double length = GridCodec.length(z);
+		KernelStencil[] stencils = stencils(bandWidth, z);
+		Footprint footprint = new Footprint();
+		for (int j = 0; j < n; j++) {
+			int[] cs = channels.channelsOf(points.getKind(j));
+			if (cs.length == 0) {
+				continue;
+			}
+			double weight = points.getWeight(j);
+			double x = points.getX(j);
+			double y = points.getY(j);
+			if (stencils != null) {
+				int col = GridCodec.col(x, z);
+				int row = GridCodec.row(y, z);
+				int bx = KernelStencil.bucket((x - GridCodec.x0(col, z)) / length, buckets);
+				int by = KernelStencil.bucket((y - GridCodec.y0(row, z)) / length, buckets);
+				KernelStencil stencil = stencils[by * buckets + bx];
+				for (int c : cs) {
+					stencil.addTo(result.getChannel(c), col, row, weight);
+				}
+				continue;
+			}
+			footprint.compute(z, x, y, bandWidth);
+			for (int c : cs) {
+				footprint.addTo(result.getChannel(c), weight);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Buffers of {@link GridEstimator#updateSeparable}, one per thread and grown
+	 * on demand like {@link Footprint}, so that no array is allocated per point.
+	 */
+	private static final class Scratch {
+		private double[] px = new double[16];
+		private double[] py = new double[16];
+
+		double[] px(int width) {
+			if (px.length < width) {
+				px = new double[Math.max(2 * px.length, width)];
+			}
+			return px;
+		}
+
+		double[] py(int height) {
+			if (py.length < height) {
+				py = new double[Math.max(2 * py.length, height)];
+			}
+			return py;
+		}
+	}
+
+	/**
+	 * Probabilities of the grids around a point, the buffer is reused between
+	 * points.
+	 */
+	private class Footprint {
+		private int c0, r0, width, height;
+		private double[] weights = new double[256];
+		private double[] px = new double[16];
+		private double[] py = new double[16];
+
+		void compute(int z, double baseX, double baseY, double bandWidth) {
+			double radius = kernel.radius(bandWidth);
+			c0 = GridCodec.col(baseX - radius, z);
+			r0 = GridCodec.row(baseY - radius, z);
+			width = GridCodec.col(baseX + radius, z) - c0 + 1;
+			height = GridCodec.row(baseY + radius, z) - r0 + 1;
+			if (weights.length < width * height) {
+				weights = new double[width * height];
+			}
+			if (kernel instanceof SeparableKernel2D) {
+				Kernel k1 = ((SeparableKernel2D) kernel).getKernel();
+				if (px.length < width || py.length < height) {
+					px = new double[Math.max(px.length, width)];
+					py = new double[Math.max(py.length, height)];
+				}
+				for (int c = 0; c < width; c++) {
+					px[c] = k1.k(GridCodec.x0(c0 + c, z) - baseX, GridCodec.x0(c0 + c + 1, z) - baseX, bandWidth);
+				}
+				for (int r = 0; r < height; r++) {
+					py[r] = k1.k(GridCodec.y0(r0 + r, z) - baseY, GridCodec.y0(r0 + r + 1, z) - baseY, bandWidth);
+				}
+				for (int r = 0; r < height; r++) {
+					for (int c = 0; c < width; c++) {
+						weights[r * width + c] = px[c] * py[r];
+					}
+				}
+				return;
+			}
+			for (int r = 0; r < height; r++) {
+				double y0 = GridCodec.y0(r0 + r, z) - baseY;
+				double y1 = GridCodec.y0(r0 + r + 1, z) - baseY;
+				for (int c = 0; c < width; c++) {
+					weights[r * width + c] = kernel.k(GridCodec.x0(c0 + c, z) - baseX,
+							GridCodec.x0(c0 + c + 1, z) - baseX, y0, y1, bandWidth);
+				}
+			}
+		}
+
+		void addTo(DensityGrid result, double weight) {
+			for (int r = 0; r < height; r++) {
+				for (int c = 0; c < width; c++) {
+					double d = weights[r * width + c];
+					if (d > 0) {
+						result.add(c0 + c, r0 + r, d * weight);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Look up the stencils of every sub-grid for one estimation, so that points
+	 * read a local array instead of locking the shared {@link StencilCache}. The
+	 * cache keeps them across estimations.
+	 * @param bandWidth band width
+	 * @param z z part of grid ID
+	 * @return stencils indexed by by*buckets+bx, null if stencils are not used
+	 */
+	private KernelStencil[] stencils(double bandWidth, int z) {
+		if (buckets == 0) {
+			return null;
+		}
+		KernelStencil[] stencils = new KernelStencil[buckets * buckets];
+		for (int by = 0; by < buckets; by++) {
+			for (int bx = 0; bx < buckets; bx++) {
+				stencils[by * buckets + bx] = stencilCache.get(kernel, bandWidth, z, buckets, bx, by);
+			}
+		}
+		return stencils;
+	}
+
+	/**
+	 * Update the result. Density will be added to the grids around the point.
+	 * @param result the result, its grid level is used
+	 * @param baseX x of an input point, density/expectation will be produced with it and filled into grids
+	 * @param baseY y of the input point
+	 * @param weight the weight of the point
+	 * @param bandWidth band width, the effective range of the kernel function
+	 * @param stencils stencils of the band width from {@link #stencils(double, int)}, null to evaluate
+	 * the kernel. Band widths that change per point should not use stencils, every distinct band width
+	 * would fill the stencil cache
+	 */
+	private void update(DensityGrid result, double baseX, double baseY, double weight, double bandWidth,
+			KernelStencil[] stencils) {
+		int z = result.getZ();
+		if (Metrics.ENABLED) {
+			POINTS.increment();
+		}
+		if (stencils != null) {
+			int col = GridCodec.col(baseX, z);
+			int row = GridCodec.row(baseY, z);
+			double length = GridCodec.length(z);
+			int bx = KernelStencil.bucket((baseX - GridCodec.x0(col, z)) / length, buckets);
+			int by = KernelStencil.bucket((baseY - GridCodec.y0(row, z)) / length, buckets);
+			stencils[by * buckets + bx].addTo(result, col, row, weight);
+			return;
+		}
+		double radius = kernel.radius(bandWidth);
+		//possible grids
+		int c0 = GridCodec.col(baseX - radius, z);
+		int c1 = GridCodec.col(baseX + radius, z);
+		int r0 = GridCodec.row(baseY - radius, z);
+		int r1 = GridCodec.row(baseY + radius, z);
+		if (Metrics.ENABLED) {
+			CANDIDATE_CELLS.add((long) (c1 - c0 + 1) * (r1 - r0 + 1));
+		}
+		if (kernel instanceof SeparableKernel2D) {
+			updateSeparable(result, baseX, baseY, weight, bandWidth, c0, c1, r0, r1);
+			return;
+		}
+		for (int row = r0; row <= r1; row++) {
+			//bound relative to the point: x0 x1 y0 y1
+			double y0 = GridCodec.y0(row, z) - baseY;
+			double y1 = GridCodec.y0(row + 1, z) - baseY;
+			double x1 = GridCodec.x0(c0, z) - baseX;
+			for (int col = c0; col <= c1; col++) {
+				double x0 = x1;
+				x1 = GridCodec.x0(col + 1, z) - baseX;
+				double d = kernel.k(x0, x1, y0, y1, bandWidth);
+				if(d>0) {//grid with value 0 will be ignored
+					result.add(col, row, d*weight);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Update the result with a {@link SeparableKernel2D}: the probability of a grid is px[col]*py[row],
+	 * so the 1D kernel is evaluated once per column and once per row, not per grid.
+	 */
+	private void updateSeparable(DensityGrid result, double baseX, double baseY, double weight, double bandWidth,
+			int c0, int c1, int r0, int r1) {
+		Kernel k1 = ((SeparableKernel2D) kernel).getKernel();
+		int z = result.getZ();
+		Scratch scratch = SCRATCH.get();
+		double[] px = scratch.px(c1 - c0 + 1);
+		double[] py = scratch.py(r1 - r0 + 1);
+		for (int col = c0; col <= c1; col++) {
+			px[col - c0] = k1.k(GridCodec.x0(col, z) - baseX, GridCodec.x0(col + 1, z) - baseX, bandWidth);
+		}
+		for (int row = r0; row <= r1; row++) {
+			py[row - r0] = k1.k(GridCodec.y0(row, z) - baseY, GridCodec.y0(row + 1, z) - baseY, bandWidth);
+		}
+		for (int row = r0; row <= r1; row++) {
+			double wy = py[row - r0];
+			if (wy <= 0) {
+				continue;
+			}
+			for (int col = c0; col <= c1; col++) {
+				//test the probability before weighting, like the grid by grid way
+				double d = px[col - c0] * wy;
+				if (d > 0) {
+					result.add(col, row, d * weight);
 				}
-				//writeback
-				result.put(grid, density);
-			}			
+			}
 		}
 	}	
 	
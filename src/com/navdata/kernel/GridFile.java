@@ -0,0 +1,492 @@
+package com.navdata.kernel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.navdata.grid.GridCodec;
+import com.navinfo.grid.GridLevel;
+
+/**
+ * A read-only file of densities or classes of one grid level, for reading a
+ * city back without scanning the density table.<br>
+ *
+ * Grid IDs are sorted and stored in a column, followed by a column of values:
+ * float densities, or byte classes of {@link Breakpoints} (0 means empty). The
+ * columns are split into blocks of {@link #DEFAULT_BLOCK_SIZE} grids, and a
+ * directory at the end of the file keeps the range of columns and rows and
+ * the min and max value of every block. The file is memory-mapped when it is
+ * opened, a point lookup is a binary search over the ID column and a bbox
+ * query reads only the blocks which intersect the bbox, nothing else is
+ * deserialized. All numbers are little-endian.
+ *
+ * <pre>
+ * header     64 bytes: magic, version, z, value type, count, block size,
+ *            block count, directory offset, min, max
+ * grid IDs   long[count], ascending
+ * values     float[count] or byte[count]
+ * directory  per block: first ID, last ID, min col, max col, min row,
+ *            max row, min value, max value (40 bytes), 8-byte aligned
+ * </pre>
+ *
+ * A file has at most {@link #MAX_COUNT} grids. Instances are thread-safe.
+ *
+ * @author Lin DONG
+ *
+ */
+public class GridFile implements AutoCloseable {
+	/**
+	 * Default grids per block
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 4096;
+	/**
+	 * Max number of grids, so that a column can be mapped at once
+	 */
+	public static final int MAX_COUNT = 1 << 28;
+
+	private static final int MAGIC = 0x4E444746; // NDGF
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 64;
+	private static final int BLOCK_ENTRY_SIZE = 40;
+	private static final int TYPE_FLOAT = 0;
+	private static final int TYPE_BYTE = 1;
+
+	private final RandomAccessFile file;
+	private final int z;
+	private final boolean classes;
+	private final int count;
+	private final int blockSize;
+	private final int blockCount;
+	private final float min, max;
+	private final LongBuffer ids;
+	private final FloatBuffer floats;
+	private final ByteBuffer bytes;
+	private final ByteBuffer directory;
+
+	private GridFile(File path) throws IOException {
+		file = new RandomAccessFile(path, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE)
+					.order(ByteOrder.LITTLE_ENDIAN);
+			if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+				throw new IOException("Not a grid file: " + path);
+			}
+			z = header.getInt(8);
+			classes = (header.getInt(12) == TYPE_BYTE);
+			long n = header.getLong(16);
+			if (n < 0 || n > MAX_COUNT || !GridCodec.checkZ(z)) {
+				throw new IOException("Corrupted grid file: " + path);
+			}
+			count = (int) n;
+			blockSize = header.getInt(24);
+			blockCount = header.getInt(28);
+			long directoryOffset = header.getLong(32);
+			min = header.getFloat(40);
+			max = header.getFloat(44);
+			ids = map(channel, HEADER_SIZE, 8L * count).asLongBuffer();
+			ByteBuffer values = map(channel, HEADER_SIZE + 8L * count, (classes ? 1L : 4L) * count);
+			floats = (classes ? null : values.asFloatBuffer());
+			bytes = (classes ? values : null);
+			directory = map(channel, directoryOffset, (long) BLOCK_ENTRY_SIZE * blockCount);
+		} catch (IOException | RuntimeException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	private static ByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+		return channel.map(FileChannel.MapMode.READ_ONLY, position, size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Open a file
+	 *
+	 * @param path
+	 *            the file
+	 * @return the reader
+	 * @throws IOException
+	 *             if it is not a grid file
+	 */
+	public static GridFile open(File path) throws IOException {
+		return new GridFile(path);
+	}
+
+	/**
+	 * Write densities
+	 *
+	 * @param path
+	 *            the file, replaced if it exists
+	 * @param density
+	 *            the densities
+	 * @throws IOException
+	 *             on failure of the file
+	 */
+	public static void write(File path, DensityGrid density) throws IOException {
+		write(path, density, null, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Write classes of densities, or densities
+	 *
+	 * @param path
+	 *            the file, replaced if it exists
+	 * @param density
+	 *            the densities
+	 * @param breakpoints
+	 *            classify densities with it, null to write densities
+	 * @param blockSize
+	 *            grids per block
+	 * @throws IOException
+	 *             on failure of the file
+	 */
+	public static void write(File path, DensityGrid density, Breakpoints breakpoints, int blockSize)
+			throws IOException {
+		if (blockSize < 1) {
+			throw new InvalidParameterException("Block size should be positive.");
+		}
+		long size = density.size();
+		if (size > MAX_COUNT) {
+			throw new InvalidParameterException("Too many grids: " + size);
+		}
+		int n = (int) size;
+		long[] sorted = new long[n];
+		DensityGrid.Cursor cursor = density.cursor();
+		for (int i = 0; cursor.next(); i++) {
+			sorted[i] = cursor.gridID();
+		}
+		Arrays.sort(sorted);
+		boolean classes = (breakpoints != null);
+		float[] values = new float[n];
+		for (int i = 0; i < n; i++) {
+			double d = density.get(sorted[i]);
+			values[i] = (classes ? breakpoints.index(d) : (float) d);
+		}
+		int blockCount = (n + blockSize - 1) / blockSize;
+		long directoryOffset = (HEADER_SIZE + 8L * n + (classes ? 1L : 4L) * n + 7) / 8 * 8;
+		float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+		ByteBuffer blocks = ByteBuffer.allocate(BLOCK_ENTRY_SIZE * blockCount).order(ByteOrder.LITTLE_ENDIAN);
+		for (int b = 0; b < blockCount; b++) {
+			int from = b * blockSize;
+			int to = Math.min(n, from + blockSize);
+			int c0 = Integer.MAX_VALUE, c1 = Integer.MIN_VALUE, r0 = Integer.MAX_VALUE, r1 = Integer.MIN_VALUE;
+			float v0 = Float.POSITIVE_INFINITY, v1 = Float.NEGATIVE_INFINITY;
+			for (int i = from; i < to; i++) {
+				int col = GridCodec.col(sorted[i]);
+				int row = GridCodec.row(sorted[i]);
+				c0 = Math.min(c0, col);
+				c1 = Math.max(c1, col);
+				r0 = Math.min(r0, row);
+				r1 = Math.max(r1, row);
+				v0 = Math.min(v0, values[i]);
+				v1 = Math.max(v1, values[i]);
+			}
+			blocks.putLong(sorted[from]).putLong(sorted[to - 1]);
+			blocks.putInt(c0).putInt(c1).putInt(r0).putInt(r1);
+			blocks.putFloat(v0).putFloat(v1);
+			min = Math.min(min, v0);
+			max = Math.max(max, v1);
+		}
+		path.delete();
+		try (RandomAccessFile raf = new RandomAccessFile(path, "rw"); FileChannel channel = raf.getChannel()) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putInt(density.getZ()).putInt(classes ? TYPE_BYTE : TYPE_FLOAT);
+			header.putLong(n).putInt(blockSize).putInt(blockCount).putLong(directoryOffset);
+			header.putFloat(n == 0 ? 0 : min).putFloat(n == 0 ? 0 : max);
+			header.clear();
+			channel.write(header, 0);
+			ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+			long position = HEADER_SIZE;
+			for (int i = 0; i < n; i++) {
+				if (buffer.remaining() < 8) {
+					position += flush(channel, buffer, position);
+				}
+				buffer.putLong(sorted[i]);
+			}
+			for (int i = 0; i < n; i++) {
+				if (buffer.remaining() < 4) {
+					position += flush(channel, buffer, position);
+				}
+				if (classes) {
+					buffer.put((byte) values[i]);
+				} else {
+					buffer.putFloat(values[i]);
+				}
+			}
+			flush(channel, buffer, position);
+			blocks.flip();
+			channel.write(blocks, directoryOffset);
+		}
+	}
+
+	private static int flush(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		buffer.flip();
+		int size = buffer.remaining();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, position + size - buffer.remaining());
+		}
+		buffer.clear();
+		return size;
+	}
+
+	/**
+	 * @return z part of grid IDs
+	 */
+	public int getZ() {
+		return z;
+	}
+
+	/**
+	 * @return size of grid, null if no {@link GridLevel} has the length
+	 */
+	public GridLevel getGridLevel() {
+		for (GridLevel level : GridLevel.values()) {
+			try {
+				if (GridCodec.z(level) == z) {
+					return level;
+				}
+			} catch (InvalidParameterException e) {
+				// not supported by GridCodec
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return true if values are classes, false if they are densities
+	 */
+	public boolean isClasses() {
+		return classes;
+	}
+
+	/**
+	 * @return number of grids
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return number of blocks
+	 */
+	public int blockCount() {
+		return blockCount;
+	}
+
+	/**
+	 * @return min value
+	 */
+	public double getMin() {
+		return min;
+	}
+
+	/**
+	 * @return max value
+	 */
+	public double getMax() {
+		return max;
+	}
+
+	/**
+	 * @param i
+	 *            position in the columns
+	 * @return value at the position
+	 */
+	private double value(int i) {
+		return classes ? (bytes.get(i) & 0xFF) : floats.get(i);
+	}
+
+	/**
+	 * Find a grid
+	 *
+	 * @param gridID
+	 *            ID of the grid
+	 * @return position of the grid in the columns, -1 if it is not in the file
+	 */
+	public int indexOf(long gridID) {
+		int lo = 0, hi = count - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			long id = ids.get(mid);
+			if (id < gridID) {
+				lo = mid + 1;
+			} else if (id > gridID) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Get value of a grid
+	 *
+	 * @param gridID
+	 *            ID of the grid
+	 * @return density or class, 0 if it is not in the file
+	 */
+	public double get(long gridID) {
+		int i = indexOf(gridID);
+		return i < 0 ? 0 : value(i);
+	}
+
+	/**
+	 * Visit grids in a bbox
+	 *
+	 * @param x0
+	 *            min longitude
+	 * @param y0
+	 *            min latitude
+	 * @param x1
+	 *            max longitude
+	 * @param y1
+	 *            max latitude
+	 * @param visitor
+	 *            the visitor, grids are visited in the order of IDs
+	 * @return number of grids visited
+	 */
+	public long query(double x0, double y0, double x1, double y1, DensityVisitor visitor) {
+		return query(x0, y0, x1, y1, Double.NEGATIVE_INFINITY, visitor);
+	}
+
+	/**
+	 * Visit grids in a bbox whose values are at least minValue, blocks whose max
+	 * value is below minValue are skipped
+	 *
+	 * @param x0
+	 *            min longitude
+	 * @param y0
+	 *            min latitude
+	 * @param x1
+	 *            max longitude
+	 * @param y1
+	 *            max latitude
+	 * @param minValue
+	 *            min density or class
+	 * @param visitor
+	 *            the visitor, grids are visited in the order of IDs
+	 * @return number of grids visited
+	 */
+	public long query(double x0, double y0, double x1, double y1, double minValue, DensityVisitor visitor) {
+		int c0 = GridCodec.col(x0, z), c1 = GridCodec.col(x1, z);
+		int r0 = GridCodec.row(y0, z), r1 = GridCodec.row(y1, z);
+		long visited = 0;
+		for (int b = 0; b < blockCount; b++) {
+			int base = b * BLOCK_ENTRY_SIZE;
+			if (directory.getInt(base + 16) > c1 || directory.getInt(base + 20) < c0
+					|| directory.getInt(base + 24) > r1 || directory.getInt(base + 28) < r0
+					|| directory.getFloat(base + 36) < minValue) {
+				continue;
+			}
+			int to = Math.min(count, (b + 1) * blockSize);
+			for (int i = b * blockSize; i < to; i++) {
+				long id = ids.get(i);
+				int col = GridCodec.col(id);
+				int row = GridCodec.row(id);
+				double v = value(i);
+				if (col >= c0 && col <= c1 && row >= r0 && row <= r1 && v >= minValue) {
+					visitor.visit(id, v);
+					visited++;
+				}
+			}
+		}
+		return visited;
+	}
+
+	/**
+	 * Read grids in a bbox, for {@link com.navdata.gdalutils.Rasterizer}
+	 *
+	 * @param x0
+	 *            min longitude
+	 * @param y0
+	 *            min latitude
+	 * @param x1
+	 *            max longitude
+	 * @param y1
+	 *            max latitude
+	 * @return values of the grids as densities
+	 */
+	public DensityGrid read(double x0, double y0, double x1, double y1) {
+		final DensityGrid result = new DensityGrid(getGridLevel());
+		query(x0, y0, x1, y1, new DensityVisitor() {
+			@Override
+			public void visit(long gridID, double density) {
+				result.add(gridID, density);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Read all grids
+	 *
+	 * @return values of the grids as densities
+	 */
+	public DensityGrid toDensityGrid() {
+		DensityGrid result = new DensityGrid(getGridLevel());
+		for (int i = 0; i < count; i++) {
+			result.add(ids.get(i), value(i));
+		}
+		return result;
+	}
+
+	/**
+	 * Read all values, such as for {@link Classifier100#fit(double...)}
+	 *
+	 * @return values in the order of IDs
+	 */
+	public double[] values() {
+		double[] result = new double[count];
+		for (int i = 0; i < count; i++) {
+			result[i] = value(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Close the file, the mapping is released when it is collected
+	 */
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/**
+	 * Write a random result and read it back
+	 */
+	public static void main(String[] args) throws Exception {
+		Random random = new Random(0);
+		PointBatch points = PointBatch.allocate(20000, false, false);
+		for (int i = 0; i < 20000; i++) {
+			points.add(116 + 0.5 * random.nextDouble(), 39 + 0.5 * random.nextDouble());
+		}
+		DensityGrid density = new GridEstimator().estimateParallel(points, 0.01, GridLevel.GRID_0_001);
+		File path = File.createTempFile("density", ".grid");
+		write(path, density);
+		try (GridFile grids = open(path)) {
+			long t0 = System.nanoTime();
+			final double[] sum = { 0 };
+			long n = grids.query(116.1, 39.1, 116.2, 39.2, new DensityVisitor() {
+				@Override
+				public void visit(long gridID, double d) {
+					sum[0] += d;
+				}
+			});
+			long t1 = System.nanoTime();
+			long id = GridCodec.encode(116.15, 39.15, grids.getZ());
+			System.out.println(grids.size() + " grids in " + grids.blockCount() + " blocks, " + path.length()
+					+ " bytes, bbox: " + n + " grids (total " + sum[0] + ") in " + (t1 - t0) / 1e6 + "ms, "
+					+ id + " = " + grids.get(id) + " (" + density.get(id) + ")");
+		}
+		path.delete();
+	}
+}
@@ -0,0 +1,345 @@
+package com.navdata.kernel;
+
+import java.security.InvalidParameterException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A static 2D tree of points for k nearest neighbour queries.<br>
+ *
+ * The tree is bulk-loaded once and has no node objects: points are reordered
+ * in place so that every range [lo, hi) is a subtree whose root is the median
+ * mid = (lo + hi) / 2, split on the axis in which the range is wider. Ranges of
+ * at most {@value #LEAF_SIZE} points are scanned. Coordinates are kept in
+ * primitive arrays, so a tree of n points takes about 21n bytes.<br>
+ *
+ * Queries do not change the tree, it can be shared by threads.
+ *
+ * @author Lin DONG
+ *
+ */
+public final class KDTree {
+	/**
+	 * Max points of a leaf
+	 */
+	public static final int LEAF_SIZE = 8;
+	/**
+	 * Points per task of {@link #kthDistances(int, ForkJoinPool)}
+	 */
+	private static final int CHUNK_SIZE = 4096;
+
+	private final double[] xs;
+	private final double[] ys;
+	private final int[] index;
+	/**
+	 * Split axis of the subtree rooted at each position, 0 for x, 1 for y
+	 */
+	private final byte[] axis;
+	private final int n;
+
+	/**
+	 * Build a tree of points, the batch is copied
+	 *
+	 * @param points
+	 *            the points
+	 */
+	public KDTree(PointBatch points) {
+		n = points.size();
+		xs = new double[n];
+		ys = new double[n];
+		index = new int[n];
+		axis = new byte[n];
+		for (int i = 0; i < n; i++) {
+			xs[i] = points.getX(i);
+			ys[i] = points.getY(i);
+			index[i] = i;
+		}
+		build(0, n);
+	}
+
+	/**
+	 * Build a tree of points, the arrays are copied
+	 *
+	 * @param xs
+	 *            x of points
+	 * @param ys
+	 *            y of points
+	 * @param n
+	 *            number of points to read from the arrays
+	 */
+	public KDTree(double[] xs, double[] ys, int n) {
+		this(PointBatch.wrap(xs, ys, null, null, n));
+	}
+
+	/**
+	 * @return number of points
+	 */
+	public int size() {
+		return n;
+	}
+
+	/**
+	 * Distance from a location to its k-th nearest point. Points at the location
+	 * itself count, so for a point of the tree use k + 1 to skip it.
+	 *
+	 * @param x
+	 *            x of the location
+	 * @param y
+	 *            y of the location
+	 * @param k
+	 *            k, 1 is the nearest
+	 * @return the distance, +Infinity if the tree has less than k points
+	 */
+	public double kthDistance(double x, double y, int k) {
+		if (k < 1) {
+			throw new InvalidParameterException("k should be positive.");
+		}
+		if (k > n) {
+			return Double.POSITIVE_INFINITY;
+		}
+		Heap heap = new Heap(k);
+		search(0, n, x, y, heap);
+		return Math.sqrt(heap.bound());
+	}
+
+	/**
+	 * Distance from every point of the tree to its k-th nearest other point,
+	 * with all cores of the common {@link ForkJoinPool}.
+	 *
+	 * @param k
+	 *            k, 1 is the nearest
+	 * @return distances in the order of the input points, +Infinity if the
+	 *         tree has k points or less
+	 * @see #kthDistances(int, ForkJoinPool)
+	 */
+	public double[] kthDistances(int k) {
+		return kthDistances(k, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Distance from every point of the tree to its k-th nearest other point.
+	 * Points are queried in the order of the tree, so the queries of a task
+	 * visit the same leaves.
+	 *
+	 * @param k
+	 *            k, 1 is the nearest
+	 * @param pool
+	 *            the pool to run on
+	 * @return distances in the order of the input points, +Infinity if the
+	 *         tree has k points or less
+	 */
+	public double[] kthDistances(int k, ForkJoinPool pool) {
+		if (k < 1) {
+			throw new InvalidParameterException("k should be positive.");
+		}
+		double[] result = new double[n];
+		if (n > 0) {
+			pool.invoke(new QueryTask(k, result, 0, n));
+		}
+		return result;
+	}
+
+	/**
+	 * Query points [from, to) of the tree order, split into halves until one
+	 * chunk is left.
+	 */
+	private class QueryTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int k;
+		private final double[] result;
+		private final int from, to;
+
+		QueryTask(int k, double[] result, int from, int to) {
+			this.k = k;
+			this.result = result;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= CHUNK_SIZE) {
+				if (k >= n) {
+					for (int i = from; i < to; i++) {
+						result[index[i]] = Double.POSITIVE_INFINITY;
+					}
+					return;
+				}
+				Heap heap = new Heap(k + 1);
+				for (int i = from; i < to; i++) {
+					heap.clear();
+					search(0, n, xs[i], ys[i], heap);
+					result[index[i]] = Math.sqrt(heap.bound());
+				}
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new QueryTask(k, result, from, mid), new QueryTask(k, result, mid, to));
+		}
+	}
+
+	/**
+	 * Offer the points of subtree [lo, hi) to the heap, nearer side first
+	 */
+	private void search(int lo, int hi, double x, double y, Heap heap) {
+		while (hi - lo > LEAF_SIZE) {
+			int mid = (lo + hi) >>> 1;
+			double dx = x - xs[mid];
+			double dy = y - ys[mid];
+			heap.offer(dx * dx + dy * dy);
+			double d = (axis[mid] == 0 ? dx : dy);
+			if (d < 0) {
+				search(lo, mid, x, y, heap);
+				if (d * d >= heap.bound()) {
+					return;
+				}
+				lo = mid + 1;
+			} else {
+				search(mid + 1, hi, x, y, heap);
+				if (d * d >= heap.bound()) {
+					return;
+				}
+				hi = mid;
+			}
+		}
+		for (int i = lo; i < hi; i++) {
+			double dx = x - xs[i];
+			double dy = y - ys[i];
+			heap.offer(dx * dx + dy * dy);
+		}
+	}
+
+	/**
+	 * Reorder [lo, hi) into a subtree
+	 */
+	private void build(int lo, int hi) {
+		while (hi - lo > LEAF_SIZE) {
+			double x0 = Double.POSITIVE_INFINITY, x1 = Double.NEGATIVE_INFINITY;
+			double y0 = Double.POSITIVE_INFINITY, y1 = Double.NEGATIVE_INFINITY;
+			for (int i = lo; i < hi; i++) {
+				x0 = Math.min(x0, xs[i]);
+				x1 = Math.max(x1, xs[i]);
+				y0 = Math.min(y0, ys[i]);
+				y1 = Math.max(y1, ys[i]);
+			}
+			int mid = (lo + hi) >>> 1;
+			byte a = (byte) (x1 - x0 >= y1 - y0 ? 0 : 1);
+			select(lo, hi, mid, a == 0 ? xs : ys);
+			axis[mid] = a;
+			build(lo, mid);
+			lo = mid + 1;
+		}
+	}
+
+	/**
+	 * Quickselect: move the k-th smallest key of [lo, hi) to k, smaller or equal
+	 * keys before it and greater or equal keys after it
+	 */
+	private void select(int lo, int hi, int k, double[] key) {
+		int left = lo, right = hi - 1;
+		while (right > left) {
+			// median of three as the pivot
+			int m = (left + right) >>> 1;
+			if (key[m] < key[left]) {
+				swap(m, left);
+			}
+			if (key[right] < key[left]) {
+				swap(right, left);
+			}
+			if (key[right] < key[m]) {
+				swap(right, m);
+			}
+			double pivot = key[m];
+			int i = left, j = right;
+			while (i <= j) {
+				while (key[i] < pivot) {
+					i++;
+				}
+				while (key[j] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					swap(i, j);
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) {
+				right = j;
+			} else if (k >= i) {
+				left = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private void swap(int i, int j) {
+		double x = xs[i];
+		xs[i] = xs[j];
+		xs[j] = x;
+		double y = ys[i];
+		ys[i] = ys[j];
+		ys[j] = y;
+		int t = index[i];
+		index[i] = index[j];
+		index[j] = t;
+	}
+
+	/**
+	 * A bounded max-heap of squared distances, keeps the k smallest
+	 */
+	private static final class Heap {
+		private final double[] d;
+		private int size = 0;
+
+		Heap(int k) {
+			d = new double[k];
+		}
+
+		void clear() {
+			size = 0;
+		}
+
+		/**
+		 * @return the k-th smallest distance so far, +Infinity before k are seen
+		 */
+		double bound() {
+			return size < d.length ? Double.POSITIVE_INFINITY : d[0];
+		}
+
+		void offer(double v) {
+			if (size < d.length) {
+				// sift up
+				int i = size++;
+				while (i > 0) {
+					int parent = (i - 1) >>> 1;
+					if (d[parent] >= v) {
+						break;
+					}
+					d[i] = d[parent];
+					i = parent;
+				}
+				d[i] = v;
+			} else if (v < d[0]) {
+				// replace the root and sift down
+				int i = 0;
+				while (true) {
+					int child = 2 * i + 1;
+					if (child >= size) {
+						break;
+					}
+					if (child + 1 < size && d[child + 1] > d[child]) {
+						child++;
+					}
+					if (d[child] <= v) {
+						break;
+					}
+					d[i] = d[child];
+					i = child;
+				}
+				d[i] = v;
+			}
+		}
+	}
+}
@@ -0,0 +1,214 @@
+package com.navdata.kernel;
+
+import java.util.Random;
+
+import com.navdata.grid.GridCodec;
+import com.navdata.kernel.base.Kernel2D;
+import com.navinfo.grid.GridLevel;
+
+/**
+ * Precomputed kernel weights (probabilities) of all grids around a point. The
+ * point is placed at the center of a sub-grid bucket: its home grid is split
+ * into buckets*buckets sub-grids, and a point is snapped to the center of the
+ * sub-grid it lies in, so the position error is at most length/(2*buckets) in
+ * x and y.<br>
+ *
+ * A stencil is immutable and can be shared by threads.
+ *
+ * @author Lin DONG
+ *
+ */
+public class KernelStencil {
+
+	private final int colOffset;
+	private final int rowOffset;
+	private final int width;
+	private final int height;
+	private final double[] weights;
+
+	/**
+	 * Compute a stencil
+	 *
+	 * @param kernel
+	 *            kernel function
+	 * @param bandWidth
+	 *            band width
+	 * @param z
+	 *            z part of grid ID
+	 * @param buckets
+	 *            sub-grids per side of a grid
+	 * @param bx
+	 *            column of the sub-grid, [0, buckets)
+	 * @param by
+	 *            row of the sub-grid, [0, buckets)
+	 */
+	public KernelStencil(Kernel2D kernel, double bandWidth, int z, int buckets, int bx, int by) {
+		this(kernel, bandWidth, z, (bx + 0.5) / buckets, (by + 0.5) / buckets);
+	}
+
+	/**
+	 * Compute the exact footprint of a point
+	 *
+	 * @param fx
+	 *            x of the point in its home grid, [0,1) as a fraction of length
+	 * @param fy
+	 *            y of the point in its home grid, [0,1) as a fraction of length
+	 */
+	private KernelStencil(Kernel2D kernel, double bandWidth, int z, double fx, double fy) {
+		// the home grid is (0,0)
+		double length = GridCodec.length(z);
+		double px = fx * length;
+		double py = fy * length;
+		double radius = kernel.radius(bandWidth);
+		int c0 = GridCodec.col(px - radius, z);
+		int c1 = GridCodec.col(px + radius, z);
+		int r0 = GridCodec.row(py - radius, z);
+		int r1 = GridCodec.row(py + radius, z);
+		colOffset = c0;
+		rowOffset = r0;
+		width = c1 - c0 + 1;
+		height = r1 - r0 + 1;
+		weights = new double[width * height];
+		for (int row = r0; row <= r1; row++) {
+			double y0 = GridCodec.y0(row, z) - py;
+			double y1 = GridCodec.y0(row + 1, z) - py;
+			for (int col = c0; col <= c1; col++) {
+				double x0 = GridCodec.x0(col, z) - px;
+				double x1 = GridCodec.x0(col + 1, z) - px;
+				weights[(row - r0) * width + (col - c0)] = kernel.k(x0, x1, y0, y1, bandWidth);
+			}
+		}
+	}
+
+	/**
+	 * Add weight*stencil to the result
+	 *
+	 * @param result
+	 *            the result
+	 * @param col
+	 *            column of the home grid of the point
+	 * @param row
+	 *            row of the home grid of the point
+	 * @param weight
+	 *            weight of the point
+	 */
+	public void addTo(DensityGrid result, int col, int row, double weight) {
+		int i = 0;
+		for (int r = 0; r < height; r++) {
+			int gridRow = row + rowOffset + r;
+			for (int c = 0; c < width; c++, i++) {
+				double w = weights[i];
+				if (w > 0) {
+					result.add(col + colOffset + c, gridRow, w * weight);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the bucket of a position
+	 *
+	 * @param f
+	 *            position in the home grid, [0,1) as a fraction of length
+	 * @param buckets
+	 *            sub-grids per side of a grid
+	 * @return bucket, [0, buckets)
+	 */
+	static int bucket(double f, int buckets) {
+		int b = (int) (f * buckets);
+		return b < 0 ? 0 : (b >= buckets ? buckets - 1 : b);
+	}
+
+	/**
+	 * @return column of the first grid, relative to the home grid
+	 */
+	public int getColOffset() {
+		return colOffset;
+	}
+
+	/**
+	 * @return row of the first grid, relative to the home grid
+	 */
+	public int getRowOffset() {
+		return rowOffset;
+	}
+
+	/**
+	 * @return number of columns
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return number of rows
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return weight of a grid, or 0 if it is out of the stencil
+	 * @param col
+	 *            column relative to the home grid
+	 * @param row
+	 *            row relative to the home grid
+	 */
+	public double weight(int col, int row) {
+		int c = col - colOffset;
+		int r = row - rowOffset;
+		if (c < 0 || r < 0 || c >= width || r >= height) {
+			return 0;
+		}
+		return weights[r * width + c];
+	}
+
+	/**
+	 * @return bytes used by the weights
+	 */
+	public long memoryBytes() {
+		return weights.length * 8L;
+	}
+
+	/**
+	 * Measure the error of snapping points to buckets: random points are
+	 * estimated exactly and by stencils, and the footprints are compared.
+	 *
+	 * @param kernel
+	 *            kernel function
+	 * @param bandWidth
+	 *            band width
+	 * @param level
+	 *            grid level
+	 * @param buckets
+	 *            sub-grids per side of a grid
+	 * @param samples
+	 *            number of random points
+	 * @return {max error of a grid, mean L1 error of a point (0 to 2)}
+	 */
+	public static double[] measureError(Kernel2D kernel, double bandWidth, GridLevel level, int buckets,
+			int samples) {
+		int z = GridCodec.z(level);
+		Random random = new Random(0);
+		double max = 0, l1 = 0;
+		for (int s = 0; s < samples; s++) {
+			double fx = random.nextDouble();
+			double fy = random.nextDouble();
+			KernelStencil exact = new KernelStencil(kernel, bandWidth, z, fx, fy);
+			KernelStencil snapped = new KernelStencil(kernel, bandWidth, z, buckets, bucket(fx, buckets),
+					bucket(fy, buckets));
+			int c0 = Math.min(exact.colOffset, snapped.colOffset);
+			int r0 = Math.min(exact.rowOffset, snapped.rowOffset);
+			int c1 = Math.max(exact.colOffset + exact.width, snapped.colOffset + snapped.width);
+			int r1 = Math.max(exact.rowOffset + exact.height, snapped.rowOffset + snapped.height);
+			for (int row = r0; row < r1; row++) {
+				for (int col = c0; col < c1; col++) {
+					double e = Math.abs(exact.weight(col, row) - snapped.weight(col, row));
+					max = Math.max(max, e);
+					l1 += e;
+				}
+			}
+		}
+		return new double[] { max, l1 / samples };
+	}
+}
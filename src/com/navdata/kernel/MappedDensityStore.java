@@ -0,0 +1,259 @@
+package com.navdata.kernel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.navdata.grid.GridCodec;
+import com.navinfo.grid.GridLevel;
+
+/**
+ * Densities on disk, one memory-mapped file per square tile of grids.<br>
+ *
+ * A tile file holds tileGrids*tileGrids doubles, row-major from the lower-left
+ * grid, in the native byte order. Empty grids are never written, so the files
+ * are sparse on most file systems. At most maxResident tiles are kept mapped
+ * for reading, the least recently used one is dropped first. It is not
+ * thread-safe.
+ *
+ * @author Lin DONG
+ *
+ */
+public class MappedDensityStore {
+	private final File directory;
+	private final GridLevel gridLevel;
+	private final int z;
+	private final int tileGrids;
+	private final Map<Long, DoubleBuffer> resident;
+
+	/**
+	 * Open or create a store
+	 *
+	 * @param directory
+	 *            directory of tile files, created if it does not exist
+	 * @param gridLevel
+	 *            size of grid
+	 * @param tileGrids
+	 *            grids per side of a tile
+	 * @param maxResident
+	 *            max number of tiles mapped for reading
+	 */
+	public MappedDensityStore(File directory, GridLevel gridLevel, int tileGrids, final int maxResident) {
+		if (tileGrids < 1 || tileGrids > 8192 || maxResident < 1) {
+			throw new InvalidParameterException("tileGrids should be in [1,8192] and maxResident positive.");
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new InvalidParameterException("Cannot create " + directory);
+		}
+		this.directory = directory;
+		this.gridLevel = gridLevel;
+		this.z = GridCodec.z(gridLevel);
+		this.tileGrids = tileGrids;
+		this.resident = new LinkedHashMap<Long, DoubleBuffer>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, DoubleBuffer> eldest) {
+				return size() > maxResident;
+			}
+		};
+	}
+
+	/**
+	 * @return size of grid
+	 */
+	public GridLevel getGridLevel() {
+		return gridLevel;
+	}
+
+	/**
+	 * @return grids per side of a tile
+	 */
+	public int getTileGrids() {
+		return tileGrids;
+	}
+
+	private static long key(int tileCol, int tileRow) {
+		return ((long) tileRow << 32) | (tileCol & 0xFFFFFFFFL);
+	}
+
+	private File file(int tileCol, int tileRow) {
+		return new File(directory, "tile_" + tileCol + "_" + tileRow + ".f64");
+	}
+
+	/**
+	 * Write the grids of a result which lie in a tile, other grids are ignored.
+	 * The tile file is replaced.
+	 *
+	 * @param tileCol
+	 *            column of the tile, its first grid column is tileCol*tileGrids
+	 * @param tileRow
+	 *            row of the tile
+	 * @param density
+	 *            result of the same grid level
+	 * @return the grids of the tile, as a new result
+	 * @throws IOException
+	 *             on failure of the file
+	 */
+	public DensityGrid write(int tileCol, int tileRow, DensityGrid density) throws IOException {
+		if (density.getZ() != z) {
+			throw new InvalidParameterException("Grid level mismatch.");
+		}
+		resident.remove(key(tileCol, tileRow));
+		long col0 = (long) tileCol * tileGrids;
+		long row0 = (long) tileRow * tileGrids;
+		DensityGrid inside = new DensityGrid(gridLevel);
+		File file = file(tileCol, tileRow);
+		file.delete();
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, 8L * tileGrids * tileGrids);
+			DoubleBuffer data = mapped.order(ByteOrder.nativeOrder()).asDoubleBuffer();
+			DensityGrid.Cursor cursor = density.cursor();
+			while (cursor.next()) {
+				long col = GridCodec.col(cursor.gridID()) - col0;
+				long row = GridCodec.row(cursor.gridID()) - row0;
+				if (col < 0 || col >= tileGrids || row < 0 || row >= tileGrids) {
+					continue;
+				}
+				data.put((int) (row * tileGrids + col), cursor.density());
+				inside.add(cursor.gridID(), cursor.density());
+			}
+			mapped.force();
+		}
+		return inside;
+	}
+
+	/**
+	 * Get density of a grid, its tile is mapped if it is not resident
+	 *
+	 * @param col
+	 *            column of the grid
+	 * @param row
+	 *            row of the grid
+	 * @return density, 0 if it is empty or its tile does not exist
+	 * @throws IOException
+	 *             on failure of the file
+	 */
+	public double get(int col, int row) throws IOException {
+		int tileCol = Math.floorDiv(col, tileGrids);
+		int tileRow = Math.floorDiv(row, tileGrids);
+		DoubleBuffer data = tile(tileCol, tileRow);
+		if (data == null) {
+			return 0;
+		}
+		return data.get((row - tileRow * tileGrids) * tileGrids + (col - tileCol * tileGrids));
+	}
+
+	/**
+	 * Get density of a grid
+	 *
+	 * @param gridID
+	 *            ID of the grid, it should be of the same level
+	 * @return density, 0 if it is empty or its tile does not exist
+	 * @throws IOException
+	 *             on failure of the file
+	 */
+	public double get(long gridID) throws IOException {
+		if (GridCodec.z(gridID) != z) {
+			throw new InvalidParameterException("Grid level mismatch: " + gridID);
+		}
+		return get(GridCodec.col(gridID), GridCodec.row(gridID));
+	}
+
+	/**
+	 * Read a tile back into memory
+	 *
+	 * @param tileCol
+	 *            column of the tile
+	 * @param tileRow
+	 *            row of the tile
+	 * @return grids of the tile, empty if the tile does not exist
+	 * @throws IOException
+	 *             on failure of the file
+	 */
+	public DensityGrid read(int tileCol, int tileRow) throws IOException {
+		DensityGrid result = new DensityGrid(gridLevel);
+		DoubleBuffer data = tile(tileCol, tileRow);
+		if (data == null) {
+			return result;
+		}
+		int col0 = tileCol * tileGrids;
+		int row0 = tileRow * tileGrids;
+		for (int r = 0; r < tileGrids; r++) {
+			for (int c = 0; c < tileGrids; c++) {
+				double d = data.get(r * tileGrids + c);
+				if (d != 0) {
+					result.add(col0 + c, row0 + r, d);
+				}
+			}
+		}
+		return result;
+	}
+
+	private DoubleBuffer tile(int tileCol, int tileRow) throws IOException {
+		long key = key(tileCol, tileRow);
+		DoubleBuffer data = resident.get(key);
+		if (data != null) {
+			return data;
+		}
+		File file = file(tileCol, tileRow);
+		if (!file.isFile()) {
+			return null;
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.nativeOrder())
+					.asDoubleBuffer();
+		}
+		resident.put(key, data);
+		return data;
+	}
+
+	/**
+	 * @return number of tiles mapped for reading
+	 */
+	public int residentCount() {
+		return resident.size();
+	}
+
+	/**
+	 * @return {tileCol, tileRow} of all tiles on disk, sorted by row and column
+	 */
+	public List<int[]> tiles() {
+		List<int[]> result = new ArrayList<>();
+		String[] names = directory.list();
+		if (names == null) {
+			return result;
+		}
+		for (String name : names) {
+			if (name.startsWith("tile_") && name.endsWith(".f64")) {
+				String[] parts = name.substring(5, name.length() - 4).split("_");
+				result.add(new int[] { Integer.parseInt(parts[0]), Integer.parseInt(parts[1]) });
+			}
+		}
+		Collections.sort(result, new Comparator<int[]>() {
+			@Override
+			public int compare(int[] a, int[] b) {
+				return a[1] != b[1] ? Integer.compare(a[1], b[1]) : Integer.compare(a[0], b[0]);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Unmap all tiles, they are released when collected
+	 */
+	public void clear() {
+		resident.clear();
+	}
+}
@@ -0,0 +1,132 @@
+package com.navdata.kernel;
+
+import java.security.InvalidParameterException;
+
+import com.navdata.grid.GridCodec;
+import com.navinfo.grid.GridLevel;
+
+/**
+ * Density results of several channels (kinds) on the same grids, one
+ * {@link DensityGrid} per channel.
+ *
+ * @author Lin DONG
+ *
+ */
+public class MultiDensityGrid {
+	private final GridLevel gridLevel;
+	private final DensityGrid[] channels;
+
+	/**
+	 * Create an empty result
+	 *
+	 * @param gridLevel
+	 *            size of grid
+	 * @param channelCount
+	 *            number of channels
+	 */
+	public MultiDensityGrid(GridLevel gridLevel, int channelCount) {
+		if (channelCount < 1) {
+			throw new InvalidParameterException("Channel count should be positive.");
+		}
+		this.gridLevel = gridLevel;
+		this.channels = new DensityGrid[channelCount];
+		for (int c = 0; c < channelCount; c++) {
+			channels[c] = new DensityGrid(gridLevel);
+		}
+	}
+
+	/**
+	 * @return size of grid
+	 */
+	public GridLevel getGridLevel() {
+		return gridLevel;
+	}
+
+	/**
+	 * @return z part of grid IDs
+	 */
+	public int getZ() {
+		return GridCodec.z(gridLevel);
+	}
+
+	/**
+	 * @return number of channels
+	 */
+	public int getChannelCount() {
+		return channels.length;
+	}
+
+	/**
+	 * @param channel
+	 *            the channel
+	 * @return result of the channel
+	 */
+	public DensityGrid getChannel(int channel) {
+		return channels[channel];
+	}
+
+	/**
+	 * Add density to a grid of a channel
+	 *
+	 * @param col
+	 *            column of the grid
+	 * @param row
+	 *            row of the grid
+	 * @param channel
+	 *            the channel
+	 * @param density
+	 *            density to add
+	 */
+	public void add(int col, int row, int channel, double density) {
+		channels[channel].add(col, row, density);
+	}
+
+	/**
+	 * @return the range of non-empty grids of all channels, {min col, max col,
+	 *         min row, max row}, null if all are empty
+	 */
+	public int[] bounds() {
+		int[] bounds = null;
+		for (DensityGrid channel : channels) {
+			int[] b = channel.bounds();
+			if (b == null) {
+				continue;
+			}
+			if (bounds == null) {
+				bounds = b;
+			} else {
+				bounds[0] = Math.min(bounds[0], b[0]);
+				bounds[1] = Math.max(bounds[1], b[1]);
+				bounds[2] = Math.min(bounds[2], b[2]);
+				bounds[3] = Math.max(bounds[3], b[3]);
+			}
+		}
+		return bounds;
+	}
+
+	/**
+	 * Add another result channel by channel, the other one is consumed.
+	 *
+	 * @param other
+	 *            result with the same grid level and channels
+	 */
+	public void merge(MultiDensityGrid other) {
+		if (other.channels.length != channels.length) {
+			throw new InvalidParameterException("Channel counts differ.");
+		}
+		for (int c = 0; c < channels.length; c++) {
+			channels[c].merge(other.channels[c]);
+		}
+	}
+
+	/**
+	 * @return bytes used by the tiles of all channels
+	 */
+	public long memoryBytes() {
+		long bytes = 0;
+		for (DensityGrid channel : channels) {
+			bytes += channel.memoryBytes();
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,305 @@
+package com.navdata.kernel;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.security.InvalidParameterException;
+
+/**
+ * Points in columns: x, y, optional weight and optional kind (channel), instead
+ * of one {@link java.awt.geom.Point2D} object per point.<br>
+ *
+ * The columns are buffers on the heap ({@link #allocate(int, boolean, boolean)},
+ * {@link #wrap(double[], double[], double[], int[], int)}) or off the heap
+ * ({@link #allocateDirect(int, boolean, boolean)}), and are read linearly by
+ * {@link GridEstimator}. A batch grows when it is full. It is not thread-safe,
+ * but it can be read by many threads once filled.
+ *
+ * @author Lin DONG
+ *
+ */
+public class PointBatch {
+	private static final int MIN_CAPACITY = 16;
+
+	private final boolean direct;
+	private DoubleBuffer xs, ys, weights;
+	private IntBuffer kinds;
+	private int size = 0;
+
+	private PointBatch(boolean direct, DoubleBuffer xs, DoubleBuffer ys, DoubleBuffer weights, IntBuffer kinds) {
+		this.direct = direct;
+		this.xs = xs;
+		this.ys = ys;
+		this.weights = weights;
+		this.kinds = kinds;
+	}
+
+	/**
+	 * Create an empty batch on the heap
+	 *
+	 * @param capacity
+	 *            initial capacity
+	 * @param weighted
+	 *            whether points have weights
+	 * @param withKinds
+	 *            whether points have kinds
+	 * @return the batch
+	 */
+	public static PointBatch allocate(int capacity, boolean weighted, boolean withKinds) {
+		return create(false, capacity, weighted, withKinds);
+	}
+
+	/**
+	 * Create an empty batch off the heap, in the native byte order
+	 *
+	 * @param capacity
+	 *            initial capacity
+	 * @param weighted
+	 *            whether points have weights
+	 * @param withKinds
+	 *            whether points have kinds
+	 * @return the batch
+	 */
+	public static PointBatch allocateDirect(int capacity, boolean weighted, boolean withKinds) {
+		return create(true, capacity, weighted, withKinds);
+	}
+
+	private static PointBatch create(boolean direct, int capacity, boolean weighted, boolean withKinds) {
+		if (capacity < 0) {
+			throw new InvalidParameterException("Capacity should not be negative.");
+		}
+		int c = Math.max(MIN_CAPACITY, capacity);
+		return new PointBatch(direct, doubles(direct, c), doubles(direct, c), (weighted ? doubles(direct, c) : null),
+				(withKinds ? ints(direct, c) : null));
+	}
+
+	/**
+	 * Use arrays as the columns without copying them
+	 *
+	 * @param xs
+	 *            x of points
+	 * @param ys
+	 *            y of points
+	 * @param weights
+	 *            weights of points, null means all weights are 1
+	 * @param kinds
+	 *            kinds of points, can be null
+	 * @param n
+	 *            number of points in the arrays
+	 * @return the batch
+	 */
+	public static PointBatch wrap(double[] xs, double[] ys, double[] weights, int[] kinds, int n) {
+		if (n < 0 || xs.length < n || ys.length < n || (weights != null && weights.length < n)
+				|| (kinds != null && kinds.length < n)) {
+			throw new InvalidParameterException("Arrays are shorter than n.");
+		}
+		PointBatch batch = new PointBatch(false, DoubleBuffer.wrap(xs), DoubleBuffer.wrap(ys),
+				(weights == null ? null : DoubleBuffer.wrap(weights)), (kinds == null ? null : IntBuffer.wrap(kinds)));
+		batch.size = n;
+		return batch;
+	}
+
+	private static DoubleBuffer doubles(boolean direct, int capacity) {
+		if (!direct) {
+			return DoubleBuffer.allocate(capacity);
+		}
+		return ByteBuffer.allocateDirect(capacity * 8).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+	}
+
+	private static IntBuffer ints(boolean direct, int capacity) {
+		if (!direct) {
+			return IntBuffer.allocate(capacity);
+		}
+		return ByteBuffer.allocateDirect(capacity * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+	}
+
+	/**
+	 * Add a point, its weight is 1 and its kind is 0 if the batch has them
+	 *
+	 * @param x
+	 *            x of the point
+	 * @param y
+	 *            y of the point
+	 */
+	public void add(double x, double y) {
+		add(x, y, 1, 0);
+	}
+
+	/**
+	 * Add a point, its kind is 0 if the batch has kinds
+	 *
+	 * @param x
+	 *            x of the point
+	 * @param y
+	 *            y of the point
+	 * @param weight
+	 *            weight of the point, ignored if the batch has no weights
+	 */
+	public void add(double x, double y, double weight) {
+		add(x, y, weight, 0);
+	}
+
+	/**
+	 * Add a point
+	 *
+	 * @param x
+	 *            x of the point
+	 * @param y
+	 *            y of the point
+	 * @param weight
+	 *            weight of the point, ignored if the batch has no weights
+	 * @param kind
+	 *            kind of the point, ignored if the batch has no kinds
+	 */
+	public void add(double x, double y, double weight, int kind) {
+		if (size == xs.capacity()) {
+			grow();
+		}
+		xs.put(size, x);
+		ys.put(size, y);
+		if (weights != null) {
+			weights.put(size, weight);
+		}
+		if (kinds != null) {
+			kinds.put(size, kind);
+		}
+		size++;
+	}
+
+	private void grow() {
+		int capacity = Math.max(MIN_CAPACITY, xs.capacity() * 2);
+		xs = copy(xs, doubles(direct, capacity));
+		ys = copy(ys, doubles(direct, capacity));
+		if (weights != null) {
+			weights = copy(weights, doubles(direct, capacity));
+		}
+		if (kinds != null) {
+			IntBuffer k = ints(direct, capacity);
+			for (int j = 0; j < size; j++) {
+				k.put(j, kinds.get(j));
+			}
+			kinds = k;
+		}
+	}
+
+	private DoubleBuffer copy(DoubleBuffer from, DoubleBuffer to) {
+		for (int j = 0; j < size; j++) {
+			to.put(j, from.get(j));
+		}
+		return to;
+	}
+
+	/**
+	 * Remove all points, the buffers are kept
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * @return number of points
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return number of points it holds before growing
+	 */
+	public int capacity() {
+		return xs.capacity();
+	}
+
+	/**
+	 * @return whether the columns are off the heap
+	 */
+	public boolean isDirect() {
+		return direct;
+	}
+
+	/**
+	 * @return whether points have weights, if not all weights are 1
+	 */
+	public boolean hasWeights() {
+		return weights != null;
+	}
+
+	/**
+	 * @return whether points have kinds
+	 */
+	public boolean hasKinds() {
+		return kinds != null;
+	}
+
+	/**
+	 * @param index
+	 *            index of the point
+	 * @return x of the point
+	 */
+	public double getX(int index) {
+		return xs.get(index);
+	}
+
+	/**
+	 * @param index
+	 *            index of the point
+	 * @return y of the point
+	 */
+	public double getY(int index) {
+		return ys.get(index);
+	}
+
+	/**
+	 * @param index
+	 *            index of the point
+	 * @return weight of the point, 1 if the batch has no weights
+	 */
+	public double getWeight(int index) {
+		return weights == null ? 1 : weights.get(index);
+	}
+
+	/**
+	 * @param index
+	 *            index of the point
+	 * @return kind of the point
+	 */
+	public int getKind(int index) {
+		if (kinds == null) {
+			throw new InvalidParameterException("Points have no kinds.");
+		}
+		return kinds.get(index);
+	}
+
+	/**
+	 * @return x column as an array, the backing array if it is on the heap
+	 */
+	double[] xArray() {
+		return toArray(xs);
+	}
+
+	/**
+	 * @return y column as an array, the backing array if it is on the heap
+	 */
+	double[] yArray() {
+		return toArray(ys);
+	}
+
+	/**
+	 * @return weight column as an array, null if the batch has no weights
+	 */
+	double[] weightArray() {
+		return weights == null ? null : toArray(weights);
+	}
+
+	private double[] toArray(DoubleBuffer buffer) {
+		if (buffer.hasArray() && buffer.arrayOffset() == 0) {
+			return buffer.array();
+		}
+		double[] array = new double[size];
+		for (int j = 0; j < size; j++) {
+			array[j] = buffer.get(j);
+		}
+		return array;
+	}
+}
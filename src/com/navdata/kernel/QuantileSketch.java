@@ -0,0 +1,261 @@
+package com.navdata.kernel;
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Mergeable streaming quantile sketch (KLL). Values are kept in levels of
+ * compactors, an item of level h stands for 2^h input values. When a level is
+ * full it is sorted and every other item (random offset) is promoted to the
+ * next level. Capacities shrink by 2/3 per level below the top one, so the
+ * memory is about 3*k values whatever the input size.<br>
+ *
+ * The rank error is about 2/k of the input size (0.25% for the default k=800).
+ * Min and max are exact. NaN is ignored. It is not thread-safe, use one sketch
+ * per partition and {@link #merge(QuantileSketch)} them.
+ *
+ * @author Lin DONG
+ *
+ */
+public class QuantileSketch {
+
+	/**
+	 * The default accuracy parameter
+	 */
+	public static final int DEFAULT_K = 800;
+
+	private static final double C = 2.0 / 3.0;
+	private static final int MIN_CAPACITY = 8;
+
+	private final int k;
+	private final Random random;
+	private double[][] levels = new double[1][];
+	private int[] sizes = new int[1];
+	private long n = 0;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+
+	/**
+	 * Create a sketch with the default accuracy
+	 */
+	public QuantileSketch() {
+		this(DEFAULT_K);
+	}
+
+	/**
+	 * Create a sketch
+	 *
+	 * @param k
+	 *            accuracy parameter, the rank error is about 2/k
+	 */
+	public QuantileSketch(int k) {
+		if (k < MIN_CAPACITY) {
+			throw new InvalidParameterException("k should be at least " + MIN_CAPACITY + ".");
+		}
+		this.k = k;
+		// fixed seed, the same input gives the same sketch
+		this.random = new Random(k);
+		levels[0] = new double[k];
+	}
+
+	/**
+	 * Add a value
+	 *
+	 * @param value
+	 *            the value, NaN is ignored
+	 */
+	public void update(double value) {
+		if (Double.isNaN(value)) {
+			return;
+		}
+		n++;
+		if (value < min) {
+			min = value;
+		}
+		if (value > max) {
+			max = value;
+		}
+		append(0, value);
+		if (sizes[0] >= capacity(0)) {
+			compress();
+		}
+	}
+
+	/**
+	 * Add values
+	 *
+	 * @param values
+	 *            values
+	 * @param from
+	 *            start index, inclusive
+	 * @param to
+	 *            end index, exclusive
+	 */
+	public void update(double[] values, int from, int to) {
+		for (int i = from; i < to; i++) {
+			update(values[i]);
+		}
+	}
+
+	/**
+	 * Merge another sketch into this one, the other one is not changed.
+	 *
+	 * @param other
+	 *            another sketch
+	 */
+	public void merge(QuantileSketch other) {
+		if (other.n == 0) {
+			return;
+		}
+		n += other.n;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+		for (int h = 0; h < other.levels.length; h++) {
+			for (int i = 0; i < other.sizes[h]; i++) {
+				append(h, other.levels[h][i]);
+			}
+		}
+		compress();
+	}
+
+	/**
+	 * @return number of values added
+	 */
+	public long count() {
+		return n;
+	}
+
+	/**
+	 * @return the exact min, +Infinity if empty
+	 */
+	public double min() {
+		return min;
+	}
+
+	/**
+	 * @return the exact max, -Infinity if empty
+	 */
+	public double max() {
+		return max;
+	}
+
+	/**
+	 * Get approximate quantiles
+	 *
+	 * @param fractions
+	 *            ranks as fractions of the input size, in [0,1], ascending
+	 * @return the values at the ranks
+	 */
+	public double[] quantiles(double... fractions) {
+		if (n == 0) {
+			throw new InvalidParameterException("The sketch is empty.");
+		}
+		// sorted items and their weights
+		int total = 0;
+		for (int h = 0; h < levels.length; h++) {
+			total += sizes[h];
+		}
+		double[] items = new double[total];
+		long[] weights = new long[total];
+		int count = 0;
+		for (int h = 0; h < levels.length; h++) {
+			double[] level = Arrays.copyOf(levels[h], sizes[h]);
+			Arrays.sort(level);
+			count = mergeSorted(items, weights, count, level, 1L << h);
+		}
+		double[] result = new double[fractions.length];
+		long cumulative = 0;
+		int i = 0;
+		for (int q = 0; q < fractions.length; q++) {
+			double fraction = fractions[q];
+			if (fraction <= 0) {
+				result[q] = min;
+				continue;
+			}
+			if (fraction >= 1) {
+				result[q] = max;
+				continue;
+			}
+			// the item whose cumulative weight passes rank floor(fraction*n)
+			double rank = Math.floor(fraction * n);
+			while (i < count - 1 && cumulative + weights[i] <= rank) {
+				cumulative += weights[i];
+				i++;
+			}
+			result[q] = items[i];
+		}
+		return result;
+	}
+
+	/**
+	 * @return bytes used by the items
+	 */
+	public long memoryBytes() {
+		long bytes = 0;
+		for (double[] level : levels) {
+			bytes += level.length * 8L;
+		}
+		return bytes;
+	}
+
+	// merge level (sorted, each weighs w) into items[0,count) (sorted)
+	private static int mergeSorted(double[] items, long[] weights, int count, double[] level, long w) {
+		int i = count - 1, j = level.length - 1, t = count + level.length - 1;
+		while (j >= 0) {
+			if (i >= 0 && items[i] > level[j]) {
+				items[t] = items[i];
+				weights[t--] = weights[i--];
+			} else {
+				items[t] = level[j--];
+				weights[t--] = w;
+			}
+		}
+		return count + level.length;
+	}
+
+	private int capacity(int h) {
+		int depth = levels.length - 1 - h;
+		return Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(C, depth)));
+	}
+
+	private void append(int h, double value) {
+		if (h >= levels.length) {
+			levels = Arrays.copyOf(levels, h + 1);
+			sizes = Arrays.copyOf(sizes, h + 1);
+			levels[h] = new double[MIN_CAPACITY];
+		}
+		if (sizes[h] == levels[h].length) {
+			levels[h] = Arrays.copyOf(levels[h], levels[h].length * 2);
+		}
+		levels[h][sizes[h]++] = value;
+	}
+
+	// compact every level over capacity, from the bottom
+	private void compress() {
+		for (int h = 0; h < levels.length; h++) {
+			if (sizes[h] >= capacity(h)) {
+				compact(h);
+			}
+		}
+	}
+
+	private void compact(int h) {
+		double[] level = levels[h];
+		int size = sizes[h];
+		Arrays.sort(level, 0, size);
+		// an odd item stays
+		int even = size & ~1;
+		int offset = random.nextBoolean() ? 1 : 0;
+		for (int i = offset; i < even; i += 2) {
+			append(h + 1, level[i]);
+		}
+		level = levels[h];
+		if (even < size) {
+			level[0] = level[size - 1];
+			sizes[h] = 1;
+		} else {
+			sizes[h] = 0;
+		}
+	}
+}
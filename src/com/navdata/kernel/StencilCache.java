@@ -0,0 +1,183 @@
+package com.navdata.kernel;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.navdata.kernel.base.Kernel2D;
+import com.navdata.kernel.base.UniformKernel2D;
+import com.navinfo.grid.GridLevel;
+
+/**
+ * A bounded LRU cache of {@link KernelStencil}s, keyed by (kernel, bandwidth,
+ * grid level, buckets, sub-grid bucket). The least recently used stencils are
+ * dropped when the weights exceed the memory limit. It is thread-safe.
+ *
+ * @author Lin DONG
+ *
+ */
+public class StencilCache {
+
+	/**
+	 * The default memory limit, 256MB
+	 */
+	public static final long DEFAULT_MAX_BYTES = 256L << 20;
+
+	private final long maxBytes;
+	private long bytes = 0;
+	private long hits = 0;
+	private long misses = 0;
+	private final LinkedHashMap<Key, KernelStencil> stencils = new LinkedHashMap<>(64, 0.75f, true);
+
+	/**
+	 * Create a cache with the default memory limit
+	 */
+	public StencilCache() {
+		this(DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * Create a cache
+	 *
+	 * @param maxBytes
+	 *            memory limit of the weights
+	 */
+	public StencilCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Get a stencil, compute it if it is not cached.
+	 *
+	 * @param kernel
+	 *            kernel function
+	 * @param bandWidth
+	 *            band width
+	 * @param z
+	 *            z part of grid ID
+	 * @param buckets
+	 *            sub-grids per side of a grid
+	 * @param bx
+	 *            column of the sub-grid
+	 * @param by
+	 *            row of the sub-grid
+	 * @return the stencil
+	 */
+	public KernelStencil get(Kernel2D kernel, double bandWidth, int z, int buckets, int bx, int by) {
+		Key key = new Key(kernel, bandWidth, z, buckets, bx, by);
+		synchronized (this) {
+			KernelStencil stencil = stencils.get(key);
+			if (stencil != null) {
+				hits++;
+				return stencil;
+			}
+			misses++;
+		}
+		// compute out of the lock, a duplicated computation is harmless
+		KernelStencil stencil = new KernelStencil(kernel, bandWidth, z, buckets, bx, by);
+		synchronized (this) {
+			if (!stencils.containsKey(key)) {
+				bytes += stencil.memoryBytes();
+				stencils.put(key, stencil);
+				evict();
+			}
+		}
+		return stencil;
+	}
+
+	/**
+	 * Drop the least recently used stencils until the weights fit in the limit.
+	 * A stencil larger than the limit is kept alone, the newest is never
+	 * dropped.
+	 */
+	private void evict() {
+		Iterator<Map.Entry<Key, KernelStencil>> eldest = stencils.entrySet().iterator();
+		while (bytes > maxBytes && stencils.size() > 1) {
+			bytes -= eldest.next().getValue().memoryBytes();
+			eldest.remove();
+		}
+	}
+
+	/**
+	 * @return number of cached stencils
+	 */
+	public synchronized int size() {
+		return stencils.size();
+	}
+
+	/**
+	 * @return bytes used by the cached weights
+	 */
+	public synchronized long memoryBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return {hits, misses}
+	 */
+	public synchronized long[] stats() {
+		return new long[] { hits, misses };
+	}
+
+	/**
+	 * Drop all stencils
+	 */
+	public synchronized void clear() {
+		stencils.clear();
+		bytes = 0;
+	}
+
+	private static final class Key {
+		private final Kernel2D kernel;
+		private final double bandWidth;
+		private final int z, buckets, bx, by;
+
+		Key(Kernel2D kernel, double bandWidth, int z, int buckets, int bx, int by) {
+			this.kernel = kernel;
+			this.bandWidth = bandWidth;
+			this.z = z;
+			this.buckets = buckets;
+			this.bx = bx;
+			this.by = by;
+		}
+
+		@Override
+		public int hashCode() {
+			long b = Double.doubleToLongBits(bandWidth);
+			int h = System.identityHashCode(kernel);
+			h = h * 31 + (int) (b ^ (b >>> 32));
+			h = h * 31 + z;
+			h = h * 31 + buckets;
+			h = h * 31 + bx;
+			return h * 31 + by;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key o = (Key) obj;
+			return kernel == o.kernel && Double.doubleToLongBits(bandWidth) == Double.doubleToLongBits(o.bandWidth)
+					&& z == o.z && buckets == o.buckets && bx == o.bx && by == o.by;
+		}
+	}
+
+	/**
+	 * Print the error of stencils with different numbers of buckets
+	 *
+	 * @param args
+	 *            [band width] [samples], the defaults are 0.015 and 200
+	 */
+	public static void main(String[] args) {
+		double bandWidth = (args.length > 0 ? Double.parseDouble(args[0]) : 0.015);
+		int samples = (args.length > 1 ? Integer.parseInt(args[1]) : 200);
+		Kernel2D kernel = new UniformKernel2D(UniformKernel2D.Method.ANALYTIC);
+		for (GridLevel level : new GridLevel[] { GridLevel.GRID_0_001, GridLevel.GRID_0_005 }) {
+			for (int buckets = 1; buckets <= 64; buckets *= 2) {
+				double[] error = KernelStencil.measureError(kernel, bandWidth, level, buckets, samples);
+				System.out.println(level + "\tbuckets=" + buckets + "\tmax=" + error[0] + "\tL1=" + error[1]);
+			}
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package com.navdata.kernel;
+
+import java.security.InvalidParameterException;
+
+import com.navdata.kernel.base.ValueMapper;
+
+/**
+ * Reclassify values to 1-100 (0 is reserved for NaN) with separators from a
+ * {@link QuantileSketch}, so values are neither copied nor sorted.<br>
+ *
+ * Usage: feed values (of one or many partitions/cities) by {@link #fit}
+ * in the first pass, {@link #merge} classifiers of other partitions, then
+ * classify by {@link #index(double)} in the second pass. Separators are
+ * approximate: a value near a separator may fall into the neighbouring class
+ * (never further), so with a rank error e about 100*e of the values move. Use
+ * a large k (e.g. 2000, 0.13% rank error) if that matters, see
+ * {@link QuantileSketch}.
+ *
+ * @author Lin DONG
+ *
+ */
+public class StreamingClassifier100 extends ValueMapper {
+
+	private static final int N = 100;
+
+	private final QuantileSketch sketch;
+	// cached separators, null after the sketch changes
+	private double[] seps = null;
+
+	/**
+	 * Create a classifier with the default accuracy
+	 */
+	public StreamingClassifier100() {
+		this(QuantileSketch.DEFAULT_K);
+	}
+
+	/**
+	 * Create a classifier
+	 *
+	 * @param k
+	 *            accuracy parameter of the sketch, see {@link QuantileSketch}
+	 */
+	public StreamingClassifier100(int k) {
+		sketch = new QuantileSketch(k);
+	}
+
+	/**
+	 * First pass: add values to the sketch
+	 *
+	 * @param values
+	 *            values
+	 * @return the separators of everything fitted so far
+	 */
+	@Override
+	public Breakpoints fit(double... values) {
+		sketch.update(values, 0, values.length);
+		seps = null;
+		return breakpoints();
+	}
+
+	/**
+	 * First pass: add densities of a result to the sketch
+	 *
+	 * @param grid
+	 *            a density result
+	 */
+	public void fit(DensityGrid grid) {
+		DensityGrid.Cursor cursor = grid.cursor();
+		while (cursor.next()) {
+			sketch.update(cursor.density());
+		}
+		seps = null;
+	}
+
+	/**
+	 * Merge the sketch of another classifier (another partition) into this one
+	 *
+	 * @param other
+	 *            another classifier
+	 */
+	public void merge(StreamingClassifier100 other) {
+		sketch.merge(other.sketch);
+		seps = null;
+	}
+
+	/**
+	 * @return the 100 separators, seps[i] is the lower bound of class i+1
+	 */
+	public double[] separators() {
+		if (seps == null) {
+			if (sketch.count() == 0) {
+				throw new InvalidParameterException("Nothing has been fitted.");
+			}
+			double[] fractions = new double[N];
+			for (int i = 0; i < N; i++) {
+				fractions[i] = 1.0 * i / N;
+			}
+			seps = sketch.quantiles(fractions);
+		}
+		return seps.clone();
+	}
+
+	/**
+	 * @return the current separators as an immutable model, see {@link Breakpoints}
+	 */
+	public Breakpoints breakpoints() {
+		return new Breakpoints(separators());
+	}
+
+	/**
+	 * Second pass: classify a value
+	 *
+	 * @param value
+	 *            the value
+	 * @return 1-100, 0 for NaN
+	 */
+	public int index(double value) {
+		if (Double.isNaN(value)) {
+			return 0;
+		}
+		if (seps == null) {
+			separators();
+		}
+		return findIndex(value, seps);
+	}
+
+	/**
+	 * Classify values. If nothing has been fitted, the values are fitted
+	 * first.
+	 */
+	@Override
+	public int[] map(double... values) {
+		if (values == null || values.length == 0) {
+			throw new InvalidParameterException("Array [values] is null or empty.");
+		}
+		Breakpoints breakpoints = (sketch.count() == 0 ? fit(values) : breakpoints());
+		byte[] classes = new byte[values.length];
+		breakpoints.transform(values, classes);
+		return toIndex(classes);
+	}
+
+	/**
+	 * @return the sketch
+	 */
+	public QuantileSketch getSketch() {
+		return sketch;
+	}
+}
@@ -0,0 +1,381 @@
+package com.navdata.kernel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.InvalidParameterException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+import com.navdata.grid.GridCodec;
+import com.navinfo.grid.GridLevel;
+
+/**
+ * Out-of-core estimation for results which do not fit in memory, such as a
+ * continent at {@link GridLevel#GRID_0_0001}.<br>
+ *
+ * Space is cut into square tiles of tileGrids*tileGrids grids. A point is
+ * routed to every tile its kernel reaches (the tile plus a halo of the kernel
+ * radius), and spooled to a file of the tile, so points do not stay in
+ * memory either. {@link #run(TileSink)} then estimates the tiles one by one,
+ * writes the grids inside each tile into a {@link MappedDensityStore} and
+ * hands them to a sink, such as {@link com.navdata.db.GridDensityWriter}.
+ * Grids near the border of a tile get the density of points in the
+ * neighbouring tiles through the halo, so the tiles add up to the same result
+ * as one estimation.<br>
+ *
+ * A new estimator starts a new run, spool files left in the directory are
+ * deleted. A run that failed in {@link #run(TileSink)} can be resumed by
+ * calling it again, or after a crash with {@link #resume}, which takes the
+ * tiles still spooled. Points cannot be added to a resumed run, they are
+ * already in the spool files.
+ *
+ * @author Lin DONG
+ *
+ */
+public class TiledEstimator {
+	/**
+	 * Default grids per side of a tile
+	 */
+	public static final int DEFAULT_TILE_GRIDS = 1024;
+	/**
+	 * Points buffered per tile before they are spooled
+	 */
+	private static final int SPOOL_POINTS = 1024;
+	/**
+	 * Initial capacity of the buffer of a tile, it grows up to SPOOL_POINTS
+	 */
+	private static final int INITIAL_POINTS = 16;
+	/**
+	 * Created in the spool directory once all points are spooled
+	 */
+	private static final String COMPLETE = "complete";
+	/**
+	 * Points buffered over all tiles before all of them are spooled
+	 */
+	private static final int MAX_PENDING_POINTS = 1 << 20;
+
+	/**
+	 * Receive the result of a tile
+	 */
+	public interface TileSink {
+		/**
+		 * @param tileCol
+		 *            column of the tile
+		 * @param tileRow
+		 *            row of the tile
+		 * @param density
+		 *            grids inside the tile
+		 * @throws Exception
+		 *             on failure, the run stops
+		 */
+		void accept(int tileCol, int tileRow, DensityGrid density) throws Exception;
+	}
+
+	private final GridEstimator estimator;
+	private final GridLevel gridLevel;
+	private final int z;
+	private final double bandWidth;
+	private final double radius;
+	private final int tileGrids;
+	private final File spoolDirectory;
+	private final MappedDensityStore store;
+	private final Map<Long, PointBatch> pending = new HashMap<>();
+	private final TreeSet<Long> spooled = new TreeSet<>();
+	private final boolean resumed;
+	private int pendingPoints = 0;
+	private long pointCount = 0;
+
+	/**
+	 * Create an estimator
+	 *
+	 * @param estimator
+	 *            the estimator of tiles
+	 * @param gridLevel
+	 *            size of grid
+	 * @param bandWidth
+	 *            band width, the effective range of the kernel function
+	 * @param tileGrids
+	 *            grids per side of a tile, such as {@link #DEFAULT_TILE_GRIDS}
+	 * @param directory
+	 *            working directory, spooled points are in directory/spool and the
+	 *            result is in directory/density
+	 * @param maxResident
+	 *            max number of result tiles mapped for reading, see
+	 *            {@link MappedDensityStore}
+	 */
+	public TiledEstimator(GridEstimator estimator, GridLevel gridLevel, double bandWidth, int tileGrids,
+			File directory, int maxResident) {
+		this(estimator, gridLevel, bandWidth, tileGrids, directory, maxResident, false);
+		// a new run, points of an old one must not be counted again
+		File[] files = spoolDirectory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.isFile() && !file.delete()) {
+					throw new InvalidParameterException("Cannot delete " + file);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Resume a run that stopped in {@link #run(TileSink)}, such as by a crash:
+	 * tiles whose spool files are left are estimated by the next
+	 * {@link #run(TileSink)}. The parameters should be the same as those of
+	 * the stopped run.
+	 *
+	 * @param estimator
+	 *            the estimator of tiles
+	 * @param gridLevel
+	 *            size of grid
+	 * @param bandWidth
+	 *            band width
+	 * @param tileGrids
+	 *            grids per side of a tile
+	 * @param directory
+	 *            working directory of the stopped run
+	 * @param maxResident
+	 *            max number of result tiles mapped for reading
+	 * @return the estimator, {@link #add(PointBatch)} cannot be called
+	 * @throws IOException
+	 *             if the stopped run had not spooled all points, it should be
+	 *             started again
+	 */
+	public static TiledEstimator resume(GridEstimator estimator, GridLevel gridLevel, double bandWidth,
+			int tileGrids, File directory, int maxResident) throws IOException {
+		TiledEstimator tiled = new TiledEstimator(estimator, gridLevel, bandWidth, tileGrids, directory,
+				maxResident, true);
+		if (!new File(tiled.spoolDirectory, COMPLETE).isFile()) {
+			throw new IOException("Points of " + directory + " were not all spooled, start a new run.");
+		}
+		String[] names = tiled.spoolDirectory.list();
+		for (String name : names) {
+			if (name.startsWith("points_") && name.endsWith(".bin")) {
+				String[] parts = name.substring(7, name.length() - 4).split("_");
+				tiled.spooled.add(key(Integer.parseInt(parts[0]), Integer.parseInt(parts[1])));
+			}
+		}
+		return tiled;
+	}
+
+	private TiledEstimator(GridEstimator estimator, GridLevel gridLevel, double bandWidth, int tileGrids,
+			File directory, int maxResident, boolean resumed) {
+		this.resumed = resumed;
+		this.estimator = estimator;
+		this.gridLevel = gridLevel;
+		this.z = GridCodec.z(gridLevel);
+		this.bandWidth = bandWidth;
+		this.radius = estimator.getKernel().radius(bandWidth);
+		this.tileGrids = tileGrids;
+		this.spoolDirectory = new File(directory, "spool");
+		if (!spoolDirectory.isDirectory() && !spoolDirectory.mkdirs()) {
+			throw new InvalidParameterException("Cannot create " + spoolDirectory);
+		}
+		this.store = new MappedDensityStore(new File(directory, "density"), gridLevel, tileGrids, maxResident);
+	}
+
+	/**
+	 * @return the result on disk
+	 */
+	public MappedDensityStore getStore() {
+		return store;
+	}
+
+	/**
+	 * @return number of points added
+	 */
+	public long getPointCount() {
+		return pointCount;
+	}
+
+	private static long key(int tileCol, int tileRow) {
+		return ((long) tileRow << 32) | (tileCol & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Route points to tiles, call it as many times as needed before
+	 * {@link #run(TileSink)}
+	 *
+	 * @param points
+	 *            points as the input, weights are used if it has them
+	 * @throws IOException
+	 *             on failure of spool files
+	 * @throws IllegalStateException
+	 *             if the run is resumed or has started
+	 */
+	public void add(PointBatch points) throws IOException {
+		if (resumed || new File(spoolDirectory, COMPLETE).exists()) {
+			throw new IllegalStateException("Points cannot be added after the run has started.");
+		}
+		int n = points.size();
+		for (int j = 0; j < n; j++) {
+			double x = points.getX(j);
+			double y = points.getY(j);
+			double weight = points.getWeight(j);
+			// the same grids as the footprint of the point in GridEstimator
+			int tc0 = Math.floorDiv(GridCodec.col(x - radius, z), tileGrids);
+			int tc1 = Math.floorDiv(GridCodec.col(x + radius, z), tileGrids);
+			int tr0 = Math.floorDiv(GridCodec.row(y - radius, z), tileGrids);
+			int tr1 = Math.floorDiv(GridCodec.row(y + radius, z), tileGrids);
+			for (int tr = tr0; tr <= tr1; tr++) {
+				for (int tc = tc0; tc <= tc1; tc++) {
+					long key = key(tc, tr);
+					PointBatch batch = pending.get(key);
+					if (batch == null) {
+						batch = PointBatch.allocate(INITIAL_POINTS, true, false);
+						pending.put(key, batch);
+					}
+					batch.add(x, y, weight);
+					pendingPoints++;
+					if (batch.size() >= SPOOL_POINTS) {
+						spool(key, batch);
+						// buffers of tiles are not kept, there may be millions of tiles
+						pending.remove(key);
+					}
+				}
+			}
+		}
+		pointCount += n;
+		if (pendingPoints > MAX_PENDING_POINTS) {
+			spoolAll();
+		}
+	}
+
+	private File spoolFile(long key) {
+		return new File(spoolDirectory,
+				"points_" + DensityGrid.tileCol(key) + "_" + DensityGrid.tileRow(key) + ".bin");
+	}
+
+	private void spool(long key, PointBatch batch) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(spoolFile(key), true)))) {
+			for (int j = 0; j < batch.size(); j++) {
+				out.writeDouble(batch.getX(j));
+				out.writeDouble(batch.getY(j));
+				out.writeDouble(batch.getWeight(j));
+			}
+		}
+		pendingPoints -= batch.size();
+		batch.clear();
+		spooled.add(key);
+	}
+
+	private void spoolAll() throws IOException {
+		for (Map.Entry<Long, PointBatch> entry : pending.entrySet()) {
+			if (entry.getValue().size() > 0) {
+				spool(entry.getKey(), entry.getValue());
+			}
+		}
+		pending.clear();
+	}
+
+	private PointBatch load(long key) throws IOException {
+		File file = spoolFile(key);
+		PointBatch batch = PointBatch.allocate((int) Math.min(Integer.MAX_VALUE, file.length() / 24), true, false);
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			while (true) {
+				double x;
+				try {
+					x = in.readDouble();
+				} catch (EOFException e) {
+					break;
+				}
+				batch.add(x, in.readDouble(), in.readDouble());
+			}
+		}
+		return batch;
+	}
+
+	/**
+	 * Estimate all tiles with points, tile by tile. Only one tile and its
+	 * points are in memory at a time. Spool files of finished tiles are
+	 * deleted, so a failed run can be resumed by calling it again, or by
+	 * {@link #resume} after a crash. No point can be added after it is called.
+	 *
+	 * @param sink
+	 *            receiver of tiles, can be null
+	 * @return number of tiles estimated
+	 * @throws IOException
+	 *             on failure of files, or of the sink
+	 */
+	public int run(TileSink sink) throws IOException {
+		spoolAll();
+		new File(spoolDirectory, COMPLETE).createNewFile();
+		int tiles = 0;
+		while (!spooled.isEmpty()) {
+			long key = spooled.first();
+			int tileCol = DensityGrid.tileCol(key);
+			int tileRow = DensityGrid.tileRow(key);
+			PointBatch points = load(key);
+			DensityGrid density = (estimator.getEngine() == GridEstimator.Engine.POINT
+					? estimator.estimateParallel(points, bandWidth, gridLevel)
+					: estimator.estimateGrid(points, bandWidth, gridLevel));
+			DensityGrid inside = store.write(tileCol, tileRow, density);
+			if (sink != null) {
+				try {
+					sink.accept(tileCol, tileRow, inside);
+				} catch (Exception e) {
+					throw new IOException("Failed to flush tile (" + tileCol + ", " + tileRow + ").", e);
+				}
+			}
+			spoolFile(key).delete();
+			spooled.remove(key);
+			tiles++;
+		}
+		return tiles;
+	}
+
+	/**
+	 * Compare a tiled run with one estimation in memory
+	 */
+	public static void main(String[] args) throws Exception {
+		Random random = new Random(0);
+		PointBatch points = PointBatch.allocate(20000, true, false);
+		for (int i = 0; i < 20000; i++) {
+			points.add(116 + 0.5 * random.nextDouble(), 39 + 0.5 * random.nextDouble(), 1 + random.nextInt(3));
+		}
+		GridEstimator estimator = new GridEstimator();
+		estimator.setEngine(GridEstimator.Engine.POINT);
+		File directory = new File(System.getProperty("java.io.tmpdir"), "tiled" + System.nanoTime());
+		TiledEstimator tiled = new TiledEstimator(estimator, GridLevel.GRID_0_001, 0.01, 128, directory, 4);
+		long t0 = System.nanoTime();
+		tiled.add(points);
+		final double[] sum = { 0 };
+		int tiles = tiled.run(new TileSink() {
+			@Override
+			public void accept(int tileCol, int tileRow, DensityGrid density) {
+				DensityGrid.Cursor cursor = density.cursor();
+				while (cursor.next()) {
+					sum[0] += cursor.density();
+				}
+			}
+		});
+		long t1 = System.nanoTime();
+		DensityGrid whole = estimator.estimateParallel(points, 0.01, GridLevel.GRID_0_001);
+		long t2 = System.nanoTime();
+		double maxError = 0;
+		DensityGrid.Cursor cursor = whole.cursor();
+		while (cursor.next()) {
+			maxError = Math.max(maxError, Math.abs(cursor.density() - tiled.getStore().get(cursor.gridID())));
+		}
+		System.out.println(tiles + " tiles, total " + sum[0] + ", tiled " + (t1 - t0) / 1e6 + "ms, whole "
+				+ (t2 - t1) / 1e6 + "ms, max error " + maxError + ", resident " + tiled.getStore().residentCount());
+		tiled.getStore().clear();
+		for (String name : new String[] { "spool", "density" }) {
+			File sub = new File(directory, name);
+			for (File file : sub.listFiles()) {
+				file.delete();
+			}
+			sub.delete();
+		}
+		directory.delete();
+	}
+}
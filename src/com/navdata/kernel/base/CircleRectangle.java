@@ -0,0 +1,86 @@
+package com.navdata.kernel.base;
+
+/**
+ * Exact area of the intersection of the unit circle (center (0,0), radius 1)
+ * and an axis-aligned rectangle.<br>
+ *
+ * The rectangle is split at the axes into (signed) corner rectangles
+ * [0,x]*[0,y], and the area of each corner is made up of a rectangle and a
+ * circular segment:
+ *
+ * <pre>
+ * G(x, y) = xs*y + S(x) - S(xs), xs = sqrt(1-y*y), S(a) = (a*sqrt(1-a*a) + asin(a))/2
+ * </pre>
+ *
+ * No object is created and GDAL is never called, so it is safe to use from any
+ * thread.
+ *
+ * @author Lin DONG
+ *
+ */
+public final class CircleRectangle {
+
+	private CircleRectangle() {
+	}
+
+	/**
+	 * Area of the intersection of (unit circle) and [x0,x1]*[y0,y1]
+	 *
+	 * @param x0
+	 *            min x
+	 * @param x1
+	 *            max x
+	 * @param y0
+	 *            min y
+	 * @param y1
+	 *            max y
+	 * @return the area, 0 if they do not intersect
+	 */
+	public static double area(double x0, double x1, double y0, double y1) {
+		// clip to the bounding square of the circle
+		x0 = clamp(x0);
+		x1 = clamp(x1);
+		y0 = clamp(y0);
+		y1 = clamp(y1);
+		if (x0 >= x1 || y0 >= y1) {
+			return 0;
+		}
+		double area = corner(x1, y1) - corner(x0, y1) - corner(x1, y0) + corner(x0, y0);
+		// rounding may produce a tiny negative value near the boundary
+		return area > 0 ? area : 0;
+	}
+
+	/**
+	 * Signed area of the intersection of (unit circle) and [0,x]*[0,y], x and y in [-1,1]. The sign is
+	 * negative if exactly one of x, y is negative.
+	 */
+	private static double corner(double x, double y) {
+		double sign = 1;
+		if (x < 0) {
+			x = -x;
+			sign = -sign;
+		}
+		if (y < 0) {
+			y = -y;
+			sign = -sign;
+		}
+		// the corner is within the circle
+		if (x * x + y * y <= 1) {
+			return sign * x * y;
+		}
+		// the arc cuts the top edge at xs
+		double xs = Math.sqrt(1 - y * y);
+		return sign * (xs * y + segment(x) - segment(xs));
+	}
+
+	/**
+	 * Integral of sqrt(1-t*t) over [0,a], a in [0,1]
+	 */
+	private static double segment(double a) {
+		return 0.5 * (a * Math.sqrt(1 - a * a) + Math.asin(a));
+	}
+
+	private static double clamp(double v) {
+		return v < -1 ? -1 : (v > 1 ? 1 : v);
+	}
+}
@@ -0,0 +1,29 @@
+package com.navdata.kernel.base;
+
+/**
+ * 1D Epanechnikov kernel, f(u) = 3/4*(1-u*u) on [-1, 1].
+ * 
+ * @author Lin DONG
+ *
+ */
+public class EpanechnikovKernel extends Kernel {
+
+	@Override
+	public double k(double x0, double x1, double h) {
+		super.checkParameters(x0, x1, h);
+		return cdf(x1 / h) - cdf(x0 / h);
+	}
+
+	/**
+	 * P(u'<=u), u in bandwidths
+	 */
+	private static double cdf(double u) {
+		if (u <= -1) {
+			return 0;
+		}
+		if (u >= 1) {
+			return 1;
+		}
+		return 0.5 + 0.75 * u - 0.25 * u * u * u;
+	}
+}
@@ -0,0 +1,15 @@
+package com.navdata.kernel.base;
+
+/**
+ * 2D Epanechnikov (product) kernel, f(x,y) = 9/16*(1-x*x)*(1-y*y) on
+ * [-1,1]*[-1,1].
+ * 
+ * @author Lin DONG
+ *
+ */
+public class EpanechnikovKernel2D extends SeparableKernel2D {
+
+	public EpanechnikovKernel2D() {
+		super(new EpanechnikovKernel());
+	}
+}
@@ -0,0 +1,29 @@
+package com.navdata.kernel.base;
+
+/**
+ * 2D Gaussian kernel, bandwidth is the standard deviation. It is truncated at
+ * t standard deviations in x and y, see {@link GaussianKernel} for the error
+ * bound.
+ * 
+ * @author Lin DONG
+ *
+ */
+public class GaussianKernel2D extends SeparableKernel2D {
+
+	/**
+	 * Create a Gaussian kernel truncated at 3 standard deviations
+	 */
+	public GaussianKernel2D() {
+		super(new GaussianKernel());
+	}
+
+	/**
+	 * Create a Gaussian kernel
+	 * 
+	 * @param truncation
+	 *            t, the kernel is truncated at [-t*h, t*h] in x and y
+	 */
+	public GaussianKernel2D(double truncation) {
+		super(new GaussianKernel(truncation));
+	}
+}
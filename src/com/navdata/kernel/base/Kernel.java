@@ -24,6 +24,17 @@ public abstract class Kernel {
 	 */
 	abstract public double k(double x0, double x1, double h);
 
+	/**
+	 * Effective range of the kernel, the probability out of [-radius, radius] is 0.
+	 * 
+	 * @param h
+	 *            bandwidth
+	 * @return radius, h by default
+	 */
+	public double radius(double h) {
+		return h;
+	}
+
 	/**
 	 * Check parameters, throws {@link InvalidParameterException}
 	 * 
@@ -28,6 +28,17 @@ abstract public class Kernel2D {
 	 */
 	abstract public double k(double x0, double x1, double y0, double y1, double h);
 
+	/**
+	 * Effective range of the kernel, the probability out of [-radius, radius] (in both x and y) is 0.
+	 * 
+	 * @param h
+	 *            bandwidth
+	 * @return radius, h by default
+	 */
+	public double radius(double h) {
+		return h;
+	}
+
 	/**
 	 * Check parameters, throws {@link InvalidParameterException}.
 	 * 
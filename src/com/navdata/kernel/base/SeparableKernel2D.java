@@ -0,0 +1,50 @@
+package com.navdata.kernel.base;
+
+/**
+ * 2D product kernel f(x,y) = f(x)*f(y) built with a 1D {@link Kernel}. The
+ * integral over a rectangle is the product of two 1D integrals, so no
+ * geometry is involved, and the weights of a row (column) of grids can be
+ * shared by all columns (rows).<br>
+ * 
+ * Note the support is the square [-radius, radius]*[-radius, radius], not a
+ * circle. The Gaussian product kernel is still isotropic.
+ * 
+ * @author Lin DONG
+ *
+ */
+public class SeparableKernel2D extends Kernel2D {
+
+	private final Kernel kernel;
+
+	/**
+	 * Create a product kernel
+	 * 
+	 * @param kernel
+	 *            the 1D kernel used in both x and y
+	 */
+	public SeparableKernel2D(Kernel kernel) {
+		this.kernel = kernel;
+	}
+
+	/**
+	 * @return the 1D kernel used in both x and y
+	 */
+	public Kernel getKernel() {
+		return kernel;
+	}
+
+	@Override
+	public double k(double x0, double x1, double y0, double y1, double h) {
+		super.checkParameters(x0, x1, y0, y1, h);
+		double px = kernel.k(x0, x1, h);
+		if (px == 0) {
+			return 0;
+		}
+		return px * kernel.k(y0, y1, h);
+	}
+
+	@Override
+	public double radius(double h) {
+		return kernel.radius(h);
+	}
+}
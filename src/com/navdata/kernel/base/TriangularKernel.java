@@ -0,0 +1,32 @@
+package com.navdata.kernel.base;
+
+/**
+ * 1D triangular kernel, f(u) = 1-|u| on [-1, 1].
+ * 
+ * @author Lin DONG
+ *
+ */
+public class TriangularKernel extends Kernel {
+
+	@Override
+	public double k(double x0, double x1, double h) {
+		super.checkParameters(x0, x1, h);
+		return cdf(x1 / h) - cdf(x0 / h);
+	}
+
+	/**
+	 * P(u'<=u), u in bandwidths
+	 */
+	private static double cdf(double u) {
+		if (u <= -1) {
+			return 0;
+		}
+		if (u >= 1) {
+			return 1;
+		}
+		if (u <= 0) {
+			return 0.5 * (1 + u) * (1 + u);
+		}
+		return 1 - 0.5 * (1 - u) * (1 - u);
+	}
+}
@@ -0,0 +1,14 @@
+package com.navdata.kernel.base;
+
+/**
+ * 2D triangular (product) kernel, f(x,y) = (1-|x|)*(1-|y|) on [-1,1]*[-1,1].
+ * 
+ * @author Lin DONG
+ *
+ */
+public class TriangularKernel2D extends SeparableKernel2D {
+
+	public TriangularKernel2D() {
+		super(new TriangularKernel());
+	}
+}
@@ -2,54 +2,109 @@ package com.navdata.kernel.base;
 
 import org.gdal.ogr.Geometry;
 
+import com.navdata.metrics.Counter;
+import com.navdata.metrics.Metrics;
+
 /**
- * 2D uniform kernel.
+ * 2D uniform kernel.<br>
+ * 
+ * Two ways are available to get the area of the intersection of circle and grid, see {@link Method}.
+ * Run {@link #main(String[])} to compare them.
  * @author Lin DONG
  *
  */
 public class UniformKernel2D extends Kernel2D{
 
+	/**
+	 * How to calculate the intersection of the circle and a rectangle that crosses the boundary
+	 */
+	public enum Method {
+		/**
+		 * Intersect with an N edges polygon by OGR, the original way
+		 */
+		POLYGON,
+		/**
+		 * Closed-form area by {@link CircleRectangle}, no GDAL call and no allocation
+		 */
+		ANALYTIC
+	}
+
 	/**
 	 * The area of a circle (radius = 1)
 	 */
 	protected final static double AREA = 1*1*Math.PI;
 	
 	/**
-	 * A standard circle, infact it is a polygon
+	 * SQRT(2)/2, length(side of the inscribed square of the circle) 
 	 */
-	protected final static Geometry CIRCLE;
+	private final static double A = Math.sqrt(2)/2;
 	
 	/**
-	 * Use an N edges polygon to simulate the circle
+	 * Holder of the OGR circle, only {@link Method#POLYGON} touches it, so the class can be loaded
+	 * and used by {@link Method#ANALYTIC} without native GDAL
 	 */
-	private final static int N = 100;
+	private static class Circle {
+		/**
+		 * Use an N edges polygon to simulate the circle
+		 */
+		private final static int N = 100;
+		
+		/**
+		 * A standard circle, infact it is a polygon
+		 */
+		private final static Geometry CIRCLE;
+		
+		//Build a circle
+		static {
+			StringBuffer sb = new StringBuffer();
+			sb.append("POLYGON((");
+			for(int i=0;i<N;i++) {
+				double x, y;
+				if(i == 0) {
+					x = 0;
+					y = 1;
+				}else {
+					double angle = i*(2*Math.PI/N);
+					x = Math.sin(angle);
+					y = Math.cos(angle);
+				}
+				sb.append(x);
+				sb.append(' ');
+				sb.append(y);
+				sb.append(',');
+			}
+			sb.append("0 1))");
+			CIRCLE = Geometry.CreateFromWkt(sb.toString());
+		}
+	}
+	
+	private static final Counter OUTSIDE = Metrics.counter("kernel.uniform.zero");
+	private static final Counter INSIDE = Metrics.counter("kernel.uniform.inside");
+	private static final Counter INTERSECT = Metrics.counter("kernel.uniform.intersect");
+
+	private final Method method;
 	
 	/**
-	 * SQRT(2)/2, length(side of the inscribed square of CIRCLE) 
+	 * Create a uniform kernel using {@link Method#ANALYTIC}, which needs no GDAL
 	 */
-	private final static double A = Math.sqrt(2)/2;
+	public UniformKernel2D() {
+		this(Method.ANALYTIC);
+	}
 	
-	//Build a circle
-	static {
-		StringBuffer sb = new StringBuffer();
-		sb.append("POLYGON((");
-		for(int i=0;i<N;i++) {
-			double x, y;
-			if(i == 0) {
-				x = 0;
-				y = 1;
-			}else {
-				double angle = i*(2*Math.PI/N);
-				x = Math.sin(angle);
-				y = Math.cos(angle);
-			}
-			sb.append(x);
-			sb.append(' ');
-			sb.append(y);
-			sb.append(',');
-		}
-		sb.append("0 1))");
-		CIRCLE = Geometry.CreateFromWkt(sb.toString());
+	/**
+	 * Create a uniform kernel
+	 * @param method how to calculate the boundary grids, null means {@link Method#ANALYTIC}.
+	 * {@link Method#POLYGON} needs native GDAL
+	 */
+	public UniformKernel2D(Method method) {
+		this.method = (method == null ? Method.ANALYTIC : method);
+	}
+	
+	/**
+	 * @return how the boundary grids are calculated
+	 */
+	public Method getMethod() {
+		return method;
 	}
 	
 	@Override
@@ -60,6 +115,9 @@ public class UniformKernel2D extends Kernel2D{
 		
 		//1: no common area
 		if(x0>=h || y0>=h || x1<=-h || y1<=-h) {
+			if(Metrics.ENABLED) {
+				OUTSIDE.increment();
+			}
 			return 0;
 		}
 		//circle is treated as radius=1,  rectangle should be resized to 1/h
@@ -69,6 +127,9 @@ public class UniformKernel2D extends Kernel2D{
 		y1/=h;	
 		//2: rectangle within circle
 		if(x0>=-A && x1<=A && y0>=-A && y1<=A) {
+			if(Metrics.ENABLED) {
+				INSIDE.increment();
+			}
 			double rectangleArea = (x1-x0)*(y1-y0);
 			double fullArea = AREA;
 			double probability = rectangleArea/fullArea;
@@ -76,7 +137,12 @@ public class UniformKernel2D extends Kernel2D{
 		}
 		
 		//3: intersects, but not within
-
+		if(Metrics.ENABLED) {
+			INTERSECT.increment();
+		}
+		if(method == Method.ANALYTIC) {
+			return CircleRectangle.area(x0, x1, y0, y1)/AREA;
+		}
 		StringBuffer sb = new StringBuffer();
 		sb.append("POLYGON((");
 		sb.append(x0);sb.append(' ');sb.append(y0);sb.append(',');
@@ -85,12 +151,56 @@ public class UniformKernel2D extends Kernel2D{
 		sb.append(x0);sb.append(" ");sb.append(y1);sb.append(',');
 		sb.append(x0);sb.append(" ");sb.append(y0);sb.append("))");
 		Geometry polygon = Geometry.CreateFromWkt(sb.toString());
-		Geometry intersection = polygon.Intersection(CIRCLE);
+		Geometry intersection = polygon.Intersection(Circle.CIRCLE);
 		double area = intersection.GetArea();
+		//release native geometries
+		intersection.delete();
+		polygon.delete();
 		double probability = area/AREA;
 		return probability;
 	}
 
-	
+	/**
+	 * Accuracy report: compare {@link Method#POLYGON} with {@link Method#ANALYTIC} on random boundary grids.
+	 * @param args [number of samples], the default is 100000
+	 */
+	public static void main(String[] args) {
+		int n = (args.length > 0 ? Integer.parseInt(args[0]) : 100000);
+		UniformKernel2D polygon = new UniformKernel2D(Method.POLYGON);
+		UniformKernel2D analytic = new UniformKernel2D(Method.ANALYTIC);
+		java.util.Random random = new java.util.Random(0);
+		double h = 1;
+		double maxAbs = 0, maxRel = 0, sumAbs = 0;
+		int count = 0;
+		long tPolygon = 0, tAnalytic = 0;
+		while(count < n) {
+			//grids of random size around the boundary
+			double size = 0.01 + random.nextDouble()*0.5;
+			double x0 = random.nextDouble()*2.4-1.2;
+			double y0 = random.nextDouble()*2.4-1.2;
+			double x1 = x0+size, y1 = y0+size;
+			long t0 = System.nanoTime();
+			double p = polygon.k(x0, x1, y0, y1, h);
+			long t1 = System.nanoTime();
+			double a = analytic.k(x0, x1, y0, y1, h);
+			long t2 = System.nanoTime();
+			if(p == a) {//outside or within, the same branch
+				continue;
+			}
+			tPolygon += t1-t0;
+			tAnalytic += t2-t1;
+			double abs = Math.abs(p-a);
+			sumAbs += abs;
+			maxAbs = Math.max(maxAbs, abs);
+			if(a > 0) {
+				maxRel = Math.max(maxRel, abs/a);
+			}
+			count++;
+		}
+		System.out.println("boundary grids: "+count);
+		System.out.println("max abs error: "+maxAbs+", mean abs error: "+sumAbs/count);
+		System.out.println("max rel error: "+maxRel);
+		System.out.println("polygon: "+tPolygon/count+"ns/grid, analytic: "+tAnalytic/count+"ns/grid");
+	}
 
 }
@@ -1,5 +1,6 @@
 package com.navdata.kernel.base;
 
+import com.navdata.kernel.Breakpoints;
 
 /**
  * Map values to index
@@ -9,9 +10,57 @@ package com.navdata.kernel.base;
 public abstract class ValueMapper {
 	
 	/**
-	 * Map values to index, in other words, give an integer mark to each input value according to some rule
+	 * Fit the separators of classes on values
+	 * @param values input values
+	 * @return the separators, they can be saved and reused, see {@link Breakpoints}
+	 */
+	abstract public Breakpoints fit(double... values);
+
+	/**
+	 * Map values to index, in other words, give an integer mark to each input value according to some rule.
+	 * The default is to classify the values by {@link #fit(double...)} of themselves.
 	 * @param values input values
 	 * @return marks of the input values
 	 */
-	abstract public int[] map(double... values);
+	public int[] map(double... values) {
+		Breakpoints breakpoints = fit(values);
+		byte[] classes = new byte[values.length];
+		breakpoints.transform(values, classes);
+		return toIndex(classes);
+	}
+
+	/**
+	 * Widen classes written by {@link Breakpoints#transform(double[], byte[])}
+	 * @param classes classes in bytes
+	 * @return the classes
+	 */
+	protected static int[] toIndex(byte[] classes) {
+		int[] result = new int[classes.length];
+		for(int i=0;i<classes.length;i++) {
+			result[i] = classes[i] & 0xFF;
+		}
+		return result;
+	}
+
+	/**
+	 * Find the class of a value by binary search, classes start from 1.
+	 * @param value the value
+	 * @param seps ascending separators, seps[i] is the lower bound of class i+1
+	 * @return the class
+	 */
+	public static int findIndex(double value, double[] seps) {
+		int N =seps.length;
+		int l = 0;
+		int h = N-1;		
+		//bin search
+		while(h-l>1) {
+			int half = (l+h)/2;
+			if(value<seps[half]) {	
+				h = half;
+			}else {
+				l = half;
+			}
+		}		
+		return l+1;
+	}
 }
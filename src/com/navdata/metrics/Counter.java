@@ -0,0 +1,55 @@
+package com.navdata.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A striped counter, threads add to their own cells so hot loops do not
+ * contend.
+ *
+ * @author Lin DONG
+ *
+ */
+public final class Counter {
+	private final String name;
+	private final LongAdder value = new LongAdder();
+
+	Counter(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return name of the counter
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Add 1
+	 */
+	public void increment() {
+		value.increment();
+	}
+
+	/**
+	 * @param n
+	 *            value to add
+	 */
+	public void add(long n) {
+		value.add(n);
+	}
+
+	/**
+	 * @return current value
+	 */
+	public long sum() {
+		return value.sum();
+	}
+
+	/**
+	 * Set to 0
+	 */
+	public void reset() {
+		value.reset();
+	}
+}
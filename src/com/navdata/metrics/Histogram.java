@@ -0,0 +1,117 @@
+package com.navdata.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * A histogram of non-negative values, such as nanoseconds or bytes, with
+ * power-of-2 buckets: bucket b holds values in [2^(b-1), 2^b). Percentiles are
+ * the upper bounds of buckets, within a factor of 2. Recording is lock-free.
+ *
+ * @author Lin DONG
+ *
+ */
+public final class Histogram {
+	private static final int BUCKETS = 64;
+
+	private final String name;
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(new LongBinaryOperator() {
+		@Override
+		public long applyAsLong(long a, long b) {
+			return Math.max(a, b);
+		}
+	}, 0);
+
+	Histogram(String name) {
+		this.name = name;
+		for (int b = 0; b < BUCKETS; b++) {
+			buckets[b] = new LongAdder();
+		}
+	}
+
+	/**
+	 * @return name of the histogram
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Record a value, negative values are recorded as 0
+	 *
+	 * @param value
+	 *            the value
+	 */
+	public void record(long value) {
+		long v = Math.max(0, value);
+		buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(v))].increment();
+		count.increment();
+		sum.add(v);
+		max.accumulate(v);
+	}
+
+	/**
+	 * @return number of values
+	 */
+	public long count() {
+		return count.sum();
+	}
+
+	/**
+	 * @return sum of values
+	 */
+	public long sum() {
+		return sum.sum();
+	}
+
+	/**
+	 * @return max value
+	 */
+	public long max() {
+		return max.get();
+	}
+
+	/**
+	 * Approximate percentile
+	 *
+	 * @param p
+	 *            percentile, 0 to 100
+	 * @return upper bound of the bucket of the percentile, 0 if it is empty
+	 */
+	public long percentile(double p) {
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int b = 0; b < BUCKETS; b++) {
+			counts[b] = buckets[b].sum();
+			total += counts[b];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(total * p / 100);
+		long seen = 0;
+		for (int b = 0; b < BUCKETS; b++) {
+			seen += counts[b];
+			if (seen >= rank && counts[b] > 0) {
+				return Math.min(max(), b == 0 ? 0 : (b >= 63 ? Long.MAX_VALUE : (1L << b) - 1));
+			}
+		}
+		return max();
+	}
+
+	/**
+	 * Clear all values
+	 */
+	public void reset() {
+		for (LongAdder bucket : buckets) {
+			bucket.reset();
+		}
+		count.reset();
+		sum.reset();
+		max.reset();
+	}
+}
@@ -0,0 +1,113 @@
+package com.navdata.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * Expose the last published values as read-only attributes of an MBean, so
+ * they can be watched with jconsole or collected by a JMX exporter. The values
+ * change when the reporter publishes ({@link Metrics#startReporter}), so every
+ * read of a period is consistent. See com.navdata.bench.MetricsDemo for a
+ * demo.
+ *
+ * @author Lin DONG
+ *
+ */
+public class JmxSink implements MetricsSink, DynamicMBean {
+	/**
+	 * The default object name
+	 */
+	public static final String DEFAULT_NAME = "com.navdata:type=Metrics";
+
+	private volatile Map<String, Long> values = Collections.emptyMap();
+
+	@Override
+	public void publish(Map<String, Long> values) {
+		this.values = Collections.unmodifiableMap(values);
+	}
+
+	/**
+	 * Register to the platform MBean server
+	 *
+	 * @param name
+	 *            object name, null means {@link #DEFAULT_NAME}
+	 * @return the object name, null if it failed
+	 */
+	public ObjectName register(String name) {
+		try {
+			ObjectName objectName = new ObjectName(name == null ? DEFAULT_NAME : name);
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+			server.registerMBean(this, objectName);
+			return objectName;
+		} catch (JMException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		Long value = values.get(attribute);
+		if (value == null) {
+			throw new AttributeNotFoundException(attribute);
+		}
+		return value;
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		Map<String, Long> current = values;
+		AttributeList list = new AttributeList();
+		for (String attribute : attributes) {
+			Long value = current.get(attribute);
+			if (value != null) {
+				list.add(new Attribute(attribute, value));
+			}
+		}
+		return list;
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+		// there is no operation
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		Map<String, Long> current = values;
+		MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[current.size()];
+		int i = 0;
+		for (String name : current.keySet()) {
+			attributes[i++] = new MBeanAttributeInfo(name, "long", name, true, false, false);
+		}
+		return new MBeanInfo(getClass().getName(), "Metrics of the hot paths", attributes, null,
+				new MBeanOperationInfo[0], null);
+	}
+}
@@ -0,0 +1,47 @@
+package com.navdata.metrics;
+
+import java.io.PrintStream;
+import java.util.Map;
+
+/**
+ * Print values as one line: <code>metrics name=value name=value ...</code>
+ *
+ * @author Lin DONG
+ *
+ */
+public class LogSink implements MetricsSink {
+	private final PrintStream out;
+
+	/**
+	 * Print to System.err
+	 */
+	public LogSink() {
+		this(System.err);
+	}
+
+	/**
+	 * @param out
+	 *            where to print
+	 */
+	public LogSink(PrintStream out) {
+		this.out = out;
+	}
+
+	@Override
+	public void publish(Map<String, Long> values) {
+		out.println(format(values));
+	}
+
+	/**
+	 * @param values
+	 *            name to value
+	 * @return values as one line
+	 */
+	public static String format(Map<String, Long> values) {
+		StringBuilder sb = new StringBuilder("metrics");
+		for (Map.Entry<String, Long> entry : values.entrySet()) {
+			sb.append(' ').append(entry.getKey()).append('=').append(entry.getValue());
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,155 @@
+package com.navdata.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registry of the counters and histograms of the hot paths.<br>
+ *
+ * Metrics are off unless the JVM is started with -Dnavdata.metrics=true.
+ * {@link #ENABLED} is a constant, so call sites written as
+ * <code>if (Metrics.ENABLED) COUNTER.increment();</code> are removed by the JIT
+ * when it is false, and cost nothing.<br>
+ *
+ * Values are published to a {@link MetricsSink} ({@link LogSink},
+ * {@link JmxSink}) periodically by {@link #startReporter}.
+ *
+ * @author Lin DONG
+ *
+ */
+public final class Metrics {
+	/**
+	 * Whether metrics are collected, from the system property navdata.metrics
+	 */
+	public static final boolean ENABLED = Boolean.getBoolean("navdata.metrics");
+
+	private static final ConcurrentMap<String, Counter> COUNTERS = new ConcurrentHashMap<>();
+	private static final ConcurrentMap<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<>();
+	private static ScheduledExecutorService reporter = null;
+
+	private Metrics() {
+	}
+
+	/**
+	 * Get or create a counter, call it once and keep the counter in a static
+	 * field
+	 *
+	 * @param name
+	 *            name of the counter
+	 * @return the counter
+	 */
+	public static Counter counter(String name) {
+		Counter counter = COUNTERS.get(name);
+		if (counter == null) {
+			Counter created = new Counter(name);
+			counter = COUNTERS.putIfAbsent(name, created);
+			if (counter == null) {
+				counter = created;
+			}
+		}
+		return counter;
+	}
+
+	/**
+	 * Get or create a histogram, call it once and keep the histogram in a static
+	 * field
+	 *
+	 * @param name
+	 *            name of the histogram
+	 * @return the histogram
+	 */
+	public static Histogram histogram(String name) {
+		Histogram histogram = HISTOGRAMS.get(name);
+		if (histogram == null) {
+			Histogram created = new Histogram(name);
+			histogram = HISTOGRAMS.putIfAbsent(name, created);
+			if (histogram == null) {
+				histogram = created;
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * Current values, sorted by name. A counter is one value, a histogram is
+	 * name.count, name.sum, name.max, name.p50 and name.p99.
+	 *
+	 * @return name to value
+	 */
+	public static Map<String, Long> snapshot() {
+		Map<String, Long> values = new TreeMap<>();
+		for (Counter counter : COUNTERS.values()) {
+			values.put(counter.getName(), counter.sum());
+		}
+		for (Histogram histogram : HISTOGRAMS.values()) {
+			String name = histogram.getName();
+			values.put(name + ".count", histogram.count());
+			values.put(name + ".sum", histogram.sum());
+			values.put(name + ".max", histogram.max());
+			values.put(name + ".p50", histogram.percentile(50));
+			values.put(name + ".p99", histogram.percentile(99));
+		}
+		return values;
+	}
+
+	/**
+	 * Set all metrics to 0
+	 */
+	public static void reset() {
+		for (Counter counter : COUNTERS.values()) {
+			counter.reset();
+		}
+		for (Histogram histogram : HISTOGRAMS.values()) {
+			histogram.reset();
+		}
+	}
+
+	/**
+	 * Publish {@link #snapshot()} to a sink periodically, on a daemon thread.
+	 * Only one reporter runs, a running one is stopped first.
+	 *
+	 * @param sink
+	 *            where to publish
+	 * @param period
+	 *            period
+	 * @param unit
+	 *            unit of period
+	 */
+	public static synchronized void startReporter(final MetricsSink sink, long period, TimeUnit unit) {
+		stopReporter();
+		reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "metrics-reporter");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		reporter.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					sink.publish(snapshot());
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+		}, period, period, unit);
+	}
+
+	/**
+	 * Stop the reporter, if it is running
+	 */
+	public static synchronized void stopReporter() {
+		if (reporter != null) {
+			reporter.shutdownNow();
+			reporter = null;
+		}
+	}
+}
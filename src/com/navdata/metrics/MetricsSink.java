@@ -0,0 +1,19 @@
+package com.navdata.metrics;
+
+import java.util.Map;
+
+/**
+ * Where the values of {@link Metrics} are published
+ *
+ * @author Lin DONG
+ *
+ */
+public interface MetricsSink {
+	/**
+	 * Publish values
+	 *
+	 * @param values
+	 *            name to value, see {@link Metrics#snapshot()}
+	 */
+	void publish(Map<String, Long> values);
+}
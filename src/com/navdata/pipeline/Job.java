@@ -0,0 +1,62 @@
+package com.navdata.pipeline;
+
+/**
+ * A job of the pipeline: one kind of POI in one city.
+ *
+ * @author Lin DONG
+ *
+ */
+public class Job {
+	private final String city;
+	private final String kind;
+
+	/**
+	 * @param city
+	 *            name or code of the city
+	 * @param kind
+	 *            kind of POI
+	 */
+	public Job(String city, String kind) {
+		this.city = city;
+		this.kind = kind;
+	}
+
+	/**
+	 * @return name or code of the city
+	 */
+	public String getCity() {
+		return city;
+	}
+
+	/**
+	 * @return kind of POI
+	 */
+	public String getKind() {
+		return kind;
+	}
+
+	/**
+	 * @return city + "/" + kind, the key in the journal
+	 */
+	public String key() {
+		return city + "/" + kind;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof Job)) {
+			return false;
+		}
+		return key().equals(((Job) obj).key());
+	}
+
+	@Override
+	public int hashCode() {
+		return key().hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return key();
+	}
+}
@@ -0,0 +1,85 @@
+package com.navdata.pipeline;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Journal of finished jobs, so that an interrupted run can be resumed. It is a
+ * text file, one job key per line, appended and flushed when a job finishes.
+ *
+ * @author Lin DONG
+ *
+ */
+public class Journal implements Closeable {
+	private final Set<String> done = ConcurrentHashMap.newKeySet();
+	private final Writer writer;
+
+	/**
+	 * Open a journal, finished jobs in it are loaded
+	 *
+	 * @param file
+	 *            the file, created if it does not exist
+	 * @throws IOException
+	 *             on failure
+	 */
+	public Journal(File file) throws IOException {
+		if (file.exists()) {
+			try (BufferedReader reader = new BufferedReader(
+					new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+				for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+					if (!line.isEmpty()) {
+						done.add(line);
+					}
+				}
+			}
+		}
+		writer = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param job
+	 *            the job
+	 * @return whether the job has finished
+	 */
+	public boolean isDone(Job job) {
+		return done.contains(job.key());
+	}
+
+	/**
+	 * Record a finished job
+	 *
+	 * @param job
+	 *            the job
+	 * @throws IOException
+	 *             on failure
+	 */
+	public synchronized void markDone(Job job) throws IOException {
+		if (done.add(job.key())) {
+			writer.write(job.key());
+			writer.write('\n');
+			writer.flush();
+		}
+	}
+
+	/**
+	 * @return number of finished jobs
+	 */
+	public int size() {
+		return done.size();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		writer.close();
+	}
+}
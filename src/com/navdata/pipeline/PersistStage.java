@@ -0,0 +1,15 @@
+package com.navdata.pipeline;
+
+/**
+ * A stage that saves the results of a job, such as
+ * {@link Stages#writeGridFile(java.io.File)}. It must be the last stage of a
+ * {@link Pipeline}: a job is recorded in the {@link Journal} only after it has
+ * returned normally, so a job is skipped on resume only if its results have
+ * been saved. It should save atomically, or so that saving again replaces
+ * what a failed attempt left.
+ *
+ * @author Lin DONG
+ *
+ */
+public interface PersistStage extends Stage {
+}
@@ -0,0 +1,305 @@
+package com.navdata.pipeline;
+
+import java.awt.geom.Point2D;
+import java.io.File;
+import java.nio.file.Files;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.navdata.gdalutils.GdalResources;
+import com.navdata.kernel.Classifier100;
+import com.navdata.kernel.GridEstimator;
+import com.navinfo.grid.GridLevel;
+
+/**
+ * Run jobs (city, kind) through stages, such as estimate, classify, rasterize
+ * and contour (see {@link Stages}), so that the whole country can be processed
+ * on one machine with every core busy.<br>
+ *
+ * Every stage has its own workers and a bounded input queue. A worker blocks
+ * when the next queue is full, so slow stages hold back fast ones and the
+ * number of items in memory is bounded by the queues and workers. The last
+ * stage must be a {@link PersistStage}: a job is recorded in the
+ * {@link Journal} only after its results have been saved, and skipped when the
+ * run is resumed. A failed job is dropped and logged, it will be run again on
+ * resume.
+ *
+ * @author Lin DONG
+ *
+ */
+public class Pipeline {
+	/**
+	 * Default capacity of queues between stages
+	 */
+	public static final int DEFAULT_QUEUE_CAPACITY = 4;
+
+	/**
+	 * End of input of a worker
+	 */
+	private static final WorkItem POISON = new WorkItem(new Job("", ""));
+
+	private final Journal journal;
+	private final List<Stage> stages = new ArrayList<>();
+	private final List<Integer> workers = new ArrayList<>();
+	private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+	/**
+	 * Create a pipeline
+	 *
+	 * @param journal
+	 *            journal of finished jobs, null if the run is not resumable
+	 */
+	public Pipeline(Journal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * Append a stage
+	 *
+	 * @param stage
+	 *            the stage, the last one must be a {@link PersistStage}
+	 * @param workerCount
+	 *            number of workers
+	 */
+	public void addStage(Stage stage, int workerCount) {
+		if (stage == null || workerCount < 1) {
+			throw new InvalidParameterException("Invalid stage or worker count.");
+		}
+		stages.add(stage);
+		workers.add(workerCount);
+	}
+
+	/**
+	 * @param queueCapacity
+	 *            capacity of queues between stages
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		if (queueCapacity < 1) {
+			throw new InvalidParameterException("Queue capacity should be positive.");
+		}
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * Run the jobs, jobs finished in the journal are skipped.
+	 *
+	 * @param jobs
+	 *            the jobs
+	 * @return timing of stages
+	 * @throws InterruptedException
+	 *             if it is interrupted, workers are stopped
+	 * @throws InvalidParameterException
+	 *             if the last stage is not a {@link PersistStage}
+	 */
+	public List<StageStats> run(final Collection<Job> jobs) throws InterruptedException {
+		if (stages.isEmpty()) {
+			throw new InvalidParameterException("No stage.");
+		}
+		if (!(stages.get(stages.size() - 1) instanceof PersistStage)) {
+			throw new InvalidParameterException("The last stage should be a PersistStage.");
+		}
+		final int n = stages.size();
+		final List<BlockingQueue<WorkItem>> queues = new ArrayList<>();
+		final List<StageStats> stats = new ArrayList<>();
+		final List<AtomicInteger> running = new ArrayList<>();
+		for (int k = 0; k < n; k++) {
+			queues.add(new ArrayBlockingQueue<WorkItem>(queueCapacity));
+			stats.add(new StageStats(stages.get(k).getName(), workers.get(k)));
+			running.add(new AtomicInteger(workers.get(k)));
+		}
+		List<Thread> threads = new ArrayList<>();
+		threads.add(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for (Job job : jobs) {
+						if (journal == null || !journal.isDone(job)) {
+							queues.get(0).put(new WorkItem(job));
+						}
+					}
+				} catch (InterruptedException e) {
+					// jobs not taken yet are dropped, the workers still get their poison
+					queues.get(0).clear();
+					Thread.currentThread().interrupt();
+				} finally {
+					poison(queues.get(0), workers.get(0), running.get(0));
+				}
+			}
+		}, "pipeline-feeder"));
+		for (int k = 0; k < n; k++) {
+			final int stage = k;
+			final AtomicInteger stageRunning = running.get(k);
+			for (int i = 0; i < workers.get(k); i++) {
+				threads.add(new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							work(stage, queues, stats.get(stage), stageRunning);
+						} finally {
+							// temporary layers of stages live in a datasource of this thread
+							GdalResources.releaseThread();
+						}
+					}
+				}, "pipeline-" + stages.get(k).getName() + "-" + i));
+			}
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		try {
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		} catch (InterruptedException e) {
+			for (Thread thread : threads) {
+				thread.interrupt();
+			}
+			throw e;
+		}
+		return stats;
+	}
+
+	private void work(int stage, List<BlockingQueue<WorkItem>> queues, StageStats stats, AtomicInteger running) {
+		boolean last = (stage == stages.size() - 1);
+		try {
+			while (true) {
+				long t0 = System.nanoTime();
+				WorkItem item = queues.get(stage).take();
+				long t1 = System.nanoTime();
+				stats.waitNanos.addAndGet(t1 - t0);
+				if (item == POISON) {
+					break;
+				}
+				if (!process(stage, item, stats, t1)) {
+					continue;
+				}
+				if (last) {
+					// the last stage is a PersistStage, the results are saved
+					item.close();
+					finish(item.getJob());
+				} else {
+					long t2 = System.nanoTime();
+					queues.get(stage + 1).put(item);
+					stats.waitNanos.addAndGet(System.nanoTime() - t2);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			// the last worker of the stage ends the next stage
+			if (running.decrementAndGet() == 0 && !last && !Thread.currentThread().isInterrupted()) {
+				try {
+					for (int i = 0; i < workers.get(stage + 1); i++) {
+						queues.get(stage + 1).put(POISON);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Put a poison for each worker, even if the thread is interrupted. It gives
+	 * up when all workers of the queue have ended.
+	 */
+	private static void poison(BlockingQueue<WorkItem> queue, int workerCount, AtomicInteger running) {
+		boolean interrupted = Thread.interrupted();
+		int put = 0;
+		while (put < workerCount && running.get() > 0) {
+			try {
+				if (queue.offer(POISON, 100, TimeUnit.MILLISECONDS)) {
+					put++;
+				}
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return true on success, the item is closed on failure
+	 */
+	private boolean process(int stage, WorkItem item, StageStats stats, long start) {
+		try {
+			stages.get(stage).process(item);
+			stats.busyNanos.addAndGet(System.nanoTime() - start);
+			stats.processed.incrementAndGet();
+			return true;
+		} catch (Exception e) {
+			stats.busyNanos.addAndGet(System.nanoTime() - start);
+			stats.failed.incrementAndGet();
+			System.err.println("Job " + item.getJob() + " failed at " + stats.getName());
+			e.printStackTrace();
+			item.close();
+			return false;
+		}
+	}
+
+	private void finish(Job job) {
+		if (journal == null) {
+			return;
+		}
+		try {
+			journal.markDone(job);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Demo: estimate and classify random points of 12 jobs, write the classes as
+	 * grid files, then rasterize, trace and write contours into a temporary
+	 * directory. Rasterize needs GDAL.
+	 */
+	public static void main(String[] args) throws Exception {
+		final Random random = new Random(0);
+		List<Job> jobs = new ArrayList<>();
+		for (String city : Arrays.asList("beijing", "shanghai", "guangzhou")) {
+			for (String kind : Arrays.asList("restaurant", "hotel", "hospital", "school")) {
+				jobs.add(new Job(city, kind));
+			}
+		}
+		File file = File.createTempFile("pipeline", ".journal");
+		File output = Files.createTempDirectory("pipeline").toFile();
+		try (Journal journal = new Journal(file)) {
+			Pipeline pipeline = new Pipeline(journal);
+			pipeline.addStage(Stages.load(new PointSource() {
+				@Override
+				public Point2D[] load(Job job) {
+					Point2D[] points = new Point2D[2000];
+					synchronized (random) {
+						for (int i = 0; i < points.length; i++) {
+							points[i] = new Point2D.Double(116 + 0.2 * random.nextDouble(),
+									39 + 0.2 * random.nextDouble());
+						}
+					}
+					return points;
+				}
+			}), 1);
+			int cores = Runtime.getRuntime().availableProcessors();
+			pipeline.addStage(Stages.estimate(new GridEstimator(), 0.01, GridLevel.GRID_0_002), cores);
+			pipeline.addStage(Stages.classify(new Classifier100()), 1);
+			pipeline.addStage(Stages.writeGridFile(output), 1);
+			pipeline.addStage(Stages.rasterize(GdalResources.getRasterPool()), cores);
+			pipeline.addStage(Stages.contour(10, 0), cores);
+			pipeline.addStage(Stages.writeContours(output), 1);
+			for (StageStats stats : pipeline.run(jobs)) {
+				System.out.println(stats);
+			}
+			System.out.println(journal.size() + " jobs done, journal: " + file + ", results: " + output);
+		}
+		file.delete();
+	}
+}
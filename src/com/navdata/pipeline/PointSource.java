@@ -0,0 +1,21 @@
+package com.navdata.pipeline;
+
+import java.awt.geom.Point2D;
+
+/**
+ * Load the points of a job
+ *
+ * @author Lin DONG
+ *
+ */
+public interface PointSource {
+
+	/**
+	 * @param job
+	 *            the job
+	 * @return points of the job
+	 * @throws Exception
+	 *             on failure
+	 */
+	Point2D[] load(Job job) throws Exception;
+}
@@ -0,0 +1,26 @@
+package com.navdata.pipeline;
+
+/**
+ * A step of the pipeline, such as estimation or classification. A stage is
+ * called by several workers at the same time, so it should be thread-safe.
+ *
+ * @author Lin DONG
+ *
+ */
+public interface Stage {
+
+	/**
+	 * @return name of the stage, used in timing reports
+	 */
+	String getName();
+
+	/**
+	 * Process an item, results are stored into the item
+	 *
+	 * @param item
+	 *            the item
+	 * @throws Exception
+	 *             on failure, the job is dropped and will be run again on resume
+	 */
+	void process(WorkItem item) throws Exception;
+}
@@ -0,0 +1,74 @@
+package com.navdata.pipeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timing of a stage. Busy time is spent in the stage, wait time is spent on
+ * the queues: waiting for input, or for room in the next queue (backpressure).
+ *
+ * @author Lin DONG
+ *
+ */
+public class StageStats {
+	private final String name;
+	private final int workers;
+	final AtomicLong processed = new AtomicLong();
+	final AtomicLong failed = new AtomicLong();
+	final AtomicLong busyNanos = new AtomicLong();
+	final AtomicLong waitNanos = new AtomicLong();
+
+	StageStats(String name, int workers) {
+		this.name = name;
+		this.workers = workers;
+	}
+
+	/**
+	 * @return name of the stage
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return number of workers
+	 */
+	public int getWorkers() {
+		return workers;
+	}
+
+	/**
+	 * @return number of items processed successfully
+	 */
+	public long getProcessed() {
+		return processed.get();
+	}
+
+	/**
+	 * @return number of failed items
+	 */
+	public long getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * @return total time spent in the stage by all workers
+	 */
+	public long getBusyNanos() {
+		return busyNanos.get();
+	}
+
+	/**
+	 * @return total time spent on queues by all workers
+	 */
+	public long getWaitNanos() {
+		return waitNanos.get();
+	}
+
+	@Override
+	public String toString() {
+		long items = getProcessed() + getFailed();
+		return String.format("%s(%d workers): %d done, %d failed, busy %.3fs, wait %.3fs, %.3fms/item", name,
+				workers, getProcessed(), getFailed(), getBusyNanos() / 1e9, getWaitNanos() / 1e9,
+				(items == 0 ? 0 : getBusyNanos() / 1e6 / items));
+	}
+}
@@ -0,0 +1,295 @@
+package com.navdata.pipeline;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import com.navdata.gdalutils.ContourLine;
+import com.navdata.gdalutils.ContourTracer;
+import com.navdata.gdalutils.RasterHandle;
+import com.navdata.gdalutils.RasterPool;
+import com.navdata.gdalutils.Rasterizer;
+import com.navdata.kernel.Classifier100;
+import com.navdata.kernel.DensityGrid;
+import com.navdata.kernel.DensityVisitor;
+import com.navdata.kernel.GridEstimator;
+import com.navdata.kernel.GridFile;
+import com.navinfo.grid.GridLevel;
+
+/**
+ * Common stages: load, estimate, classify, rasterize, contour, and
+ * {@link #writeGridFile(File)} and {@link #writeContours(File)} to save the
+ * results. Each stage drops the results that later stages do not need. A full
+ * chain is estimate, classify, writeGridFile, rasterize, contour,
+ * writeContours.
+ *
+ * @author Lin DONG
+ *
+ */
+public final class Stages {
+
+	private Stages() {
+	}
+
+	/**
+	 * Load points of the job
+	 *
+	 * @param source
+	 *            where to load points from
+	 * @return the stage
+	 */
+	public static Stage load(final PointSource source) {
+		return new Stage() {
+			@Override
+			public String getName() {
+				return "load";
+			}
+
+			@Override
+			public void process(WorkItem item) throws Exception {
+				item.setPoints(source.load(item.getJob()));
+			}
+		};
+	}
+
+	/**
+	 * Estimate the density of points, points are dropped. The estimation of one
+	 * job is sequential, the workers run jobs in parallel.
+	 *
+	 * @param estimator
+	 *            the estimator
+	 * @param bandWidth
+	 *            band width
+	 * @param gridLevel
+	 *            size of grid
+	 * @return the stage
+	 */
+	public static Stage estimate(final GridEstimator estimator, final double bandWidth, final GridLevel gridLevel) {
+		return new Stage() {
+			@Override
+			public String getName() {
+				return "estimate";
+			}
+
+			@Override
+			public void process(WorkItem item) {
+				item.setDensity(estimator.estimateGrid(item.getPoints(), bandWidth, gridLevel));
+				item.setPoints(null);
+			}
+		};
+	}
+
+	/**
+	 * Fit breakpoints of the densities
+	 *
+	 * @param classifier
+	 *            the classifier
+	 * @return the stage
+	 */
+	public static Stage classify(final Classifier100 classifier) {
+		return new Stage() {
+			@Override
+			public String getName() {
+				return "classify";
+			}
+
+			@Override
+			public void process(WorkItem item) {
+				DensityGrid density = item.getDensity();
+				final double[] values = new double[(int) density.size()];
+				density.forEach(new DensityVisitor() {
+					int i = 0;
+
+					@Override
+					public void visit(long gridID, double d) {
+						values[i++] = d;
+					}
+				});
+				item.setBreakpoints(classifier.fit(values));
+			}
+		};
+	}
+
+	/**
+	 * Write the densities into a pooled raster, classes if the item has been
+	 * classified. The densities are dropped.
+	 *
+	 * @param pool
+	 *            the raster pool
+	 * @return the stage
+	 */
+	public static Stage rasterize(final RasterPool pool) {
+		return new Stage() {
+			@Override
+			public String getName() {
+				return "rasterize";
+			}
+
+			@Override
+			public void process(WorkItem item) {
+				RasterHandle raster = Rasterizer.rasterize(item.getDensity(), item.getBreakpoints(), pool);
+				if (raster == null) {
+					throw new IllegalStateException("Failed to rasterize " + item.getJob());
+				}
+				item.setRaster(raster);
+				item.setDensity(null);
+			}
+		};
+	}
+
+	/**
+	 * Trace contours of the raster, 0 is no data if the item has been classified.
+	 * The raster is returned to its pool.
+	 *
+	 * @param interval
+	 *            interval of contours
+	 * @param base
+	 *            base of contours
+	 * @return the stage
+	 */
+	public static Stage contour(final double interval, final double base) {
+		return new Stage() {
+			@Override
+			public String getName() {
+				return "contour";
+			}
+
+			@Override
+			public void process(WorkItem item) {
+				ContourTracer tracer = new ContourTracer(interval, base, item.getBreakpoints() != null, 0);
+				List<ContourLine> contours = tracer.trace(item.getRaster().getDataset(), 1);
+				if (contours == null) {
+					throw new IllegalStateException("Failed to trace " + item.getJob());
+				}
+				item.setContours(contours);
+				item.setRaster(null);
+			}
+		};
+	}
+
+	/**
+	 * Save the densities as a {@link GridFile} named
+	 * directory/city/kind_length.grid, such as beijing/restaurant_0.002.grid,
+	 * so the directory of a city can be served by
+	 * {@link com.navdata.service.IndexService}. If the item has been classified,
+	 * the classes are saved instead of the densities. The file is written beside
+	 * and renamed, a failed job leaves no partial file. The densities are kept
+	 * for later stages such as rasterize.
+	 *
+	 * @param directory
+	 *            root directory of the files
+	 * @return the stage
+	 */
+	public static PersistStage writeGridFile(final File directory) {
+		return new PersistStage() {
+			@Override
+			public String getName() {
+				return "write";
+			}
+
+			@Override
+			public void process(WorkItem item) throws IOException {
+				DensityGrid density = item.getDensity();
+				if (density == null) {
+					throw new IllegalStateException("No density to write for " + item.getJob());
+				}
+				File cityDirectory = new File(directory, item.getJob().getCity());
+				if (!cityDirectory.isDirectory() && !cityDirectory.mkdirs()) {
+					throw new IOException("Cannot create directory " + cityDirectory);
+				}
+				String length = BigDecimal.valueOf(density.getGridLevel().length()).stripTrailingZeros()
+						.toPlainString();
+				File file = new File(cityDirectory, item.getJob().getKind() + "_" + length + ".grid");
+				File temp = new File(cityDirectory, file.getName() + ".tmp");
+				try {
+					GridFile.write(temp, density, item.getBreakpoints(), GridFile.DEFAULT_BLOCK_SIZE);
+					Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+							StandardCopyOption.ATOMIC_MOVE);
+				} finally {
+					Files.deleteIfExists(temp.toPath());
+				}
+			}
+		};
+	}
+
+	/**
+	 * Save the contours as GeoJSON named directory/city/kind_contours.geojson, a
+	 * FeatureCollection of LineStrings with the level in the "contour" property.
+	 * The file is written beside and renamed as
+	 * {@link #writeGridFile(File)}. The contours are dropped.
+	 *
+	 * @param directory
+	 *            root directory of the files
+	 * @return the stage
+	 */
+	public static PersistStage writeContours(final File directory) {
+		return new PersistStage() {
+			@Override
+			public String getName() {
+				return "writeContours";
+			}
+
+			@Override
+			public void process(WorkItem item) throws IOException {
+				List<ContourLine> contours = item.getContours();
+				if (contours == null) {
+					throw new IllegalStateException("No contours to write for " + item.getJob());
+				}
+				File cityDirectory = new File(directory, item.getJob().getCity());
+				if (!cityDirectory.isDirectory() && !cityDirectory.mkdirs()) {
+					throw new IOException("Cannot create directory " + cityDirectory);
+				}
+				File file = new File(cityDirectory, item.getJob().getKind() + "_contours.geojson");
+				File temp = new File(cityDirectory, file.getName() + ".tmp");
+				try {
+					try (Writer out = new BufferedWriter(
+							new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8))) {
+						writeGeoJSON(contours, out);
+					}
+					Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+							StandardCopyOption.ATOMIC_MOVE);
+				} finally {
+					Files.deleteIfExists(temp.toPath());
+				}
+				item.setContours(null);
+			}
+		};
+	}
+
+	/**
+	 * Write contour lines as a GeoJSON FeatureCollection
+	 */
+	static void writeGeoJSON(List<ContourLine> contours, Writer out) throws IOException {
+		out.write("{\"type\":\"FeatureCollection\",\"features\":[");
+		for (int i = 0; i < contours.size(); i++) {
+			ContourLine line = contours.get(i);
+			if (i > 0) {
+				out.write(',');
+			}
+			out.write("\n{\"type\":\"Feature\",\"properties\":{\"contour\":");
+			out.write(Double.toString(line.getLevel()));
+			out.write("},\"geometry\":{\"type\":\"LineString\",\"coordinates\":[");
+			double[] coordinates = line.getCoordinates();
+			for (int j = 0; j + 1 < coordinates.length; j += 2) {
+				if (j > 0) {
+					out.write(',');
+				}
+				out.write('[');
+				out.write(Double.toString(coordinates[j]));
+				out.write(',');
+				out.write(Double.toString(coordinates[j + 1]));
+				out.write(']');
+			}
+			out.write("]}}");
+		}
+		out.write("\n]}\n");
+	}
+}
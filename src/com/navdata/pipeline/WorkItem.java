@@ -0,0 +1,131 @@
+package com.navdata.pipeline;
+
+import java.awt.geom.Point2D;
+import java.util.List;
+
+import com.navdata.gdalutils.ContourLine;
+import com.navdata.gdalutils.RasterHandle;
+import com.navdata.kernel.Breakpoints;
+import com.navdata.kernel.DensityGrid;
+
+/**
+ * A job and its intermediate results, passed from stage to stage. Results no
+ * longer needed are dropped by the stages, so memory is released early.
+ *
+ * @author Lin DONG
+ *
+ */
+public class WorkItem implements AutoCloseable {
+	private final Job job;
+	private Point2D[] points;
+	private DensityGrid density;
+	private Breakpoints breakpoints;
+	private RasterHandle raster;
+	private List<ContourLine> contours;
+
+	/**
+	 * @param job
+	 *            the job
+	 */
+	public WorkItem(Job job) {
+		this.job = job;
+	}
+
+	/**
+	 * @return the job
+	 */
+	public Job getJob() {
+		return job;
+	}
+
+	/**
+	 * @return points, null after estimation
+	 */
+	public Point2D[] getPoints() {
+		return points;
+	}
+
+	/**
+	 * @param points
+	 *            points of the job
+	 */
+	public void setPoints(Point2D[] points) {
+		this.points = points;
+	}
+
+	/**
+	 * @return density result, null after rasterization
+	 */
+	public DensityGrid getDensity() {
+		return density;
+	}
+
+	/**
+	 * @param density
+	 *            density result
+	 */
+	public void setDensity(DensityGrid density) {
+		this.density = density;
+	}
+
+	/**
+	 * @return breakpoints of classification, null if not classified
+	 */
+	public Breakpoints getBreakpoints() {
+		return breakpoints;
+	}
+
+	/**
+	 * @param breakpoints
+	 *            breakpoints of classification
+	 */
+	public void setBreakpoints(Breakpoints breakpoints) {
+		this.breakpoints = breakpoints;
+	}
+
+	/**
+	 * @return the raster, null after contouring
+	 */
+	public RasterHandle getRaster() {
+		return raster;
+	}
+
+	/**
+	 * Set the raster, the old one is closed
+	 *
+	 * @param raster
+	 *            the raster
+	 */
+	public void setRaster(RasterHandle raster) {
+		if (this.raster != null && this.raster != raster) {
+			this.raster.close();
+		}
+		this.raster = raster;
+	}
+
+	/**
+	 * @return contour lines
+	 */
+	public List<ContourLine> getContours() {
+		return contours;
+	}
+
+	/**
+	 * @param contours
+	 *            contour lines
+	 */
+	public void setContours(List<ContourLine> contours) {
+		this.contours = contours;
+	}
+
+	/**
+	 * Release the results, the raster is returned to its pool
+	 */
+	@Override
+	public void close() {
+		setRaster(null);
+		points = null;
+		density = null;
+		contours = null;
+	}
+}
@@ -0,0 +1,529 @@
+package com.navdata.service;
+
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidParameterException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.navdata.grid.GridCodec;
+import com.navdata.kernel.DensityVisitor;
+import com.navdata.kernel.GridFile;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An embedded HTTP service of precomputed indexes, files of
+ * {@link IndexSnapshot} in a local directory. Responses are JSON.
+ *
+ * <pre>
+ * GET /point?kind=restaurant&amp;level=0.002&amp;lon=116.39&amp;lat=39.91
+ *     {"gridid":...,"value":...}
+ * GET /bbox?kind=...&amp;level=...&amp;minx=...&amp;miny=...&amp;maxx=...&amp;maxy=...[&amp;min=...]
+ *     {"count":...,"cells":[[gridid,value],...]}
+ * GET /top?kind=...&amp;level=...&amp;n=10&amp;polygon=x y,x y,...
+ *     {"count":...,"cells":[[gridid,value],...]}, the cells whose centers lie in the
+ *     polygon, by value descending
+ * POST /reload
+ *     load the directory again and swap it in
+ * GET /stats
+ * </pre>
+ *
+ * Other methods are answered with 405. The service binds to the loopback
+ * address unless a host is given to {@link #start(String, int, int)}: it has
+ * no authentication, and reload is an action.
+ * <p>
+ * Without TCP_NODELAY, keep-alive responses wait for delayed ACKs (~40ms). The
+ * JDK server reads it once, from the system property
+ * {@code sun.net.httpserver.nodelay}, so set it on the command line:
+ *
+ * <pre>
+ * java -Dsun.net.httpserver.nodelay=true com.navdata.service.IndexService ...
+ * </pre>
+ *
+ * Lookups read the mapped columns directly, a point is a binary search. The
+ * current snapshot is swapped atomically on reload, requests in flight finish
+ * on the old one. Responses of bbox and top queries are kept in a bounded LRU
+ * cache, which is cleared on reload.
+ *
+ * @author Lin DONG
+ *
+ */
+public class IndexService {
+	/**
+	 * Default limit of cached responses, in chars
+	 */
+	public static final long DEFAULT_CACHE_CHARS = 64L << 20;
+	/**
+	 * Max cells of a bbox response
+	 */
+	public static final int MAX_CELLS = 1000000;
+
+	private final File directory;
+	private final AtomicReference<IndexSnapshot> current = new AtomicReference<>();
+	private final ResponseCache cache;
+	private final Object reloadLock = new Object();
+	private HttpServer server;
+	private ExecutorService executor;
+
+	/**
+	 * Create a service and load the directory
+	 *
+	 * @param directory
+	 *            directory of layer files
+	 * @param cacheChars
+	 *            limit of cached responses in chars, 0 to disable the cache
+	 * @throws IOException
+	 *             if the directory cannot be loaded
+	 */
+	public IndexService(File directory, long cacheChars) throws IOException {
+		this.directory = directory;
+		this.cache = new ResponseCache(cacheChars);
+		current.set(IndexSnapshot.load(directory, 1));
+	}
+
+	/**
+	 * Load the directory again and swap it in. On failure the current snapshot
+	 * is kept.
+	 *
+	 * @return the new snapshot
+	 * @throws IOException
+	 *             if the directory cannot be loaded
+	 */
+	public IndexSnapshot reload() throws IOException {
+		synchronized (reloadLock) {
+			IndexSnapshot old = current.get();
+			IndexSnapshot snapshot = IndexSnapshot.load(directory, old.getVersion() + 1);
+			current.set(snapshot);
+			cache.clear();
+			old.close();
+			return snapshot;
+		}
+	}
+
+	/**
+	 * @return the current snapshot
+	 */
+	public IndexSnapshot getSnapshot() {
+		return current.get();
+	}
+
+	/**
+	 * Start serving on the loopback address
+	 *
+	 * @param port
+	 *            port to listen on, 0 for any free port
+	 * @param threads
+	 *            number of threads
+	 * @return the port
+	 * @throws IOException
+	 *             if the port cannot be bound
+	 */
+	public int start(int port, int threads) throws IOException {
+		return start(null, port, threads);
+	}
+
+	/**
+	 * Start serving
+	 *
+	 * @param host
+	 *            address to listen on, such as "0.0.0.0" for all interfaces,
+	 *            null for the loopback address
+	 * @param port
+	 *            port to listen on, 0 for any free port
+	 * @param threads
+	 *            number of threads
+	 * @return the port
+	 * @throws IOException
+	 *             if the host is unknown or the port cannot be bound
+	 */
+	public int start(String host, int port, int threads) throws IOException {
+		InetAddress address = (host == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(host));
+		server = HttpServer.create(new InetSocketAddress(address, port), 0);
+		executor = Executors.newFixedThreadPool(threads);
+		server.setExecutor(executor);
+		server.createContext("/point", new Handler() {
+			@Override
+			String handle(Map<String, String> params) {
+				return point(params);
+			}
+		});
+		server.createContext("/bbox", new Handler() {
+			@Override
+			String handle(Map<String, String> params) {
+				return bbox(params);
+			}
+		});
+		server.createContext("/top", new Handler() {
+			@Override
+			String handle(Map<String, String> params) {
+				return top(params);
+			}
+		});
+		server.createContext("/reload", new Handler("POST") {
+			@Override
+			String handle(Map<String, String> params) throws IOException {
+				IndexSnapshot snapshot = reload();
+				return "{\"version\":" + snapshot.getVersion() + ",\"layers\":" + snapshot.size() + "}";
+			}
+		});
+		server.createContext("/stats", new Handler() {
+			@Override
+			String handle(Map<String, String> params) {
+				IndexSnapshot snapshot = current.get();
+				return "{\"version\":" + snapshot.getVersion() + ",\"layers\":" + snapshot.size() + ","
+						+ cache.stats() + "}";
+			}
+		});
+		server.start();
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Stop serving
+	 */
+	public void stop() {
+		if (server != null) {
+			server.stop(0);
+			executor.shutdown();
+			server = null;
+		}
+	}
+
+	/**
+	 * Index at a location
+	 *
+	 * @param params
+	 *            kind, level, lon, lat
+	 * @return JSON
+	 */
+	String point(Map<String, String> params) {
+		GridFile layer = layer(current.get(), params);
+		long gridID = GridCodec.encode(number(params, "lon"), number(params, "lat"), layer.getZ());
+		return "{\"gridid\":" + gridID + ",\"value\":" + layer.get(gridID) + "}";
+	}
+
+	/**
+	 * Cells in a bbox
+	 *
+	 * @param params
+	 *            kind, level, minx, miny, maxx, maxy, optional min
+	 * @return JSON
+	 */
+	String bbox(Map<String, String> params) {
+		IndexSnapshot snapshot = current.get();
+		String key = snapshot.getVersion() + "/bbox?" + params;
+		String cached = cache.get(key);
+		if (cached != null) {
+			return cached;
+		}
+		GridFile layer = layer(snapshot, params);
+		double min = (params.containsKey("min") ? number(params, "min") : Double.NEGATIVE_INFINITY);
+		final StringBuilder cells = new StringBuilder();
+		final long[] count = { 0 };
+		layer.query(number(params, "minx"), number(params, "miny"), number(params, "maxx"), number(params, "maxy"),
+				min, new DensityVisitor() {
+					@Override
+					public void visit(long gridID, double value) {
+						if (++count[0] > MAX_CELLS) {
+							throw new InvalidParameterException("More than " + MAX_CELLS + " cells.");
+						}
+						if (cells.length() > 0) {
+							cells.append(',');
+						}
+						cells.append('[').append(gridID).append(',').append(value).append(']');
+					}
+				});
+		String response = "{\"count\":" + count[0] + ",\"cells\":[" + cells + "]}";
+		cache.put(key, response);
+		return response;
+	}
+
+	/**
+	 * Top cells in a polygon
+	 *
+	 * @param params
+	 *            kind, level, n, polygon as "x y,x y,..."
+	 * @return JSON
+	 */
+	String top(Map<String, String> params) {
+		IndexSnapshot snapshot = current.get();
+		String key = snapshot.getVersion() + "/top?" + params;
+		String cached = cache.get(key);
+		if (cached != null) {
+			return cached;
+		}
+		GridFile layer = layer(snapshot, params);
+		int n = (int) number(params, "n");
+		if (n < 1 || n > MAX_CELLS) {
+			throw new InvalidParameterException("n should be in [1," + MAX_CELLS + "].");
+		}
+		final Path2D polygon = polygon(param(params, "polygon"));
+		final int z = layer.getZ();
+		final double half = GridCodec.length(z) / 2;
+		final TopCells top = new TopCells(n);
+		Rectangle2D bounds = polygon.getBounds2D();
+		layer.query(bounds.getMinX(), bounds.getMinY(), bounds.getMaxX(), bounds.getMaxY(), new DensityVisitor() {
+			@Override
+			public void visit(long gridID, double value) {
+				if (value > top.threshold() && polygon.contains(GridCodec.x0(GridCodec.col(gridID), z) + half,
+						GridCodec.y0(GridCodec.row(gridID), z) + half)) {
+					top.offer(gridID, value);
+				}
+			}
+		});
+		String response = top.toJSON();
+		cache.put(key, response);
+		return response;
+	}
+
+	private static GridFile layer(IndexSnapshot snapshot, Map<String, String> params) {
+		GridFile layer = snapshot.getLayer(param(params, "kind"), param(params, "level"));
+		if (layer == null) {
+			throw new NoSuchLayerException(params.get("kind") + "_" + params.get("level"));
+		}
+		return layer;
+	}
+
+	private static String param(Map<String, String> params, String name) {
+		String value = params.get(name);
+		if (value == null || value.isEmpty()) {
+			throw new InvalidParameterException("Missing parameter: " + name);
+		}
+		return value;
+	}
+
+	private static double number(Map<String, String> params, String name) {
+		try {
+			return Double.parseDouble(param(params, name));
+		} catch (NumberFormatException e) {
+			throw new InvalidParameterException("Invalid parameter: " + name);
+		}
+	}
+
+	/**
+	 * Parse "x y,x y,..." into a closed path
+	 */
+	static Path2D polygon(String text) {
+		String[] points = text.trim().split("\\s*,\\s*");
+		if (points.length < 3) {
+			throw new InvalidParameterException("A polygon needs at least 3 points.");
+		}
+		Path2D.Double path = new Path2D.Double();
+		for (int i = 0; i < points.length; i++) {
+			String[] xy = points[i].trim().split("\\s+");
+			if (xy.length != 2) {
+				throw new InvalidParameterException("Invalid point: " + points[i]);
+			}
+			double x, y;
+			try {
+				x = Double.parseDouble(xy[0]);
+				y = Double.parseDouble(xy[1]);
+			} catch (NumberFormatException e) {
+				throw new InvalidParameterException("Invalid point: " + points[i]);
+			}
+			if (i == 0) {
+				path.moveTo(x, y);
+			} else {
+				path.lineTo(x, y);
+			}
+		}
+		path.closePath();
+		return path;
+	}
+
+	static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+		// sorted, so that the same query is the same cache key
+		Map<String, String> params = new TreeMap<>();
+		if (query == null) {
+			return params;
+		}
+		for (String pair : query.split("&")) {
+			int eq = pair.indexOf('=');
+			if (eq > 0) {
+				params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+						URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+			}
+		}
+		return params;
+	}
+
+	/**
+	 * A layer is not loaded
+	 */
+	private static class NoSuchLayerException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		NoSuchLayerException(String layer) {
+			super("No such layer: " + layer);
+		}
+	}
+
+	/**
+	 * Parse the query, run it and write JSON with the status
+	 */
+	private abstract static class Handler implements HttpHandler {
+		private final String method;
+
+		/**
+		 * A handler of GET
+		 */
+		Handler() {
+			this("GET");
+		}
+
+		/**
+		 * @param method
+		 *            the only method accepted
+		 */
+		Handler(String method) {
+			this.method = method;
+		}
+
+		abstract String handle(Map<String, String> params) throws IOException;
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			int status = 200;
+			String body;
+			try {
+				if (!method.equals(exchange.getRequestMethod())) {
+					exchange.getResponseHeaders().set("Allow", method);
+					status = 405;
+					body = "{\"error\":\"Method not allowed, use " + method + "\"}";
+				} else {
+					body = handle(parseQuery(exchange.getRequestURI().getRawQuery()));
+				}
+			} catch (InvalidParameterException e) {
+				status = 400;
+				body = error(e);
+			} catch (NoSuchLayerException e) {
+				status = 404;
+				body = error(e);
+			} catch (Exception e) {
+				e.printStackTrace();
+				status = 500;
+				body = error(e);
+			}
+			byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+			exchange.sendResponseHeaders(status, bytes.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(bytes);
+			}
+		}
+
+		private static String error(Exception e) {
+			String message = String.valueOf(e.getMessage()).replace("\\", "\\\\").replace("\"", "\\\"");
+			return "{\"error\":\"" + message + "\"}";
+		}
+	}
+
+	/**
+	 * The n cells of largest values, kept in a min-heap of primitives
+	 */
+	private static class TopCells {
+		private final long[] ids;
+		private final double[] values;
+		private int size = 0;
+
+		TopCells(int n) {
+			ids = new long[n];
+			values = new double[n];
+		}
+
+		double threshold() {
+			return size < ids.length ? Double.NEGATIVE_INFINITY : values[0];
+		}
+
+		void offer(long id, double value) {
+			if (size < ids.length) {
+				int i = size++;
+				while (i > 0 && values[(i - 1) / 2] > value) {
+					ids[i] = ids[(i - 1) / 2];
+					values[i] = values[(i - 1) / 2];
+					i = (i - 1) / 2;
+				}
+				ids[i] = id;
+				values[i] = value;
+			} else {
+				siftDown(id, value);
+			}
+		}
+
+		/**
+		 * Put a cell at the root and move it down
+		 */
+		private void siftDown(long id, double value) {
+			int i = 0;
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= size) {
+					break;
+				}
+				if (child + 1 < size && values[child + 1] < values[child]) {
+					child++;
+				}
+				if (values[child] >= value) {
+					break;
+				}
+				ids[i] = ids[child];
+				values[i] = values[child];
+				i = child;
+			}
+			ids[i] = id;
+			values[i] = value;
+		}
+
+		/**
+		 * Empty the heap into JSON, by value descending
+		 */
+		String toJSON() {
+			int n = size;
+			long[] sortedIDs = new long[n];
+			double[] sortedValues = new double[n];
+			for (int k = n - 1; k >= 0; k--) {
+				sortedIDs[k] = ids[0];
+				sortedValues[k] = values[0];
+				size--;
+				if (size > 0) {
+					siftDown(ids[size], values[size]);
+				}
+			}
+			StringBuilder sb = new StringBuilder("{\"count\":").append(n).append(",\"cells\":[");
+			for (int k = 0; k < n; k++) {
+				if (k > 0) {
+					sb.append(',');
+				}
+				sb.append('[').append(sortedIDs[k]).append(',').append(sortedValues[k]).append(']');
+			}
+			return sb.append("]}").toString();
+		}
+	}
+
+	/**
+	 * args: directory of layer files, port (default 8080), host (default
+	 * loopback, 0.0.0.0 for all interfaces)
+	 */
+	public static void main(String[] args) throws Exception {
+		File directory = new File(args.length > 0 ? args[0] : ".");
+		int port = (args.length > 1 ? Integer.parseInt(args[1]) : 8080);
+		String host = (args.length > 2 ? args[2] : null);
+		IndexService service = new IndexService(directory, DEFAULT_CACHE_CHARS);
+		port = service.start(host, port, Runtime.getRuntime().availableProcessors());
+		System.out.println(service.getSnapshot().size() + " layers from " + directory + " on "
+				+ (host == null ? "loopback" : host) + ":" + port);
+	}
+}
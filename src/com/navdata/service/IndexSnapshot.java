@@ -0,0 +1,112 @@
+package com.navdata.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.navdata.kernel.GridFile;
+
+/**
+ * An immutable set of index layers loaded from a directory, one
+ * {@link GridFile} per (kind, grid level) named kind_level.grid, such as
+ * restaurant_0.002.grid. A new run is published by writing new files and
+ * loading a new snapshot, queries in flight keep using the old one.
+ *
+ * @author Lin DONG
+ *
+ */
+public class IndexSnapshot implements AutoCloseable {
+	/**
+	 * Suffix of layer files
+	 */
+	public static final String SUFFIX = ".grid";
+
+	private final long version;
+	private final Map<String, GridFile> layers;
+
+	private IndexSnapshot(long version, Map<String, GridFile> layers) {
+		this.version = version;
+		this.layers = Collections.unmodifiableMap(layers);
+	}
+
+	/**
+	 * Load all layers of a directory
+	 *
+	 * @param directory
+	 *            directory of layer files
+	 * @param version
+	 *            version of the snapshot
+	 * @return the snapshot
+	 * @throws IOException
+	 *             if a file cannot be opened, nothing is left open
+	 */
+	public static IndexSnapshot load(File directory, long version) throws IOException {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			throw new IOException("Not a directory: " + directory);
+		}
+		Map<String, GridFile> layers = new TreeMap<>();
+		try {
+			for (File file : files) {
+				String name = file.getName();
+				if (file.isFile() && name.endsWith(SUFFIX)) {
+					layers.put(name.substring(0, name.length() - SUFFIX.length()), GridFile.open(file));
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			for (GridFile layer : layers.values()) {
+				layer.close();
+			}
+			throw e;
+		}
+		return new IndexSnapshot(version, layers);
+	}
+
+	/**
+	 * @param kind
+	 *            POI kind
+	 * @param level
+	 *            grid length in degree as in the file name, such as 0.002
+	 * @return the layer, null if it does not exist
+	 */
+	public GridFile getLayer(String kind, String level) {
+		return layers.get(kind + "_" + level);
+	}
+
+	/**
+	 * @return names of layers, kind_level
+	 */
+	public Iterable<String> getLayerNames() {
+		return layers.keySet();
+	}
+
+	/**
+	 * @return number of layers
+	 */
+	public int size() {
+		return layers.size();
+	}
+
+	/**
+	 * @return version of the snapshot
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Close all files, mapped columns stay readable until they are collected
+	 */
+	@Override
+	public void close() {
+		for (GridFile layer : layers.values()) {
+			try {
+				layer.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
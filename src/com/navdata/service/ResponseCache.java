@@ -0,0 +1,63 @@
+package com.navdata.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded LRU cache of responses, limited by the total length of the cached
+ * responses. It is thread-safe.
+ *
+ * @author Lin DONG
+ *
+ */
+class ResponseCache {
+	private final long maxChars;
+	private long chars = 0;
+	private long hits = 0;
+	private long misses = 0;
+	private final LinkedHashMap<String, String> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * @param maxChars
+	 *            limit of total length of responses, 0 to disable the cache
+	 */
+	ResponseCache(long maxChars) {
+		this.maxChars = maxChars;
+	}
+
+	synchronized String get(String key) {
+		String value = entries.get(key);
+		if (value == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return value;
+	}
+
+	synchronized void put(String key, String value) {
+		if (value.length() > maxChars / 4) {// too large to be worth it
+			return;
+		}
+		String old = entries.put(key, value);
+		if (old != null) {
+			chars -= old.length();
+		}
+		chars += value.length();
+		while (chars > maxChars) {
+			Map.Entry<String, String> eldest = entries.entrySet().iterator().next();
+			chars -= eldest.getValue().length();
+			entries.remove(eldest.getKey());
+		}
+	}
+
+	synchronized void clear() {
+		entries.clear();
+		chars = 0;
+	}
+
+	synchronized String stats() {
+		return "\"entries\":" + entries.size() + ",\"chars\":" + chars + ",\"hits\":" + hits + ",\"misses\":"
+				+ misses;
+	}
+}
@@ -0,0 +1,100 @@
+package com.navdata.db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.navdata.kernel.DensityGrid;
+import com.navinfo.grid.GridLevel;
+
+/**
+ * Binary COPY encoding and pending results of {@link GridDensityWriter}
+ *
+ * @author Lin DONG
+ *
+ */
+public class GridDensityWriterTest {
+	/**
+	 * Signature, flags and length of header extension
+	 */
+	private static final String HEADER = "5047434f50590aff0d0a00" + "00000000" + "00000000";
+	private static final String TRAILER = "ffff";
+
+	private static byte[] hex(String text) {
+		byte[] bytes = new byte[text.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) Integer.parseInt(text.substring(2 * i, 2 * i + 2), 16);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Field count 2, then (length 8, bigint) and (length 8, float8)
+	 */
+	private static String row(String gridID, String density) {
+		return "0002" + "00000008" + gridID + "00000008" + density;
+	}
+
+	@Test
+	public void emptyStream() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GridDensityWriter.writeBinary(new DensityGrid(GridLevel.GRID_0_001), out);
+		assertArrayEquals(hex(HEADER + TRAILER), out.toByteArray());
+	}
+
+	@Test
+	public void rowLayout() throws IOException {
+		DensityGrid density = new DensityGrid(GridLevel.GRID_0_001);
+		// 116400039900010 = 0x000069dd7f07b36a, 1.5 = 0x3ff8000000000000
+		density.add(116400039900010L, 1.5);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GridDensityWriter.writeBinary(density, out);
+		assertArrayEquals(hex(HEADER + row("000069dd7f07b36a", "3ff8000000000000") + TRAILER), out.toByteArray());
+	}
+
+	@Test
+	public void levelsInOneStream() throws IOException {
+		DensityGrid fine = new DensityGrid(GridLevel.GRID_0_001);
+		fine.add(116400039900010L, 1.5);
+		DensityGrid coarse = new DensityGrid(GridLevel.GRID_0_002);
+		// 116400039900020 = 0x000069dd7f07b374, 0.25 = 0x3fd0000000000000
+		coarse.add(116400039900020L, 0.25);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GridDensityWriter.writeBinary(Arrays.asList(fine, coarse), out);
+		assertArrayEquals(hex(HEADER + row("000069dd7f07b36a", "3ff8000000000000")
+				+ row("000069dd7f07b374", "3fd0000000000000") + TRAILER), out.toByteArray());
+	}
+
+	@Test
+	public void pendingPerLevel() {
+		// a connection which is never used
+		Connection connection = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { Connection.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						return null;
+					}
+				});
+		GridDensityWriter writer = new GridDensityWriter(connection);
+		DensityGrid a = new DensityGrid(GridLevel.GRID_0_001);
+		a.add(116400039900010L, 1);
+		DensityGrid b = new DensityGrid(GridLevel.GRID_0_001);
+		b.add(116400039900010L, 2);
+		DensityGrid c = new DensityGrid(GridLevel.GRID_0_002);
+		c.add(116400039900020L, 3);
+		writer.add(a);
+		writer.add(b);
+		writer.add(c);
+		assertEquals(2, writer.pendingSize());
+		assertEquals(3, a.get(116400039900010L), 0);
+	}
+}
@@ -0,0 +1,281 @@
+package com.navdata.db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.navdata.kernel.DensityGrid;
+import com.navdata.kernel.DensityVisitor;
+import com.navdata.kernel.GridEstimator;
+import com.navdata.kernel.PointBatch;
+import com.navinfo.grid.GridLevel;
+
+/**
+ * WKB decoding, and {@link JdbcPointSource} over a mocked JDBC result set
+ *
+ * @author Lin DONG
+ *
+ */
+public class JdbcPointSourceTest {
+
+	/**
+	 * @param order
+	 *            byte order
+	 * @param type
+	 *            geometry type with flags
+	 * @param srid
+	 *            SRID, written if the EWKB SRID flag is set
+	 * @param coordinates
+	 *            x, y and maybe z, m
+	 */
+	private static byte[] wkb(ByteOrder order, int type, int srid, double... coordinates) {
+		boolean hasSrid = (type & 0x20000000) != 0;
+		ByteBuffer buffer = ByteBuffer.allocate(5 + (hasSrid ? 4 : 0) + 8 * coordinates.length).order(order);
+		buffer.put((byte) (order == ByteOrder.LITTLE_ENDIAN ? 1 : 0));
+		buffer.putInt(type);
+		if (hasSrid) {
+			buffer.putInt(srid);
+		}
+		for (double c : coordinates) {
+			buffer.putDouble(c);
+		}
+		return buffer.array();
+	}
+
+	private static void assertPoint(byte[] wkb, double x, double y) {
+		double[] xy = new double[2];
+		assertTrue(JdbcPointSource.decodePoint(wkb, xy));
+		assertArrayEquals(new double[] { x, y }, xy, 0);
+	}
+
+	@Test
+	public void decodeWkbBothByteOrders() {
+		for (ByteOrder order : new ByteOrder[] { ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN }) {
+			assertPoint(wkb(order, 1, 0, 116.3, 39.9), 116.3, 39.9);
+		}
+		// ST_AsBinary('POINT(1 2)') in NDR
+		byte[] ndr = { 1, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, (byte) 0xF0, 0x3F, 0, 0, 0, 0, 0, 0, 0, 0x40 };
+		assertPoint(ndr, 1, 2);
+	}
+
+	@Test
+	public void decodeEwkbSridAndFlags() {
+		for (ByteOrder order : new ByteOrder[] { ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN }) {
+			// SRID
+			assertPoint(wkb(order, 0x20000001, 4326, 116.3, 39.9), 116.3, 39.9);
+			// EWKB Z, M, ZM, with and without SRID
+			assertPoint(wkb(order, 0x80000001, 0, 1, 2, 3), 1, 2);
+			assertPoint(wkb(order, 0x40000001, 0, 1, 2, 4), 1, 2);
+			assertPoint(wkb(order, 0xC0000001, 0, 1, 2, 3, 4), 1, 2);
+			assertPoint(wkb(order, 0xA0000001, 4326, 1, 2, 3), 1, 2);
+			assertPoint(wkb(order, 0xE0000001, 4326, 1, 2, 3, 4), 1, 2);
+			// ISO Z, M, ZM
+			assertPoint(wkb(order, 1001, 0, 1, 2, 3), 1, 2);
+			assertPoint(wkb(order, 2001, 0, 1, 2, 4), 1, 2);
+			assertPoint(wkb(order, 3001, 0, 1, 2, 3, 4), 1, 2);
+		}
+	}
+
+	@Test
+	public void skipNullEmptyAndOtherTypes() {
+		double[] xy = new double[2];
+		assertFalse(JdbcPointSource.decodePoint(null, xy));
+		assertFalse(JdbcPointSource.decodePoint(new byte[0], xy));
+		// POINT EMPTY is NaN NaN
+		assertFalse(JdbcPointSource.decodePoint(wkb(ByteOrder.LITTLE_ENDIAN, 1, 0, Double.NaN, Double.NaN), xy));
+		assertFalse(JdbcPointSource.decodePoint(wkb(ByteOrder.BIG_ENDIAN, 0x20000001, 4326, Double.NaN, Double.NaN),
+				xy));
+		// LINESTRING, MULTIPOINT
+		assertFalse(JdbcPointSource.decodePoint(wkb(ByteOrder.LITTLE_ENDIAN, 2, 0, 2, 0, 0), xy));
+		assertFalse(JdbcPointSource.decodePoint(wkb(ByteOrder.LITTLE_ENDIAN, 4, 0, 1, 0, 0), xy));
+		// truncated EWKB with SRID
+		assertFalse(JdbcPointSource.decodePoint(new byte[] { 1, 1, 0, 0, 0x20, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+				0, 0, 0, 0, 0 }, xy));
+	}
+
+	/**
+	 * A mocked connection, rows are (wkb, weight) and the weight may be null
+	 */
+	private static final class MockDatabase implements InvocationHandler {
+		final List<Object[]> rows;
+		final List<String> calls = new ArrayList<>();
+		boolean autoCommit = true;
+		volatile boolean resultSetClosed = false;
+		int row = -1;
+		Object last;
+
+		MockDatabase(List<Object[]> rows) {
+			this.rows = rows;
+		}
+
+		Connection connection() {
+			return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class },
+					this);
+		}
+
+		@Override
+		public synchronized Object invoke(Object proxy, Method method, Object[] args) {
+			String name = method.getName();
+			calls.add(name);
+			switch (name) {
+			case "getAutoCommit":
+				return autoCommit;
+			case "setAutoCommit":
+				autoCommit = (Boolean) args[0];
+				return null;
+			case "prepareStatement":
+				return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { PreparedStatement.class },
+						this);
+			case "executeQuery":
+				return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ResultSet.class }, this);
+			case "getMetaData":
+				return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ResultSetMetaData.class },
+						this);
+			case "getColumnCount":
+				return 2;
+			case "next":
+				return ++row < rows.size();
+			case "getBytes":
+				last = rows.get(row)[0];
+				return last;
+			case "getDouble":
+				last = rows.get(row)[1];
+				return last == null ? 0.0 : (Double) last;
+			case "wasNull":
+				return last == null;
+			case "close":
+				if (proxy instanceof ResultSet) {
+					resultSetClosed = true;
+				}
+				return null;
+			default:
+				return null;
+			}
+		}
+	}
+
+	private static List<Object[]> rows(int n) {
+		List<Object[]> rows = new ArrayList<>();
+		java.util.Random random = new java.util.Random(1);
+		for (int i = 0; i < n; i++) {
+			switch (i % 10) {
+			case 0:
+				rows.add(new Object[] { null, 1.0 });
+				break;
+			case 1:
+				rows.add(new Object[] { wkb(ByteOrder.LITTLE_ENDIAN, 1, 0, Double.NaN, Double.NaN), 1.0 });
+				break;
+			case 2:
+				rows.add(new Object[] { wkb(ByteOrder.BIG_ENDIAN, 0xA0000001, 4326, 116 + random.nextDouble() * 0.1,
+						39.9 + random.nextDouble() * 0.1, 50), null });
+				break;
+			default:
+				rows.add(new Object[] { wkb(ByteOrder.LITTLE_ENDIAN, 1, 0, 116 + random.nextDouble() * 0.1,
+						39.9 + random.nextDouble() * 0.1), 1.0 + (i % 3) });
+			}
+		}
+		return rows;
+	}
+
+	@Test
+	public void readSkipsBadRowsAndDefaultsWeights() throws Exception {
+		List<Object[]> rows = rows(1000);
+		MockDatabase db = new MockDatabase(rows);
+		JdbcPointSource source = new JdbcPointSource(db.connection(), "select");
+		source.setBatchSize(64);
+		final double[] sum = new double[2];
+		long count = source.read(new JdbcPointSource.PointSink() {
+			@Override
+			public void accept(double[] xs, double[] ys, double[] weights, int n) {
+				for (int j = 0; j < n; j++) {
+					sum[0]++;
+					sum[1] += weights[j];
+				}
+			}
+		});
+		double expected = 0;
+		for (int i = 0; i < rows.size(); i++) {
+			if (i % 10 == 2) {
+				expected += 1;
+			} else if (i % 10 > 2) {
+				expected += (Double) rows.get(i)[1];
+			}
+		}
+		assertEquals(800, count);
+		assertEquals(800, sum[0], 0);
+		assertEquals(expected, sum[1], 1e-9);
+		assertTrue(db.autoCommit);
+		assertTrue(db.calls.contains("commit"));
+		assertTrue(db.resultSetClosed);
+	}
+
+	@Test
+	public void estimateMatchesDirectEstimation() throws Exception {
+		List<Object[]> rows = rows(20000);
+		JdbcPointSource source = new JdbcPointSource(new MockDatabase(rows).connection(), "select");
+		source.setBatchSize(100);
+		GridEstimator estimator = new GridEstimator();
+		final DensityGrid result = source.estimate(estimator, 0.005, GridLevel.GRID_0_002);
+
+		PointBatch points = PointBatch.allocate(rows.size(), true, false);
+		double[] xy = new double[2];
+		for (Object[] row : rows) {
+			if (JdbcPointSource.decodePoint((byte[]) row[0], xy)) {
+				points.add(xy[0], xy[1], row[1] == null ? 1 : (Double) row[1]);
+			}
+		}
+		final DensityGrid expected = estimator.estimateGrid(points, 0.005, GridLevel.GRID_0_002);
+		assertEquals(expected.size(), result.size());
+		expected.forEach(new DensityVisitor() {
+			@Override
+			public void visit(long gridID, double density) {
+				assertEquals(density, result.get(gridID), 1e-9);
+			}
+		});
+	}
+
+	@Test(timeout = 10000)
+	public void failedEstimationStopsTheReader() throws Exception {
+		MockDatabase db = new MockDatabase(rows(100000));
+		JdbcPointSource source = new JdbcPointSource(db.connection(), "select");
+		source.setBatchSize(10);
+		GridEstimator failing = new GridEstimator() {
+			@Override
+			public void accumulate(DensityGrid result, PointBatch points, double bandWidth) {
+				throw new IllegalStateException("failed");
+			}
+		};
+		try {
+			source.estimate(failing, 0.005, GridLevel.GRID_0_002);
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("failed", e.getMessage());
+		}
+		// the reader has ended: rolled back, cursor closed, auto commit restored
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			assertFalse(thread.getName().equals("JdbcPointSource-reader") && thread.isAlive());
+		}
+		synchronized (db) {
+			assertTrue(db.calls.contains("rollback"));
+			assertFalse(db.calls.contains("commit"));
+			assertTrue(db.resultSetClosed);
+			assertTrue(db.autoCommit);
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package com.navdata.grid;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * {@link GridCodec} against grid IDs of xy2grid in nav_grid.pgsql
+ *
+ * @author Lin DONG
+ *
+ */
+public class GridCodecTest {
+	/**
+	 * x, y, z, xy2grid(x, y, z)
+	 */
+	private static final Object[][] XY2GRID = {
+			// x*100 of doubles falls just below the edge
+			{ 1.15, 0.29, 5, 1150000290050L },
+			{ 2.01, 0.57, 5, 2010000570050L },
+			{ 116.15, 39.29, 5, 116150039290050L },
+			{ 0.57, 2.01, 9, 500002000090L },
+			{ 116.3975, 39.9087, 0, 116397539908700L },
+			// other quadrants
+			{ -1.15, 0.29, 5, 1150000290051L },
+			{ -0.29, -2.01, 5, 290002010052L },
+			{ 1.15, -0.57, 5, 1150000570053L },
+			{ -0.001, 0.001, 9, 100000000091L },
+			// all levels
+			{ 116.4, 39.9, 1, 116400039900010L },
+			{ 116.4, 39.9, 2, 116400039900020L },
+			{ 116.4, 39.9, 4, 116400039900040L },
+			{ 116.4, 39.9, 6, 116400039900060L },
+			{ 116.4, 39.9, 8, 116400039900080L },
+			// bounds
+			{ 180.0, 90.0, 0, 180000090000000L },
+			{ -180.0, -90.0, 9, 180000090000092L },
+			{ 0.0, 0.0, 5, 50L } };
+
+	@Test
+	public void encodeMatchesXy2grid() {
+		for (Object[] c : XY2GRID) {
+			assertEquals("xy2grid(" + c[0] + ", " + c[1] + ", " + c[2] + ")", ((Long) c[3]).longValue(),
+					GridCodec.encode((Double) c[0], (Double) c[1], (Integer) c[2]));
+		}
+	}
+
+	@Test
+	public void batchEncodeMatchesXy2grid() {
+		for (int z : new int[] { 0, 1, 2, 4, 5, 6, 8, 9 }) {
+			int n = 0;
+			for (Object[] c : XY2GRID) {
+				if ((Integer) c[2] == z) {
+					n++;
+				}
+			}
+			double[] xs = new double[n];
+			double[] ys = new double[n];
+			long[] expected = new long[n];
+			int i = 0;
+			for (Object[] c : XY2GRID) {
+				if ((Integer) c[2] == z) {
+					xs[i] = (Double) c[0];
+					ys[i] = (Double) c[1];
+					expected[i++] = (Long) c[3];
+				}
+			}
+			long[] out = new long[n];
+			GridCodec.encode(xs, ys, z, out);
+			for (i = 0; i < n; i++) {
+				assertEquals(expected[i], out[i]);
+			}
+		}
+	}
+
+	@Test
+	public void edgesAreDecimal() {
+		// every edge of 0.01 grids in [-2, 2]: k/100 is in grid k
+		for (int k = -200; k <= 200; k++) {
+			double x = k / 100.0;
+			assertEquals("col(" + x + ")", k, GridCodec.col(x, 5));
+			assertEquals("row(" + x + ")", k, GridCodec.row(x, 5));
+		}
+		// every edge of 0.0001 grids around Beijing
+		for (int k = 1163000; k <= 1164000; k++) {
+			double x = k / 10000.0;
+			assertEquals("col(" + x + ")", k, GridCodec.col(x, 0));
+		}
+	}
+
+	@Test
+	public void insideGrids() {
+		assertEquals(114, GridCodec.col(1.1499, 5));
+		assertEquals(115, GridCodec.col(1.1500001, 5));
+		assertEquals(-116, GridCodec.col(-1.1500001, 5));
+		assertEquals(-115, GridCodec.col(-1.15, 5));
+		assertEquals(-115, GridCodec.col(-1.1499, 5));
+	}
+
+	@Test
+	public void decodeRoundTrip() {
+		for (Object[] c : XY2GRID) {
+			long id = (Long) c[3];
+			int z = (Integer) c[2];
+			assertEquals(z, GridCodec.z(id));
+			assertEquals(id, GridCodec.encode(GridCodec.col(id), GridCodec.row(id), z));
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package com.navdata.kernel;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * {@link ChannelRanges} against a scan of all ranges
+ *
+ * @author Lin DONG
+ *
+ */
+public class ChannelRangesTest {
+
+	private static int[] scan(int[] lows, int[] highs, int kind) {
+		int[] channels = new int[lows.length];
+		int n = 0;
+		for (int c = 0; c < lows.length; c++) {
+			if (kind >= lows[c] && kind <= highs[c]) {
+				channels[n++] = c;
+			}
+		}
+		return Arrays.copyOf(channels, n);
+	}
+
+	@Test
+	public void nestedAndOverlapping() {
+		int[] lows = { 150000, 150100, 150150, 160000 };
+		int[] highs = { 159999, 150199, 150300, 160000 };
+		ChannelRanges ranges = new ChannelRanges(lows, highs);
+		int[] kinds = { Integer.MIN_VALUE, 0, 149999, 150000, 150099, 150100, 150149, 150150, 150199, 150200,
+				150300, 150301, 159999, 160000, 160001, Integer.MAX_VALUE };
+		for (int kind : kinds) {
+			assertArrayEquals("kind " + kind, scan(lows, highs, kind), ranges.channelsOf(kind));
+		}
+	}
+
+	@Test
+	public void extremeAndEmptyRanges() {
+		int[] lows = { Integer.MIN_VALUE, 10, 5 };
+		int[] highs = { Integer.MAX_VALUE, 10, 4 };
+		ChannelRanges ranges = new ChannelRanges(lows, highs);
+		for (int kind : new int[] { Integer.MIN_VALUE, -1, 4, 5, 9, 10, 11, Integer.MAX_VALUE }) {
+			assertArrayEquals("kind " + kind, scan(lows, highs, kind), ranges.channelsOf(kind));
+		}
+		ChannelRanges none = new ChannelRanges(new int[0], new int[0]);
+		assertArrayEquals(new int[0], none.channelsOf(0));
+	}
+
+	@Test
+	public void randomRanges() {
+		Random random = new Random(3);
+		int[] lows = new int[20];
+		int[] highs = new int[20];
+		for (int c = 0; c < lows.length; c++) {
+			lows[c] = random.nextInt(1000);
+			highs[c] = lows[c] + random.nextInt(300);
+		}
+		ChannelRanges ranges = new ChannelRanges(lows, highs);
+		for (int kind = -10; kind < 1400; kind++) {
+			assertArrayEquals("kind " + kind, scan(lows, highs, kind), ranges.channelsOf(kind));
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package com.navdata.kernel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The cache file of {@link Classifier100#fit(File, double...)}, and mapping by
+ * the fitted breakpoints
+ *
+ * @author Lin DONG
+ *
+ */
+public class Classifier100Test {
+	private File directory;
+	private File cache;
+	private double[] values;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("classifier").toFile();
+		cache = new File(directory, "breakpoints.bin");
+		values = new double[1000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = i * 0.5;
+		}
+	}
+
+	@After
+	public void tearDown() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	private void assertFitted(Breakpoints breakpoints) {
+		assertArrayEquals(new Classifier100().fit(values).separators(), breakpoints.separators(), 0);
+	}
+
+	@Test
+	public void cacheIsReused() throws IOException {
+		Classifier100 classifier = new Classifier100();
+		assertFitted(classifier.fit(cache, values));
+		// other values are not used once the cache exists
+		assertFitted(classifier.fit(cache, 1, 2, 3));
+		// no temporary file is left
+		assertEquals(1, directory.listFiles().length);
+	}
+
+	@Test
+	public void truncatedCacheIsFittedAgain() throws IOException {
+		Classifier100 classifier = new Classifier100();
+		classifier.fit(cache, values);
+		try (RandomAccessFile file = new RandomAccessFile(cache, "rw")) {
+			file.setLength(file.length() - 3);
+		}
+		assertFitted(classifier.fit(cache, values));
+		assertFitted(Breakpoints.load(cache));
+	}
+
+	@Test
+	public void foreignCacheIsFittedAgain() throws IOException {
+		Files.write(cache.toPath(), "not breakpoints at all".getBytes("UTF-8"));
+		assertFitted(new Classifier100().fit(cache, values));
+		assertFitted(Breakpoints.load(cache));
+	}
+
+	@Test(expected = IOException.class)
+	public void loadRejectsTrailingBytes() throws IOException {
+		new Classifier100().fit(cache, values);
+		try (RandomAccessFile file = new RandomAccessFile(cache, "rw")) {
+			file.setLength(file.length() + 8);
+		}
+		Breakpoints.load(cache);
+	}
+
+	@Test
+	public void mapUsesFittedBreakpoints() {
+		Breakpoints breakpoints = new Classifier100().fit(values);
+		int[] expected = new int[values.length];
+		for (int i = 0; i < values.length; i++) {
+			expected[i] = breakpoints.index(values[i]);
+		}
+		assertArrayEquals(expected, new Classifier100().map(values));
+		assertArrayEquals(expected, new Classifier100(true).map(values));
+	}
+}
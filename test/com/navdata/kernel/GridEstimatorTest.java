@@ -0,0 +1,108 @@
+package com.navdata.kernel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.navdata.grid.GridCodec;
+import com.navdata.kernel.base.EpanechnikovKernel2D;
+import com.navdata.kernel.base.Kernel2D;
+import com.navinfo.grid.GridLevel;
+
+/**
+ * Separable kernels in {@link GridEstimator}, against the probabilities of
+ * every grid computed one by one
+ *
+ * @author Lin DONG
+ *
+ */
+public class GridEstimatorTest {
+	private static final GridLevel LEVEL = GridLevel.GRID_0_001;
+	private static final Kernel2D KERNEL = new EpanechnikovKernel2D();
+
+	private static PointBatch points(int n) {
+		Random random = new Random(2);
+		PointBatch points = PointBatch.allocate(n, true, false);
+		for (int i = 0; i < n; i++) {
+			points.add(116 + 0.05 * random.nextDouble(), 39 + 0.05 * random.nextDouble(), 1 + random.nextInt(5));
+		}
+		return points;
+	}
+
+	private static DensityGrid reference(PointBatch points, double bandWidth) {
+		DensityGrid result = new DensityGrid(LEVEL);
+		int z = result.getZ();
+		double radius = KERNEL.radius(bandWidth);
+		for (int j = 0; j < points.size(); j++) {
+			double x = points.getX(j);
+			double y = points.getY(j);
+			for (int row = GridCodec.row(y - radius, z); row <= GridCodec.row(y + radius, z); row++) {
+				for (int col = GridCodec.col(x - radius, z); col <= GridCodec.col(x + radius, z); col++) {
+					double d = KERNEL.k(GridCodec.x0(col, z) - x, GridCodec.x0(col + 1, z) - x,
+							GridCodec.y0(row, z) - y, GridCodec.y0(row + 1, z) - y, bandWidth);
+					if (d > 0) {
+						result.add(col, row, d * points.getWeight(j));
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	private static void assertDensities(DensityGrid expected, final DensityGrid actual) {
+		assertEquals(expected.size(), actual.size());
+		DensityGrid.Cursor cursor = expected.cursor();
+		while (cursor.next()) {
+			assertEquals(cursor.density(), actual.get(cursor.gridID()), 1e-12);
+		}
+	}
+
+	@Test
+	public void separableMatchesGridByGrid() {
+		GridEstimator estimator = new GridEstimator(KERNEL);
+		PointBatch points = points(500);
+		// growing footprints, the buffers of a thread are reused and grown
+		for (double bandWidth : new double[] { 0.002, 0.02, 0.005 }) {
+			assertDensities(reference(points, bandWidth), estimator.estimateGrid(points, bandWidth, LEVEL));
+		}
+	}
+
+	@Test
+	public void separableParallel() {
+		GridEstimator estimator = new GridEstimator(KERNEL);
+		PointBatch points = points(3 * GridEstimator.CHUNK_SIZE);
+		for (double bandWidth : new double[] { 0.003, 0.01 }) {
+			assertDensities(reference(points, bandWidth), estimator.estimateParallel(points, bandWidth, LEVEL));
+		}
+	}
+
+	@Test
+	public void stencilsAreLookedUpOncePerEstimation() {
+		StencilCache cache = new StencilCache();
+		GridEstimator estimator = new GridEstimator(KERNEL);
+		estimator.setStencils(cache, 4);
+		PointBatch points = points(3 * GridEstimator.CHUNK_SIZE);
+		DensityGrid sequential = estimator.estimateGrid(points, 0.005, LEVEL);
+		assertArrayEquals(new long[] { 0, 16 }, cache.stats());
+		assertDensities(sequential, estimator.estimateParallel(points, 0.005, LEVEL));
+		// the second estimation finds all of them in the cache
+		assertArrayEquals(new long[] { 16, 16 }, cache.stats());
+	}
+
+	@Test
+	public void separableNegativeWeights() {
+		GridEstimator estimator = new GridEstimator(KERNEL);
+		Random random = new Random(3);
+		PointBatch points = PointBatch.allocate(200, true, false);
+		for (int i = 0; i < 200; i++) {
+			points.add(116 + 0.05 * random.nextDouble(), 39 + 0.05 * random.nextDouble(), -1 - random.nextInt(5));
+		}
+		DensityGrid result = estimator.estimateGrid(points, 0.005, LEVEL);
+		assertTrue(result.size() > 0);
+		assertDensities(reference(points, 0.005), result);
+	}
+}
@@ -0,0 +1,68 @@
+package com.navdata.kernel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.navdata.kernel.base.Kernel2D;
+import com.navdata.kernel.base.UniformKernel2D;
+
+/**
+ * Memory limit and LRU order of {@link StencilCache}
+ *
+ * @author Lin DONG
+ *
+ */
+public class StencilCacheTest {
+	private static final Kernel2D KERNEL = new UniformKernel2D(UniformKernel2D.Method.ANALYTIC);
+	/**
+	 * z of 0.001 grids
+	 */
+	private static final int Z = 1;
+
+	private static long bytes(double bandWidth) {
+		return new KernelStencil(KERNEL, bandWidth, Z, 1, 0, 0).memoryBytes();
+	}
+
+	@Test
+	public void largeStencilEvictsManySmallOnes() {
+		long small = bytes(0.002);
+		long large = bytes(0.02);
+		assertTrue(large > 10 * small);
+		StencilCache cache = new StencilCache(large + small);
+		for (int b = 0; b < 16; b++) {
+			cache.get(KERNEL, 0.002, Z, 4, b % 4, b / 4);
+		}
+		assertTrue(cache.size() > 1);
+		cache.get(KERNEL, 0.02, Z, 1, 0, 0);
+		assertTrue(cache.memoryBytes() <= large + small);
+		assertTrue(cache.size() <= 2);
+	}
+
+	@Test
+	public void stencilOverTheLimitIsKeptAlone() {
+		StencilCache cache = new StencilCache(1);
+		cache.get(KERNEL, 0.002, Z, 1, 0, 0);
+		KernelStencil stencil = cache.get(KERNEL, 0.005, Z, 1, 0, 0);
+		assertEquals(1, cache.size());
+		assertEquals(stencil.memoryBytes(), cache.memoryBytes());
+		assertSame(stencil, cache.get(KERNEL, 0.005, Z, 1, 0, 0));
+	}
+
+	@Test
+	public void leastRecentlyUsedGoesFirst() {
+		long one = bytes(0.002);
+		StencilCache cache = new StencilCache(2 * one);
+		KernelStencil a = cache.get(KERNEL, 0.002, Z, 1, 0, 0);
+		cache.get(KERNEL, 0.002, Z, 2, 0, 0);
+		// a is used again, so the second one is dropped
+		cache.get(KERNEL, 0.002, Z, 1, 0, 0);
+		cache.get(KERNEL, 0.002, Z, 2, 1, 1);
+		assertEquals(2, cache.size());
+		assertSame(a, cache.get(KERNEL, 0.002, Z, 1, 0, 0));
+		assertArrayEquals(new long[] { 2, 3 }, cache.stats());
+	}
+}
@@ -0,0 +1,136 @@
+package com.navdata.kernel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.navinfo.grid.GridLevel;
+
+/**
+ * New runs, resumed runs and the result of {@link TiledEstimator}
+ *
+ * @author Lin DONG
+ *
+ */
+public class TiledEstimatorTest {
+	private static final GridLevel LEVEL = GridLevel.GRID_0_001;
+	private static final double BAND_WIDTH = 0.005;
+	private static final int TILE_GRIDS = 32;
+
+	private File directory;
+	private GridEstimator estimator;
+	private PointBatch points;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("tiled").toFile();
+		estimator = new GridEstimator();
+		Random random = new Random(0);
+		points = PointBatch.allocate(2000, true, false);
+		for (int i = 0; i < 2000; i++) {
+			points.add(116 + 0.1 * random.nextDouble(), 39 + 0.1 * random.nextDouble(), 1 + random.nextInt(3));
+		}
+	}
+
+	@After
+	public void tearDown() {
+		delete(directory);
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private TiledEstimator create() {
+		return new TiledEstimator(estimator, LEVEL, BAND_WIDTH, TILE_GRIDS, directory, 4);
+	}
+
+	private void assertSameAsWhole(MappedDensityStore store) throws IOException {
+		DensityGrid whole = estimator.estimateGrid(points, BAND_WIDTH, LEVEL);
+		DensityGrid.Cursor cursor = whole.cursor();
+		while (cursor.next()) {
+			assertEquals(cursor.density(), store.get(cursor.gridID()), 1e-9);
+		}
+	}
+
+	@Test
+	public void tilesAddUpToTheWhole() throws IOException {
+		TiledEstimator tiled = create();
+		tiled.add(points);
+		assertTrue(tiled.run(null) > 1);
+		assertSameAsWhole(tiled.getStore());
+	}
+
+	@Test
+	public void newRunIgnoresStaleSpoolFiles() throws IOException {
+		TiledEstimator crashed = create();
+		crashed.add(points);
+		// all points are spooled, then the first tile fails
+		try {
+			crashed.run(new TiledEstimator.TileSink() {
+				@Override
+				public void accept(int tileCol, int tileRow, DensityGrid density) throws Exception {
+					throw new Exception("crash");
+				}
+			});
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+		TiledEstimator tiled = create();
+		tiled.add(points);
+		tiled.run(null);
+		assertSameAsWhole(tiled.getStore());
+	}
+
+	@Test
+	public void resumeAfterCrash() throws IOException {
+		TiledEstimator crashed = create();
+		crashed.add(points);
+		final int[] accepted = { 0 };
+		try {
+			crashed.run(new TiledEstimator.TileSink() {
+				@Override
+				public void accept(int tileCol, int tileRow, DensityGrid density) throws Exception {
+					if (++accepted[0] == 3) {
+						throw new Exception("crash");
+					}
+				}
+			});
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+		TiledEstimator resumed = TiledEstimator.resume(estimator, LEVEL, BAND_WIDTH, TILE_GRIDS, directory, 4);
+		assertTrue(resumed.run(null) > 0);
+		assertSameAsWhole(resumed.getStore());
+		try {
+			resumed.add(points);
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void resumeNeedsAllPointsSpooled() throws IOException {
+		TiledEstimator crashed = create();
+		crashed.add(points);
+		TiledEstimator.resume(estimator, LEVEL, BAND_WIDTH, TILE_GRIDS, directory, 4);
+	}
+}
@@ -0,0 +1,275 @@
+package com.navdata.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.geom.Point2D;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.gdal.gdalconst.gdalconst;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.navdata.gdalutils.ContourLine;
+import com.navdata.gdalutils.GdalResources;
+import com.navdata.gdalutils.RasterHandle;
+import com.navdata.kernel.Classifier100;
+import com.navdata.kernel.GridEstimator;
+import com.navdata.kernel.GridFile;
+import com.navinfo.grid.GridLevel;
+
+/**
+ * Jobs are journaled only after the {@link PersistStage} succeeds
+ *
+ * @author Lin DONG
+ *
+ */
+public class PipelineTest {
+	private File file;
+	private Journal journal;
+	private File output;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("pipeline", ".journal");
+		journal = new Journal(file);
+		output = Files.createTempDirectory("pipeline").toFile();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		journal.close();
+		file.delete();
+		delete(output);
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	/**
+	 * Random points around Beijing
+	 */
+	private static Stage load() {
+		return Stages.load(new PointSource() {
+			@Override
+			public Point2D[] load(Job job) {
+				Random random = new Random(job.getCity().hashCode());
+				Point2D[] points = new Point2D[500];
+				for (int i = 0; i < points.length; i++) {
+					points[i] = new Point2D.Double(116 + 0.05 * random.nextGaussian(),
+							39.9 + 0.05 * random.nextGaussian());
+				}
+				return points;
+			}
+		});
+	}
+
+	private static Stage estimate() {
+		return Stages.estimate(new GridEstimator(), 0.01, GridLevel.GRID_0_002);
+	}
+
+	private static boolean gdalAvailable() {
+		try (RasterHandle raster = GdalResources.raster(1, 1, gdalconst.GDT_Byte,
+				new double[] { 0, 1, 0, 0, 0, 1 })) {
+			return raster != null;
+		} catch (LinkageError e) {
+			return false;
+		}
+	}
+
+	private static List<Job> jobs(int n) {
+		List<Job> jobs = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			jobs.add(new Job("city" + i, "kind"));
+		}
+		return jobs;
+	}
+
+	private static Stage pass() {
+		return new Stage() {
+			@Override
+			public String getName() {
+				return "pass";
+			}
+
+			@Override
+			public void process(WorkItem item) {
+			}
+		};
+	}
+
+	/**
+	 * Saves nothing, fails for city1
+	 */
+	private static PersistStage persist() {
+		return new PersistStage() {
+			@Override
+			public String getName() {
+				return "persist";
+			}
+
+			@Override
+			public void process(WorkItem item) throws IOException {
+				if (item.getJob().getCity().equals("city1")) {
+					throw new IOException("disk full");
+				}
+			}
+		};
+	}
+
+	@Test(expected = InvalidParameterException.class)
+	public void lastStageMustPersist() throws InterruptedException {
+		Pipeline pipeline = new Pipeline(journal);
+		pipeline.addStage(pass(), 1);
+		pipeline.run(jobs(1));
+	}
+
+	@Test
+	public void failedPersistIsNotJournaled() throws InterruptedException {
+		Pipeline pipeline = new Pipeline(journal);
+		pipeline.addStage(pass(), 2);
+		pipeline.addStage(persist(), 1);
+		List<StageStats> stats = pipeline.run(jobs(3));
+		assertEquals(2, journal.size());
+		assertTrue(journal.isDone(new Job("city0", "kind")));
+		assertFalse(journal.isDone(new Job("city1", "kind")));
+		assertTrue(journal.isDone(new Job("city2", "kind")));
+		assertEquals(1, stats.get(1).getFailed());
+	}
+
+	@Test
+	public void resumeRunsOnlyUnsavedJobs() throws InterruptedException {
+		Pipeline pipeline = new Pipeline(journal);
+		pipeline.addStage(pass(), 1);
+		pipeline.addStage(persist(), 1);
+		pipeline.run(jobs(3));
+		List<StageStats> stats = pipeline.run(jobs(3));
+		assertEquals(1, stats.get(0).getProcessed());
+	}
+
+	@Test(timeout = 10000)
+	public void interruptedRunEnds() throws Exception {
+		final Pipeline pipeline = new Pipeline(null);
+		pipeline.setQueueCapacity(1);
+		pipeline.addStage(new Stage() {
+			@Override
+			public String getName() {
+				return "slow";
+			}
+
+			@Override
+			public void process(WorkItem item) throws InterruptedException {
+				Thread.sleep(50);
+			}
+		}, 1);
+		pipeline.addStage(persist(), 1);
+		final Thread runner = Thread.currentThread();
+		Thread interrupter = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+					return;
+				}
+				runner.interrupt();
+			}
+		});
+		interrupter.start();
+		try {
+			pipeline.run(jobs(1000));
+		} catch (InterruptedException e) {
+			// expected
+		}
+		interrupter.join();
+		Thread.interrupted();
+	}
+
+	@Test
+	public void classesAreSaved() throws Exception {
+		Pipeline pipeline = new Pipeline(journal);
+		pipeline.addStage(load(), 1);
+		pipeline.addStage(estimate(), 2);
+		pipeline.addStage(Stages.classify(new Classifier100()), 1);
+		pipeline.addStage(Stages.writeGridFile(output), 1);
+		pipeline.run(jobs(2));
+		assertEquals(2, journal.size());
+		try (GridFile grid = GridFile.open(new File(output, "city0/kind_0.002.grid"))) {
+			assertTrue(grid.isClasses());
+			assertTrue(grid.getMin() >= 1);
+			assertTrue(grid.getMax() <= 100);
+		}
+	}
+
+	@Test
+	public void contoursAreSaved() throws Exception {
+		Pipeline pipeline = new Pipeline(journal);
+		pipeline.addStage(new Stage() {
+			@Override
+			public String getName() {
+				return "trace";
+			}
+
+			@Override
+			public void process(WorkItem item) {
+				item.setContours(Arrays.asList(new ContourLine(10, new double[] { 116, 39, 116.5, 39.5 }, false)));
+			}
+		}, 1);
+		pipeline.addStage(Stages.writeContours(output), 1);
+		pipeline.run(jobs(1));
+		assertEquals(1, journal.size());
+		String json = new String(Files.readAllBytes(new File(output, "city0/kind_contours.geojson").toPath()),
+				StandardCharsets.UTF_8);
+		assertEquals("{\"type\":\"FeatureCollection\",\"features\":[\n{\"type\":\"Feature\","
+				+ "\"properties\":{\"contour\":10.0},\"geometry\":{\"type\":\"LineString\","
+				+ "\"coordinates\":[[116.0,39.0],[116.5,39.5]]}}\n]}\n", json);
+		assertEquals(1, new File(output, "city0").list().length);
+	}
+
+	/**
+	 * estimate, classify, writeGridFile, rasterize, contour, writeContours. It
+	 * needs GDAL, and is skipped without it.
+	 */
+	@Test
+	public void fullChain() throws Exception {
+		Assume.assumeTrue(gdalAvailable());
+		Pipeline pipeline = new Pipeline(journal);
+		pipeline.addStage(load(), 1);
+		pipeline.addStage(estimate(), 2);
+		pipeline.addStage(Stages.classify(new Classifier100()), 1);
+		pipeline.addStage(Stages.writeGridFile(output), 1);
+		pipeline.addStage(Stages.rasterize(GdalResources.getRasterPool()), 2);
+		pipeline.addStage(Stages.contour(10, 0), 2);
+		pipeline.addStage(Stages.writeContours(output), 1);
+		List<StageStats> stats = pipeline.run(jobs(3));
+		for (StageStats stage : stats) {
+			assertEquals(stage.toString(), 0, stage.getFailed());
+		}
+		assertEquals(3, journal.size());
+		for (int i = 0; i < 3; i++) {
+			assertTrue(new File(output, "city" + i + "/kind_0.002.grid").isFile());
+			String json = new String(
+					Files.readAllBytes(new File(output, "city" + i + "/kind_contours.geojson").toPath()),
+					StandardCharsets.UTF_8);
+			assertTrue(json.contains("LineString"));
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package com.navdata.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Binding and methods of {@link IndexService}
+ *
+ * @author Lin DONG
+ *
+ */
+public class IndexServiceTest {
+	private File directory;
+	private IndexService service;
+	private int port;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("index").toFile();
+		service = new IndexService(directory, 0);
+		port = service.start(0, 1);
+	}
+
+	@After
+	public void tearDown() {
+		service.stop();
+		service.getSnapshot().close();
+		directory.delete();
+	}
+
+	private int request(String method, String path) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + path)
+				.openConnection();
+		connection.setRequestMethod(method);
+		try {
+			return connection.getResponseCode();
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	@Test
+	public void servesOnLoopback() throws IOException {
+		assertEquals(200, request("GET", "/stats"));
+	}
+
+	@Test
+	public void reloadOnlyOnPost() throws IOException {
+		assertEquals(405, request("GET", "/reload"));
+		assertEquals(1, service.getSnapshot().getVersion());
+		assertEquals(200, request("POST", "/reload"));
+		assertEquals(2, service.getSnapshot().getVersion());
+	}
+
+	@Test
+	public void queriesOnlyOnGet() throws IOException {
+		assertEquals(405, request("POST", "/stats"));
+		assertEquals(404, request("GET", "/point?kind=a&level=0.002&lon=1&lat=1"));
+	}
+}